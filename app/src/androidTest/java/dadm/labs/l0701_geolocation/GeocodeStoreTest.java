@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import android.content.Context;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+// Runs on a device, as the store is backed by SQLite.
+@RunWith(AndroidJUnit4.class)
+public class GeocodeStoreTest {
+
+    private static final String DATABASE_NAME = "geocode_cache.db";
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        context.deleteDatabase(DATABASE_NAME);
+    }
+
+    // Addresses committed on close are found by the next store, as after a restart.
+    @Test
+    public void survivesRestart() throws InterruptedException {
+        GeocodeStore store = new GeocodeStore(context);
+        for (long cell = 0; cell < 10; cell++) {
+            store.put(cell, "Address " + cell);
+        }
+        store.close();
+
+        GeocodeStore restarted = new GeocodeStore(context);
+        try {
+            assertEquals("Address 3", awaitAddress(restarted, 3));
+            assertNull(restarted.get(42));
+        } finally {
+            restarted.close();
+        }
+    }
+
+    // A full batch is committed right away, without waiting for the flush delay.
+    @Test
+    public void fullBatchIsCommitted() throws InterruptedException {
+        GeocodeStore store = new GeocodeStore(context);
+        try {
+            for (long cell = 0; cell < 32; cell++) {
+                store.put(cell, "Address " + cell);
+            }
+            assertEquals("Address 31", awaitAddress(store, 31));
+        } finally {
+            store.close();
+        }
+    }
+
+    // Lookups reading the store while it is closed either complete or find it closed, but never fail.
+    @Test
+    public void readsRacingClose() throws Exception {
+        final GeocodeStore store = new GeocodeStore(context);
+        for (long cell = 0; cell < 32; cell++) {
+            store.put(cell, "Address " + cell);
+        }
+        awaitAddress(store, 31);
+
+        ExecutorService readers = Executors.newFixedThreadPool(4);
+        List<Future<?>> reads = new ArrayList<>();
+        try {
+            for (int i = 0; i < 4; i++) {
+                reads.add(readers.submit(() -> {
+                    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(500);
+                    while (System.nanoTime() < deadline) {
+                        store.get(7);
+                    }
+                    return null;
+                }));
+            }
+            Thread.sleep(100);
+            store.close();
+            // An exception thrown by a read fails its future
+            for (Future<?> read : reads) {
+                read.get(5, TimeUnit.SECONDS);
+            }
+        } finally {
+            readers.shutdownNow();
+        }
+
+        // Once closed, nothing is read or stored
+        assertNull(store.get(7));
+        store.put(100, "Late address");
+        assertNull(store.get(100));
+    }
+
+    // Waits until the address of the cell has been committed, and returns it.
+    private static String awaitAddress(GeocodeStore store, long cell) throws InterruptedException {
+        String address = store.get(cell);
+        for (int i = 0; (i < 100) && (address == null); i++) {
+            Thread.sleep(20);
+            address = store.get(cell);
+        }
+        return address;
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+// Adapts the location request parameters to what the device is doing.
+// It estimates the speed of the device from the received fixes and selects a larger update
+// interval and a relaxed priority when stationary, and tighter ones when moving fast.
+// The interval is further relaxed when the battery is low and not charging.
+// Listeners are only notified when the policy actually changes, so the location request
+// has to be registered again only in that case.
+public class AdaptiveLocationScheduler {
+
+    // Receives the new policy whenever it changes.
+    public interface OnPolicyChangedListener {
+        void onPolicyChanged(Policy policy);
+    }
+
+    // Modes of operation, with their update intervals (in milliseconds) and minimum displacement (in meters)
+    public enum Mode {
+        STATIONARY(60000, 30000, 25, true),
+        MOVING(10000, 5000, 10, false),
+        FAST(2000, 1000, 0, false);
+
+        final long intervalMillis;
+        final long fastestIntervalMillis;
+        final float minDistanceMeters;
+        final boolean relaxPriority;
+
+        Mode(long intervalMillis, long fastestIntervalMillis, float minDistanceMeters, boolean relaxPriority) {
+            this.intervalMillis = intervalMillis;
+            this.fastestIntervalMillis = fastestIntervalMillis;
+            this.minDistanceMeters = minDistanceMeters;
+            this.relaxPriority = relaxPriority;
+        }
+    }
+
+    // Parameters to be used when requesting location updates.
+    public static final class Policy {
+        public final Mode mode;
+        public final long intervalMillis;
+        public final long fastestIntervalMillis;
+        public final float minDistanceMeters;
+        // States whether a less power demanding priority should be used
+        public final boolean relaxPriority;
+        // States whether the policy was relaxed due to low battery
+        public final boolean lowBattery;
+
+        Policy(Mode mode, boolean lowBattery) {
+            this.mode = mode;
+            this.lowBattery = lowBattery;
+            int factor = lowBattery ? LOW_BATTERY_INTERVAL_FACTOR : 1;
+            this.intervalMillis = mode.intervalMillis * factor;
+            this.fastestIntervalMillis = mode.fastestIntervalMillis * factor;
+            this.minDistanceMeters = mode.minDistanceMeters;
+            this.relaxPriority = mode.relaxPriority || lowBattery;
+        }
+
+        @Override
+        public String toString() {
+            return "Policy{mode=" + mode + ", interval=" + intervalMillis + "ms, fastest=" + fastestIntervalMillis +
+                    "ms, minDistance=" + minDistanceMeters + "m, relaxPriority=" + relaxPriority + "}";
+        }
+    }
+
+    // Speed below which the device is considered stationary (in m/s)
+    private static final float STATIONARY_SPEED = 0.5f;
+    // Speed above which the device is considered moving fast (in m/s)
+    private static final float FAST_SPEED = 8f;
+    // Weight of the newest speed sample in the smoothed speed
+    private static final float SPEED_SMOOTHING = 0.3f;
+    // Number of consecutive fixes that must suggest a new mode before switching to it
+    private static final int MODE_SWITCH_FIXES = 3;
+    // Battery level below which the battery is considered low (from 0 to 1)
+    private static final float LOW_BATTERY_LEVEL = 0.15f;
+    // Factor applied to the update intervals when the battery is low
+    private static final int LOW_BATTERY_INTERVAL_FACTOR = 2;
+
+    // Listener to be notified when the policy changes
+    private final OnPolicyChangedListener listener;
+
+    // Current policy (immutable, so it can be read from any thread)
+    private volatile Policy policy = new Policy(Mode.MOVING, false);
+    // Mode suggested by the latest fixes and number of consecutive fixes suggesting it
+    private Mode candidateMode = Mode.MOVING;
+    private int candidateFixes = 0;
+    // Smoothed speed of the device (in m/s), or negative if not known yet
+    private float smoothedSpeed = -1;
+    // States whether the battery is low and not charging
+    private boolean lowBattery = false;
+
+    // Previous fix, to estimate the speed when not provided by the location provider
+    private boolean hasPreviousFix = false;
+    private double previousLatitude;
+    private double previousLongitude;
+    private long previousTimeMillis;
+
+    public AdaptiveLocationScheduler(OnPolicyChangedListener listener) {
+        this.listener = listener;
+    }
+
+    // Returns the current policy (it can be called from any thread).
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    // Forgets the fixes received so far and returns to the initial policy.
+    public void reset() {
+        policy = new Policy(Mode.MOVING, lowBattery);
+        candidateMode = Mode.MOVING;
+        candidateFixes = 0;
+        smoothedSpeed = -1;
+        hasPreviousFix = false;
+    }
+
+    // Processes a new fix to update the estimated speed and, if required, the policy.
+    // speed Speed reported by the location provider (in m/s), or negative if not available.
+    public void onLocation(double latitude, double longitude, long timeMillis, float speed) {
+        // Estimate the speed from the displacement when not provided by the location provider
+        if ((speed < 0) && hasPreviousFix && (timeMillis > previousTimeMillis)) {
+            double dLatitude = latitude - previousLatitude;
+            double dLongitude = (longitude - previousLongitude) * Math.cos(Math.toRadians(latitude));
+            double meters = Math.sqrt(dLatitude * dLatitude + dLongitude * dLongitude) * GeocodeCache.METERS_PER_DEGREE;
+            speed = (float) (meters * 1000 / (timeMillis - previousTimeMillis));
+        }
+        hasPreviousFix = true;
+        previousLatitude = latitude;
+        previousLongitude = longitude;
+        previousTimeMillis = timeMillis;
+
+        if (speed < 0) {
+            return;
+        }
+        smoothedSpeed = (smoothedSpeed < 0) ? speed : smoothedSpeed + SPEED_SMOOTHING * (speed - smoothedSpeed);
+
+        // Determine the mode suggested by the current speed
+        Mode mode;
+        if (smoothedSpeed < STATIONARY_SPEED) {
+            mode = Mode.STATIONARY;
+        } else if (smoothedSpeed > FAST_SPEED) {
+            mode = Mode.FAST;
+        } else {
+            mode = Mode.MOVING;
+        }
+
+        // Switch mode only when several consecutive fixes agree, to avoid flapping.
+        // Speeding up is applied right away, so fast movements are not tracked with large intervals
+        if (mode != candidateMode) {
+            candidateMode = mode;
+            candidateFixes = 0;
+        }
+        candidateFixes++;
+        if ((mode.ordinal() > policy.mode.ordinal()) || (candidateFixes >= MODE_SWITCH_FIXES)) {
+            updatePolicy(mode);
+        }
+    }
+
+    // Updates the state of the battery.
+    // level    Battery level (from 0 to 1).
+    // charging Whether the battery is charging.
+    public void setBatteryState(float level, boolean charging) {
+        lowBattery = (level < LOW_BATTERY_LEVEL) && !charging;
+        updatePolicy(policy.mode);
+    }
+
+    // Changes the policy and notifies the listener, unless it is the current one.
+    private void updatePolicy(Mode mode) {
+        if ((mode == policy.mode) && (lowBattery == policy.lowBattery)) {
+            return;
+        }
+        Policy newPolicy = new Policy(mode, lowBattery);
+        policy = newPolicy;
+        if (listener != null) {
+            listener.onPolicyChanged(newPolicy);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+// Persistent store of the addresses resolved for each cell of the GeocodeCache.
+public interface AddressStore {
+
+    // Returns the stored address for the given cell, or null if not available.
+    // It may perform disk I/O, so it must not be called from the main thread.
+    String get(long cell);
+
+    // Stores the address resolved for the given cell.
+    void put(long cell, String address);
+
+    // Commits any pending write and releases the store. Addresses stored afterwards are discarded.
+    void close();
+}
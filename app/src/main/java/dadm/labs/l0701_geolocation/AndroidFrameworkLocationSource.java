@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.location.Location;
+import android.location.LocationListener;
+import android.location.LocationManager;
+import android.os.Bundle;
+import android.os.Looper;
+
+import com.google.android.gms.location.LocationRequest;
+
+// LocationSource relying on the Android Location Framework.
+// The location provider is selected according to the requested priority: GPS for high accuracy
+// and network otherwise. Locations are received on the thread of the given looper.
+public class AndroidFrameworkLocationSource implements LocationSource {
+
+    // LocationManager giving access to the location services
+    private final LocationManager locationManager;
+    // Stream where locations are published, on the thread of the looper
+    private final LocationEventStream stream;
+    private final Looper looper;
+    // Listener to receive location updates
+    private final MyAndroidFrameworkLocationListener listener = new MyAndroidFrameworkLocationListener();
+
+    private boolean active = false;
+
+    public AndroidFrameworkLocationSource(Context context, LocationEventStream stream, Looper looper) {
+        this.locationManager = (LocationManager) context.getSystemService(Context.LOCATION_SERVICE);
+        this.stream = stream;
+        this.looper = looper;
+    }
+
+    @Override
+    public String getName() {
+        return "android";
+    }
+
+    // Permissions are checked by the caller before requesting updates.
+    @SuppressLint("MissingPermission")
+    @Override
+    public boolean requestUpdates(int priority, long intervalMillis, long fastestIntervalMillis,
+                                  float minDistanceMeters, long maxWaitMillis) {
+
+        // Determine the required location provider according to the requested priority
+        String provider = (priority == LocationRequest.PRIORITY_HIGH_ACCURACY) ?
+                LocationManager.GPS_PROVIDER :
+                LocationManager.NETWORK_PROVIDER;
+        // Check whether that location provider is enabled
+        if (!locationManager.isProviderEnabled(provider)) {
+            return false;
+        }
+
+        // Request location updates at the fastest interval and with the minimum distance.
+        // Requesting updates again for the same listener replaces the previous request
+        locationManager.requestLocationUpdates(provider, fastestIntervalMillis, minDistanceMeters, listener, looper);
+        active = true;
+        return true;
+    }
+
+    @Override
+    public void removeUpdates() {
+        locationManager.removeUpdates(listener);
+        active = false;
+    }
+
+    @Override
+    public boolean isActive() {
+        return active;
+    }
+
+    // Custom LocationListener for the Android Location Framework.
+    private class MyAndroidFrameworkLocationListener implements LocationListener {
+
+        // This callback is executed whenever a new location update is received.
+        @Override
+        public void onLocationChanged(Location location) {
+            stream.publish(AndroidFrameworkLocationSource.this, location, true);
+        }
+
+        @Override
+        public void onStatusChanged(String provider, int status, Bundle extras) {
+        }
+
+        @Override
+        public void onProviderEnabled(String provider) {
+        }
+
+        @Override
+        public void onProviderDisabled(String provider) {
+        }
+    }
+}
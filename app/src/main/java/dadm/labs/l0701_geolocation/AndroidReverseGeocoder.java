@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import android.content.Context;
+import android.location.Address;
+import android.location.Geocoder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Reverse and forward geocoder relying on the Android Geocoder, that requires network connectivity.
+public class AndroidReverseGeocoder implements ReverseGeocoder, ForwardGeocoder {
+
+    // Hold reference to a Geocoder to translate coordinates into human readable addresses
+    private final Geocoder geocoder;
+
+    public AndroidReverseGeocoder(Context context) {
+        // Use the application context so the Geocoder does not keep the activity alive
+        geocoder = new Geocoder(context.getApplicationContext());
+    }
+
+    @Override
+    public String getAddress(double latitude, double longitude) throws IOException {
+        Address address = null;
+
+        // Gets a maximum of 1 address from the Geocoder
+        List<Address> addresses = geocoder.getFromLocation(latitude, longitude, 1);
+        // Check that the Geocoder has obtained at least 1 address
+        if ((addresses != null) && (addresses.size() > 0)) {
+            address = addresses.get(0);
+        }
+
+        // Check that the Geocoder got an address
+        if ((address == null) || (address.getMaxAddressLineIndex() == -1)) {
+            return null;
+        }
+        return format(address);
+    }
+
+    @Override
+    public List<GeocodeResult> getAddresses(double latitude, double longitude, int maxResults) throws IOException {
+        return toResults(geocoder.getFromLocation(latitude, longitude, maxResults), latitude, longitude);
+    }
+
+    @Override
+    public List<GeocodeResult> getLocations(String name, int maxResults) throws IOException {
+        return toResults(geocoder.getFromLocationName(name, maxResults), Double.NaN, Double.NaN);
+    }
+
+    // Converts the addresses obtained from the Geocoder into results, skipping those without address lines.
+    // The given coordinates are used for the addresses that do not provide their own ones.
+    private static List<GeocodeResult> toResults(List<Address> addresses, double latitude, double longitude) {
+        if (addresses == null) {
+            return Collections.emptyList();
+        }
+        List<GeocodeResult> results = new ArrayList<>(addresses.size());
+        for (int i = 0; i < addresses.size(); i++) {
+            Address address = addresses.get(i);
+            if ((address.getMaxAddressLineIndex() == -1) || (!address.hasLatitude() && Double.isNaN(latitude))) {
+                continue;
+            }
+            results.add(new GeocodeResult(format(address),
+                    address.hasLatitude() ? address.getLatitude() : latitude,
+                    address.hasLongitude() ? address.getLongitude() : longitude));
+        }
+        return results;
+    }
+
+    // Gets the whole address (comma separated lines) in a single String.
+    private static String format(Address address) {
+        StringBuilder builder = new StringBuilder(address.getAddressLine(0));
+        for (int i = 1; i <= address.getMaxAddressLineIndex(); i++) {
+            builder.append(", ").append(address.getAddressLine(i));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkInfo;
+import android.os.Build;
+
+// Keeps the state of the network connectivity, updated by the notifications of the system, so it can be
+// read from any thread without asking the ConnectivityManager (a call to the system server) on every lookup.
+// From Android 7.0 it follows the default network through a network callback, and on older versions
+// through the connectivity broadcasts. Besides being available, the network may be metered (e.g. mobile data)
+// or constrained (Data Saver is restricting the background data of the app), so expensive lookups can wait.
+public class ConnectivityMonitor implements GeocodingService.NetworkStatus {
+
+    // Receives the state of the connectivity whenever it changes, on any thread.
+    public interface OnConnectivityChangedListener {
+        void onConnectivityChanged(ConnectivityMonitor monitor);
+    }
+
+    private final Context context;
+    private final ConnectivityManager manager;
+    // Listener to be notified when the state changes (null if not monitoring)
+    private volatile OnConnectivityChangedListener listener = null;
+
+    // Current state of the connectivity, read from any thread
+    private volatile boolean available = false;
+    private volatile boolean metered = false;
+    private volatile boolean constrained = false;
+    // Number of changes received from the system
+    private volatile long changes = 0;
+
+    // Follows the default network (from Android 7.0)
+    private ConnectivityManager.NetworkCallback networkCallback = null;
+    // Receives the changes of connectivity (before Android 7.0) or of Data Saver (from Android 7.0)
+    private BroadcastReceiver receiver = null;
+
+    public ConnectivityMonitor(Context context) {
+        this.context = context.getApplicationContext();
+        this.manager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+    }
+
+    // Starts monitoring the connectivity, notifying the listener whenever its state changes.
+    // The current state is read once, so it is available right away.
+    public void start(OnConnectivityChangedListener listener) {
+        if (this.listener != null) {
+            return;
+        }
+        this.listener = listener;
+        refresh();
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            networkCallback = new ConnectivityManager.NetworkCallback() {
+                // Capabilities are not always reported on Android 7, so they are requested once per network
+                @Override
+                public void onAvailable(Network network) {
+                    onCapabilities(manager.getNetworkCapabilities(network));
+                }
+
+                @Override
+                public void onCapabilitiesChanged(Network network, NetworkCapabilities capabilities) {
+                    onCapabilities(capabilities);
+                }
+
+                @Override
+                public void onLost(Network network) {
+                    update(false, metered, constrained);
+                }
+            };
+            manager.registerDefaultNetworkCallback(networkCallback);
+            receiver = new BroadcastReceiver() {
+                @Override
+                public void onReceive(Context context, Intent intent) {
+                    update(available, metered, isDataSaverEnabled());
+                }
+            };
+            context.registerReceiver(receiver, new IntentFilter(ConnectivityManager.ACTION_RESTRICT_BACKGROUND_CHANGED));
+        } else {
+            receiver = new BroadcastReceiver() {
+                @Override
+                public void onReceive(Context context, Intent intent) {
+                    refresh();
+                }
+            };
+            context.registerReceiver(receiver, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+        }
+    }
+
+    // Stops monitoring the connectivity. The last state known is kept.
+    public void stop() {
+        if (listener == null) {
+            return;
+        }
+        if (networkCallback != null) {
+            manager.unregisterNetworkCallback(networkCallback);
+            networkCallback = null;
+        }
+        if (receiver != null) {
+            context.unregisterReceiver(receiver);
+            receiver = null;
+        }
+        listener = null;
+    }
+
+    // Reads the whole state of the connectivity from the ConnectivityManager.
+    private void refresh() {
+        NetworkInfo info = manager.getActiveNetworkInfo();
+        update((info != null) && info.isConnected(), manager.isActiveNetworkMetered(), isDataSaverEnabled());
+    }
+
+    // Updates the state with the capabilities of the default network (null if no longer available).
+    private void onCapabilities(NetworkCapabilities capabilities) {
+        if (capabilities == null) {
+            update(false, metered, constrained);
+            return;
+        }
+        update(capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET),
+                !capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED),
+                isDataSaverEnabled());
+    }
+
+    // States whether Data Saver restricts the background data of the app (only from Android 7.0).
+    private boolean isDataSaverEnabled() {
+        return (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) &&
+                (manager.getRestrictBackgroundStatus() == ConnectivityManager.RESTRICT_BACKGROUND_STATUS_ENABLED);
+    }
+
+    // Sets the new state and notifies the listener if it has changed.
+    // Updates come from the callback thread and the main thread, so they are serialized.
+    private void update(boolean available, boolean metered, boolean constrained) {
+        final OnConnectivityChangedListener listener;
+        synchronized (this) {
+            if ((available == this.available) && (metered == this.metered) && (constrained == this.constrained)) {
+                return;
+            }
+            this.available = available;
+            this.metered = metered;
+            this.constrained = constrained;
+            changes++;
+            listener = this.listener;
+        }
+        if (listener != null) {
+            listener.onConnectivityChanged(this);
+        }
+    }
+
+    // Returns whether Internet connectivity is available, as last notified by the system.
+    @Override
+    public boolean isNetworkAvailable() {
+        return available;
+    }
+
+    // Returns whether the network is metered, so data should be used sparingly.
+    public boolean isMetered() {
+        return metered;
+    }
+
+    // Returns whether Data Saver restricts the background data of the app.
+    public boolean isConstrained() {
+        return constrained;
+    }
+
+    @Override
+    public String toString() {
+        return "available=" + available + " metered=" + metered + " constrained=" + constrained + " changes=" + changes;
+    }
+}
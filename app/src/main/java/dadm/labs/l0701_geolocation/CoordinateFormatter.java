@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+
+// Formats coordinates with a fixed number of decimals into a reusable StringBuilder,
+// producing the same output as String.format("%f") without parsing the format or allocating objects.
+// The label surrounding the value is taken from a format pattern like "Longitude: %1$f", and the
+// decimal separator and digits of the default locale are cached until the locale changes.
+public class CoordinateFormatter {
+
+    // Placeholder of the value in the format pattern
+    private static final String PLACEHOLDER = "%1$f";
+    // Number of decimals of the formatted value (the default of %f)
+    private static final int DECIMALS = 6;
+    private static final long SCALE = 1000000L;
+
+    // Text before and after the value
+    private final String prefix;
+    private final String suffix;
+
+    // Symbols of the locale used to format the values
+    private Locale cachedLocale = null;
+    private char zeroDigit;
+    private char decimalSeparator;
+
+    public CoordinateFormatter(String pattern) {
+        int placeholder = pattern.indexOf(PLACEHOLDER);
+        if (placeholder == -1) {
+            prefix = pattern;
+            suffix = "";
+        } else {
+            prefix = pattern.substring(0, placeholder);
+            suffix = pattern.substring(placeholder + PLACEHOLDER.length());
+        }
+    }
+
+    // Replaces the contents of the builder with the formatted value and returns it.
+    public StringBuilder format(double value, StringBuilder builder) {
+        updateLocale();
+        builder.setLength(0);
+        builder.append(prefix);
+
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            builder.append(Double.isNaN(value) ? "NaN" : ((value > 0) ? "Infinity" : "-Infinity"));
+        } else {
+            long scaled = Math.round(Math.abs(value) * SCALE);
+            // Keep the sign of negative values, even if rounded to zero. As String.format does,
+            // it is always '-', not the minus sign of the locale
+            if (Double.doubleToRawLongBits(value) < 0) {
+                builder.append('-');
+            }
+            appendDigits(builder, scaled / SCALE, 1);
+            builder.append(decimalSeparator);
+            appendDigits(builder, scaled % SCALE, DECIMALS);
+        }
+
+        builder.append(suffix);
+        return builder;
+    }
+
+    // Appends the digits of a non-negative value, padded with zeros up to the given width.
+    private void appendDigits(StringBuilder builder, long value, int width) {
+        int start = builder.length();
+        do {
+            builder.append((char) (zeroDigit + (int) (value % 10)));
+            value /= 10;
+            width--;
+        } while ((value > 0) || (width > 0));
+        // Digits have been appended in reverse order
+        for (int i = start, j = builder.length() - 1; i < j; i++, j--) {
+            char c = builder.charAt(i);
+            builder.setCharAt(i, builder.charAt(j));
+            builder.setCharAt(j, c);
+        }
+    }
+
+    // Loads the symbols of the default locale if it has changed.
+    private void updateLocale() {
+        Locale locale = Locale.getDefault();
+        if (locale != cachedLocale) {
+            DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance(locale);
+            zeroDigit = symbols.getZeroDigit();
+            decimalSeparator = symbols.getDecimalSeparator();
+            cachedLocale = locale;
+        }
+    }
+}
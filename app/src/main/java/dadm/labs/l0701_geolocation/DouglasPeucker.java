@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+// Batch simplification of whole tracks with the Douglas-Peucker algorithm.
+// Long tracks can be split into chunks simplified in parallel. The boundaries between chunks
+// are always kept, so the result may keep a few more points than the sequential version,
+// but every discarded point is still within tolerance of the simplified path.
+public final class DouglasPeucker {
+
+    // Minimum number of points of a chunk simplified in parallel
+    private static final int MIN_CHUNK_POINTS = 4096;
+
+    private DouglasPeucker() {
+    }
+
+    // Returns the indices of the points kept when simplifying the first count points of a track.
+    public static int[] simplify(double[] latitudes, double[] longitudes, int count, double toleranceMeters) {
+        boolean[] keep = new boolean[count];
+        if (count > 0) {
+            simplify(latitudes, longitudes, 0, count - 1, toleranceMeters, keep);
+        }
+        return toIndices(keep);
+    }
+
+    // Same as simplify, but splitting the track into chunks (up to the given number)
+    // that are simplified in parallel by the executor.
+    public static int[] simplifyParallel(final double[] latitudes, final double[] longitudes, int count,
+                                         final double toleranceMeters, ExecutorService executor, int chunks)
+            throws InterruptedException {
+        chunks = Math.max(1, Math.min(chunks, count / MIN_CHUNK_POINTS));
+        if (chunks == 1) {
+            return simplify(latitudes, longitudes, count, toleranceMeters);
+        }
+        final boolean[] keep = new boolean[count];
+
+        // Consecutive chunks share their boundary point, which is kept by both of them
+        List<Callable<Void>> tasks = new ArrayList<>(chunks);
+        for (int i = 0; i < chunks; i++) {
+            final int from = (int) ((long) (count - 1) * i / chunks);
+            final int to = (int) ((long) (count - 1) * (i + 1) / chunks);
+            tasks.add(() -> {
+                simplify(latitudes, longitudes, from, to, toleranceMeters, keep);
+                return null;
+            });
+        }
+        for (Future<Void> future : executor.invokeAll(tasks)) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        return toIndices(keep);
+    }
+
+    // Simplifies a recorded track in parallel and records the kept points into another track file.
+    // Returns the number of points kept, once the file has been completed.
+    public static int simplifyTrack(File input, File output, double toleranceMeters,
+                                    ExecutorService executor, int chunks)
+            throws IOException, InterruptedException {
+        // Load the whole track into primitive arrays
+        double[] latitudes = new double[1024];
+        double[] longitudes = new double[1024];
+        long[] times = new long[1024];
+        float[] accuracies = new float[1024];
+        int count = 0;
+        try (TrackReader reader = new TrackReader(input)) {
+            while (reader.next()) {
+                if (count == latitudes.length) {
+                    int capacity = count * 2;
+                    latitudes = Arrays.copyOf(latitudes, capacity);
+                    longitudes = Arrays.copyOf(longitudes, capacity);
+                    times = Arrays.copyOf(times, capacity);
+                    accuracies = Arrays.copyOf(accuracies, capacity);
+                }
+                latitudes[count] = reader.getLatitude();
+                longitudes[count] = reader.getLongitude();
+                times[count] = reader.getTimeMillis();
+                accuracies[count] = reader.getAccuracy();
+                count++;
+            }
+        }
+
+        int[] kept = simplifyParallel(latitudes, longitudes, count, toleranceMeters, executor, chunks);
+        TrackRecorder recorder = new TrackRecorder(output);
+        try {
+            for (int index : kept) {
+                recorder.append(latitudes[index], longitudes[index], times[index], accuracies[index]);
+            }
+        } finally {
+            recorder.close();
+        }
+        // The recorder completes the file in background
+        recorder.awaitClosed(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        return kept.length;
+    }
+
+    // Marks the points to keep between from and to (both included, and always kept).
+    // It is iterative, so long tracks do not overflow the stack.
+    static void simplify(double[] latitudes, double[] longitudes, int from, int to,
+                         double toleranceMeters, boolean[] keep) {
+        keep[from] = true;
+        keep[to] = true;
+        if (to - from < 2) {
+            return;
+        }
+
+        // Work with squared distances in degrees
+        double tolerance = toleranceMeters / GeocodeCache.METERS_PER_DEGREE;
+        double toleranceSquared = tolerance * tolerance;
+
+        // Stack of ranges pending to be simplified
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = from;
+        stack[top++] = to;
+        while (top > 0) {
+            int end = stack[--top];
+            int start = stack[--top];
+
+            // Find the point farthest from the segment joining both ends of the range,
+            // on a planar projection around the start of the range
+            double scale = Math.cos(Math.toRadians(latitudes[start]));
+            double endX = (longitudes[end] - longitudes[start]) * scale;
+            double endY = latitudes[end] - latitudes[start];
+            double maxDistance = -1;
+            int farthest = -1;
+            for (int i = start + 1; i < end; i++) {
+                double distance = segmentDistanceSquared(
+                        (longitudes[i] - longitudes[start]) * scale, latitudes[i] - latitudes[start], endX, endY);
+                if (distance > maxDistance) {
+                    maxDistance = distance;
+                    farthest = i;
+                }
+            }
+
+            // Keep it and simplify both halves if it is too far
+            if (maxDistance > toleranceSquared) {
+                keep[farthest] = true;
+                if (top + 4 > stack.length) {
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                }
+                if (farthest - start >= 2) {
+                    stack[top++] = start;
+                    stack[top++] = farthest;
+                }
+                if (end - farthest >= 2) {
+                    stack[top++] = farthest;
+                    stack[top++] = end;
+                }
+            }
+        }
+    }
+
+    // Returns the squared distance from point (x, y) to the segment from the origin to (endX, endY).
+    static double segmentDistanceSquared(double x, double y, double endX, double endY) {
+        double lengthSquared = endX * endX + endY * endY;
+        double t = (lengthSquared == 0) ? 0 : (x * endX + y * endY) / lengthSquared;
+        if (t < 0) {
+            t = 0;
+        } else if (t > 1) {
+            t = 1;
+        }
+        double dx = x - t * endX;
+        double dy = y - t * endY;
+        return dx * dx + dy * dy;
+    }
+
+    // Returns the indices of the points marked to be kept.
+    private static int[] toIndices(boolean[] keep) {
+        int count = 0;
+        for (boolean k : keep) {
+            if (k) {
+                count++;
+            }
+        }
+        int[] indices = new int[count];
+        int j = 0;
+        for (int i = 0; i < keep.length; i++) {
+            if (keep[i]) {
+                indices[j++] = i;
+            }
+        }
+        return indices;
+    }
+}
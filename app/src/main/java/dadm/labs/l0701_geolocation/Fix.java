@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+// Mutable holder of the data of a location fix processed by the FixPipeline.
+// Instances are meant to be reused, so no objects are allocated per fix.
+public final class Fix {
+
+    // Coordinates (in degrees)
+    public double latitude;
+    public double longitude;
+    // Estimated horizontal accuracy (in meters), or negative if not known
+    public float accuracy;
+    // Speed (in m/s), or negative if not known
+    public float speed;
+    // UTC time of the fix (in milliseconds since epoch)
+    public long timeMillis;
+    // Time of the fix since system boot (in nanoseconds)
+    public long elapsedRealtimeNanos;
+
+    // Sets all the data of the fix.
+    public Fix set(double latitude, double longitude, float accuracy, float speed,
+                   long timeMillis, long elapsedRealtimeNanos) {
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.accuracy = accuracy;
+        this.speed = speed;
+        this.timeMillis = timeMillis;
+        this.elapsedRealtimeNanos = elapsedRealtimeNanos;
+        return this;
+    }
+
+    // Copies all the data from another fix.
+    public Fix set(Fix other) {
+        return set(other.latitude, other.longitude, other.accuracy, other.speed,
+                other.timeMillis, other.elapsedRealtimeNanos);
+    }
+
+    // Returns the approximate distance (in meters) to the given coordinates.
+    // It uses an equirectangular projection, accurate enough for the short distances between fixes.
+    public double distanceTo(double latitude, double longitude) {
+        double dLatitude = latitude - this.latitude;
+        double dLongitude = (longitude - this.longitude) * Math.cos(Math.toRadians(this.latitude));
+        return Math.sqrt(dLatitude * dLatitude + dLongitude * dLongitude) * GeocodeCache.METERS_PER_DEGREE;
+    }
+
+    @Override
+    public String toString() {
+        return "Fix{" + latitude + ", " + longitude + ", accuracy=" + accuracy + "m, time=" + timeMillis + "}";
+    }
+}
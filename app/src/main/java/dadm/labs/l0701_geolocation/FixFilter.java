@@ -0,0 +1,17 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+// Stage of the FixPipeline. Stages may discard a fix or modify it in place.
+// They are called for every fix, so they must not allocate objects.
+public interface FixFilter {
+
+    // Returns true if the fix must be passed to the next stage.
+    // nowNanos Current time since system boot (in nanoseconds).
+    boolean accept(Fix fix, long nowNanos);
+
+    // Forgets the state kept from previous fixes.
+    void reset();
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import java.util.concurrent.TimeUnit;
+
+// Stages available to build a FixPipeline.
+public final class FixFilters {
+
+    private FixFilters() {
+    }
+
+    // Discards fixes that are too old or older than the newest one already accepted.
+    public static final class AgeGate implements FixFilter {
+
+        private final long maxAgeNanos;
+        private long newestNanos = Long.MIN_VALUE;
+
+        public AgeGate(long maxAgeMillis) {
+            this.maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(maxAgeMillis);
+        }
+
+        @Override
+        public boolean accept(Fix fix, long nowNanos) {
+            if ((nowNanos - fix.elapsedRealtimeNanos > maxAgeNanos) || (fix.elapsedRealtimeNanos < newestNanos)) {
+                return false;
+            }
+            newestNanos = fix.elapsedRealtimeNanos;
+            return true;
+        }
+
+        @Override
+        public void reset() {
+            newestNanos = Long.MIN_VALUE;
+        }
+    }
+
+    // Discards fixes whose estimated accuracy is worse than a given threshold.
+    // Fixes that do not report an accuracy (e.g. from some network providers) are accepted,
+    // and then weighted by the KalmanSmoother as moderately inaccurate.
+    public static final class AccuracyGate implements FixFilter {
+
+        private final float maxAccuracyMeters;
+
+        public AccuracyGate(float maxAccuracyMeters) {
+            this.maxAccuracyMeters = maxAccuracyMeters;
+        }
+
+        @Override
+        public boolean accept(Fix fix, long nowNanos) {
+            return (fix.accuracy < 0) || (fix.accuracy <= maxAccuracyMeters);
+        }
+
+        @Override
+        public void reset() {
+        }
+    }
+
+    // Discards fixes repeating the coordinates of the previous one.
+    public static final class DuplicateFilter implements FixFilter {
+
+        private boolean hasPrevious = false;
+        private double previousLatitude;
+        private double previousLongitude;
+
+        @Override
+        public boolean accept(Fix fix, long nowNanos) {
+            if (hasPrevious && (fix.latitude == previousLatitude) && (fix.longitude == previousLongitude)) {
+                return false;
+            }
+            hasPrevious = true;
+            previousLatitude = fix.latitude;
+            previousLongitude = fix.longitude;
+            return true;
+        }
+
+        @Override
+        public void reset() {
+            hasPrevious = false;
+        }
+    }
+
+    // Discards fixes closer than a given distance to the last accepted one.
+    public static final class DisplacementGate implements FixFilter {
+
+        private final double minDistanceMeters;
+        private boolean hasPrevious = false;
+        private double previousLatitude;
+        private double previousLongitude;
+
+        public DisplacementGate(double minDistanceMeters) {
+            this.minDistanceMeters = minDistanceMeters;
+        }
+
+        @Override
+        public boolean accept(Fix fix, long nowNanos) {
+            if (hasPrevious && (fix.distanceTo(previousLatitude, previousLongitude) < minDistanceMeters)) {
+                return false;
+            }
+            hasPrevious = true;
+            previousLatitude = fix.latitude;
+            previousLongitude = fix.longitude;
+            return true;
+        }
+
+        @Override
+        public void reset() {
+            hasPrevious = false;
+        }
+    }
+
+    // Smooths the coordinates with a lightweight Kalman filter.
+    // The position is modelled as a random walk whose uncertainty grows with the elapsed time
+    // at a given speed, and each fix is weighted according to its estimated accuracy.
+    public static final class KalmanSmoother implements FixFilter {
+
+        // Accuracy assumed for fixes not providing one (in meters)
+        private static final float DEFAULT_ACCURACY = 50f;
+
+        // Expected speed of the device, that determines how fast the uncertainty grows (in m/s)
+        private final double processNoise;
+        private boolean initialized = false;
+        private double latitude;
+        private double longitude;
+        // Variance of the estimated position (in squared meters)
+        private double variance;
+        private long timeNanos;
+
+        public KalmanSmoother(double expectedSpeedMetersPerSecond) {
+            this.processNoise = expectedSpeedMetersPerSecond;
+        }
+
+        @Override
+        public boolean accept(Fix fix, long nowNanos) {
+            double accuracy = Math.max((fix.accuracy >= 0) ? fix.accuracy : DEFAULT_ACCURACY, 1);
+            double measurementVariance = accuracy * accuracy;
+
+            if (!initialized) {
+                initialized = true;
+                latitude = fix.latitude;
+                longitude = fix.longitude;
+                variance = measurementVariance;
+                timeNanos = fix.elapsedRealtimeNanos;
+                return true;
+            }
+
+            // Predict: the uncertainty grows with the time elapsed since the previous fix
+            double seconds = (fix.elapsedRealtimeNanos - timeNanos) / 1e9;
+            if (seconds > 0) {
+                variance += seconds * processNoise * processNoise;
+                timeNanos = fix.elapsedRealtimeNanos;
+            }
+
+            // Update: move the estimate towards the fix according to their relative uncertainty
+            double gain = variance / (variance + measurementVariance);
+            latitude += gain * (fix.latitude - latitude);
+            longitude += gain * (fix.longitude - longitude);
+            variance = (1 - gain) * variance;
+
+            fix.latitude = latitude;
+            fix.longitude = longitude;
+            fix.accuracy = (float) Math.sqrt(variance);
+            return true;
+        }
+
+        @Override
+        public void reset() {
+            initialized = false;
+        }
+    }
+}
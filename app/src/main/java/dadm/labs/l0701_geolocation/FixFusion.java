@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import java.util.concurrent.TimeUnit;
+
+// Merges the fixes received from several location providers into a single best estimate.
+// The latest fix of every provider is kept, and the estimate is the mean of those not too old,
+// weighted by the inverse of their variance: the square of their accuracy plus that of the distance
+// the device may have moved since they were obtained. So a fresh GPS fix dominates while it is
+// accurate, and older or coarser fixes only matter when nothing better is available.
+// Fixes too far from the previous estimate to be compatible with it are discarded as outliers,
+// unless a provider keeps reporting them (e.g. after a tunnel), as well as fixes too far from
+// the most certain one when merging.
+// No objects are allocated per fix. It is not thread safe.
+public class FixFusion {
+
+    // Providers whose fixes are merged
+    public static final int GPS = 0;
+    public static final int NETWORK = 1;
+    public static final int FUSED = 2;
+    private static final int PROVIDERS = 3;
+
+    // Accuracy assumed for fixes not providing one (in meters)
+    private static final float DEFAULT_ACCURACY = 50f;
+    // Fixes further than this number of standard deviations from the estimate, or from the most certain fix, are outliers
+    private static final double OUTLIER_SIGMAS = 3;
+    // Consecutive outliers discarded from a provider before accepting its fixes again
+    private static final int MAX_CONSECUTIVE_OUTLIERS = 2;
+
+    // Speed assumed when fixes do not provide one, that determines how fast they get outdated (in m/s)
+    private final double minSpeed;
+    // Fixes older than this are not merged (in nanoseconds)
+    private final long maxAgeNanos;
+
+    // Latest fix of every provider, and whether there is any
+    private final Fix[] fixes = new Fix[PROVIDERS];
+    private final boolean[] present = new boolean[PROVIDERS];
+    // Variance of every fix at the time of the estimate (in squared meters), reused for every estimate
+    private final double[] variances = new double[PROVIDERS];
+    // Number of fixes received from every provider, and of those discarded as outliers
+    private final long[] received = new long[PROVIDERS];
+    private long outliers = 0;
+    // Consecutive outliers discarded from every provider
+    private final int[] rejections = new int[PROVIDERS];
+
+    // Last estimate, its variance (in squared meters), and whether there is any
+    private final Fix last = new Fix();
+    private double lastVariance;
+    private boolean hasLast = false;
+
+    // minSpeed  Speed assumed when fixes do not provide one (in m/s).
+    // maxAgeMillis Fixes older than this are not merged (in milliseconds).
+    public FixFusion(double minSpeed, long maxAgeMillis) {
+        this.minSpeed = minSpeed;
+        this.maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(maxAgeMillis);
+        for (int i = 0; i < PROVIDERS; i++) {
+            fixes[i] = new Fix();
+        }
+    }
+
+    // Adds a fix from the given provider and stores into estimate the best one with the fixes received so far.
+    // Returns false if the fix has been ignored, because it is not newer than the last one from that provider
+    // or it is an outlier.
+    // nowNanos Current time since system boot (in nanoseconds).
+    public boolean add(int provider, Fix fix, long nowNanos, Fix estimate) {
+        if (present[provider] && (fix.elapsedRealtimeNanos <= fixes[provider].elapsedRealtimeNanos)) {
+            return false;
+        }
+        received[provider]++;
+        if (isOutlier(fix, nowNanos) && (rejections[provider] < MAX_CONSECUTIVE_OUTLIERS)) {
+            rejections[provider]++;
+            outliers++;
+            return false;
+        }
+        rejections[provider] = 0;
+        fixes[provider].set(fix);
+        present[provider] = true;
+        return estimate(nowNanos, estimate);
+    }
+
+    // Returns whether the fix is too far from the last estimate, given the uncertainty of both
+    // and the distance the device may have moved between them.
+    private boolean isOutlier(Fix fix, long nowNanos) {
+        if (!hasLast || (nowNanos - last.elapsedRealtimeNanos > maxAgeNanos)) {
+            return false;
+        }
+        double accuracy = Math.max((fix.accuracy >= 0) ? fix.accuracy : DEFAULT_ACCURACY, 1);
+        double moved = Math.max(minSpeed, Math.max(fix.speed, last.speed)) *
+                Math.abs(fix.elapsedRealtimeNanos - last.elapsedRealtimeNanos) / 1e9;
+        double distance = last.distanceTo(fix.latitude, fix.longitude);
+        return distance * distance > OUTLIER_SIGMAS * OUTLIER_SIGMAS * (accuracy * accuracy + lastVariance + moved * moved);
+    }
+
+    // Stores into estimate the best one with the fixes received so far.
+    // Returns false if there is no fix recent enough.
+    // nowNanos Current time since system boot (in nanoseconds).
+    public boolean estimate(long nowNanos, Fix estimate) {
+        // The estimate refers to the time of the newest fix, and uses its speed to age the other ones
+        int newest = -1;
+        for (int i = 0; i < PROVIDERS; i++) {
+            if (present[i] && (nowNanos - fixes[i].elapsedRealtimeNanos <= maxAgeNanos) &&
+                    ((newest < 0) || (fixes[i].elapsedRealtimeNanos > fixes[newest].elapsedRealtimeNanos))) {
+                newest = i;
+            }
+        }
+        if (newest < 0) {
+            return false;
+        }
+        final Fix newestFix = fixes[newest];
+        final double speed = Math.max(minSpeed, newestFix.speed);
+
+        // The fix with the lowest variance is the reference to detect outliers
+        int reference = newest;
+        for (int i = 0; i < PROVIDERS; i++) {
+            variances[i] = Double.NaN;
+            if (present[i] && (nowNanos - fixes[i].elapsedRealtimeNanos <= maxAgeNanos)) {
+                double accuracy = Math.max((fixes[i].accuracy >= 0) ? fixes[i].accuracy : DEFAULT_ACCURACY, 1);
+                double moved = speed * (newestFix.elapsedRealtimeNanos - fixes[i].elapsedRealtimeNanos) / 1e9;
+                variances[i] = accuracy * accuracy + moved * moved;
+                if (variances[i] < variances[reference]) {
+                    reference = i;
+                }
+            }
+        }
+
+        // Weighted mean of the offsets from the reference (in degrees), so it does not break at the antimeridian
+        final Fix referenceFix = fixes[reference];
+        final double cos = Math.cos(Math.toRadians(referenceFix.latitude));
+        double weights = 0;
+        double dLatitude = 0;
+        double dLongitude = 0;
+        for (int i = 0; i < PROVIDERS; i++) {
+            if (Double.isNaN(variances[i])) {
+                continue;
+            }
+            double offsetLatitude = fixes[i].latitude - referenceFix.latitude;
+            double offsetLongitude = fixes[i].longitude - referenceFix.longitude;
+            if (offsetLongitude > 180) {
+                offsetLongitude -= 360;
+            } else if (offsetLongitude < -180) {
+                offsetLongitude += 360;
+            }
+            if (i != reference) {
+                double x = offsetLongitude * cos * GeocodeCache.METERS_PER_DEGREE;
+                double y = offsetLatitude * GeocodeCache.METERS_PER_DEGREE;
+                if (x * x + y * y > OUTLIER_SIGMAS * OUTLIER_SIGMAS * (variances[i] + variances[reference])) {
+                    continue;
+                }
+            }
+            double weight = 1 / variances[i];
+            weights += weight;
+            dLatitude += weight * offsetLatitude;
+            dLongitude += weight * offsetLongitude;
+        }
+
+        double longitude = referenceFix.longitude + dLongitude / weights;
+        if (longitude > 180) {
+            longitude -= 360;
+        } else if (longitude < -180) {
+            longitude += 360;
+        }
+        estimate.set(referenceFix.latitude + dLatitude / weights, longitude, (float) Math.sqrt(1 / weights),
+                newestFix.speed, newestFix.timeMillis, newestFix.elapsedRealtimeNanos);
+        last.set(estimate);
+        lastVariance = 1 / weights;
+        hasLast = true;
+        return true;
+    }
+
+    // Returns whether the provider has not delivered any fix within the given time, or its last fix
+    // is less accurate than the given threshold.
+    // sinceNanos Time since boot from which fixes are expected (e.g. when updates were requested, in nanoseconds).
+    public boolean isDegraded(int provider, long nowNanos, long sinceNanos, long timeoutNanos, float maxAccuracy) {
+        long lastNanos = present[provider] ? Math.max(sinceNanos, fixes[provider].elapsedRealtimeNanos) : sinceNanos;
+        if (nowNanos - lastNanos > timeoutNanos) {
+            return true;
+        }
+        return present[provider] && (fixes[provider].elapsedRealtimeNanos >= sinceNanos) &&
+                ((fixes[provider].accuracy < 0) || (fixes[provider].accuracy > maxAccuracy));
+    }
+
+    // Returns the accuracy of the last fix of the provider (in meters), or negative if not known.
+    public float getAccuracy(int provider) {
+        return present[provider] ? fixes[provider].accuracy : -1;
+    }
+
+    public long getReceived(int provider) {
+        return received[provider];
+    }
+
+    public long getOutliers() {
+        return outliers;
+    }
+
+    // Forgets all the fixes received.
+    public void reset() {
+        for (int i = 0; i < PROVIDERS; i++) {
+            present[i] = false;
+            rejections[i] = 0;
+        }
+        hasLast = false;
+    }
+}
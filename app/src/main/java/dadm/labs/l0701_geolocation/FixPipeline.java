@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+// Processes the fixes received from the location providers before they reach the user interface.
+// Fixes go through a sequence of FixFilter stages, each one able to discard or modify them,
+// so only meaningful position changes trigger the rendering and geocoding work downstream.
+public class FixPipeline {
+
+    // Stages in processing order
+    private final FixFilter[] stages;
+
+    // Number of fixes processed and accepted, to tune the stages
+    private long processed = 0;
+    private long accepted = 0;
+
+    public FixPipeline(FixFilter... stages) {
+        this.stages = stages;
+    }
+
+    // Creates the pipeline used by default: discard stale and inaccurate fixes and exact duplicates,
+    // smooth the remaining ones and discard those that do not move far enough from the last one.
+    public static FixPipeline createDefault() {
+        return new FixPipeline(
+                new FixFilters.AgeGate(10 * 60 * 1000),
+                new FixFilters.AccuracyGate(100),
+                new FixFilters.DuplicateFilter(),
+                new FixFilters.KalmanSmoother(3),
+                new FixFilters.DisplacementGate(5));
+    }
+
+    // Passes the fix through all the stages. The fix may be modified in place.
+    // Returns true if it has been accepted by all the stages.
+    // nowNanos Current time since system boot (in nanoseconds).
+    public boolean process(Fix fix, long nowNanos) {
+        processed++;
+        for (FixFilter stage : stages) {
+            if (!stage.accept(fix, nowNanos)) {
+                return false;
+            }
+        }
+        accepted++;
+        return true;
+    }
+
+    // Forgets the state kept from previous fixes.
+    public void reset() {
+        for (FixFilter stage : stages) {
+            stage.reset();
+        }
+    }
+
+    public long getProcessed() {
+        return processed;
+    }
+
+    public long getAccepted() {
+        return accepted;
+    }
+}
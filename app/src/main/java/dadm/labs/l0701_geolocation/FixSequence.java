@@ -0,0 +1,16 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+// Sequence of fixes read one at a time, such as a recorded track or a synthetic one.
+public interface FixSequence extends Closeable {
+
+    // Copies the next fix of the sequence into the given one.
+    // Returns false if there are no more fixes.
+    boolean next(Fix fix) throws IOException;
+}
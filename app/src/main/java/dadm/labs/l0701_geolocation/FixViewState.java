@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+// Immutable snapshot of the tracking session handed to the user interface for every new fix:
+// the fix itself, when its location was received and the statistics of the track so far.
+// It is built on the thread processing the locations, so it can be passed safely to the main thread.
+public final class FixViewState {
+
+    // Coordinates (in degrees), accuracy (in meters, negative if not known) and speed (in m/s, negative if not known)
+    public final double latitude;
+    public final double longitude;
+    public final float accuracy;
+    public final float speed;
+    // UTC time of the fix (in milliseconds since epoch), and time since boot when it was obtained (in nanoseconds)
+    public final long timeMillis;
+    public final long elapsedRealtimeNanos;
+    // Time since boot when the location was received by a callback, or 0 if not (e.g. on startup, in nanoseconds)
+    public final long callbackNanos;
+
+    // Statistics of the track: number of fixes (0 if not known), distance covered (in meters),
+    // current and average speed (in m/s), and elevation gained (in meters)
+    public final int trackFixes;
+    public final double trackDistance;
+    public final double trackSpeed;
+    public final double trackAverageSpeed;
+    public final double trackElevationGain;
+
+    // statistics Statistics of the track, or null if not known.
+    FixViewState(Fix fix, long callbackNanos, TrackStatistics statistics) {
+        this.latitude = fix.latitude;
+        this.longitude = fix.longitude;
+        this.accuracy = fix.accuracy;
+        this.speed = fix.speed;
+        this.timeMillis = fix.timeMillis;
+        this.elapsedRealtimeNanos = fix.elapsedRealtimeNanos;
+        this.callbackNanos = callbackNanos;
+        if (statistics != null) {
+            trackFixes = statistics.getCount();
+            trackDistance = statistics.getDistance();
+            trackSpeed = statistics.getSpeed();
+            trackAverageSpeed = statistics.getAverageSpeed();
+            trackElevationGain = statistics.getElevationGain();
+        } else {
+            trackFixes = 0;
+            trackDistance = 0;
+            trackSpeed = 0;
+            trackAverageSpeed = 0;
+            trackElevationGain = 0;
+        }
+    }
+
+    // Copies the fix into the given one.
+    public Fix toFix(Fix fix) {
+        return fix.set(latitude, longitude, accuracy, speed, timeMillis, elapsedRealtimeNanos);
+    }
+
+    @Override
+    public String toString() {
+        return "FixViewState{" + latitude + ", " + longitude + ", accuracy=" + accuracy + "m, time=" + timeMillis +
+                ", trackFixes=" + trackFixes + "}";
+    }
+}
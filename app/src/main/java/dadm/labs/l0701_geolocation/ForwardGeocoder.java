@@ -0,0 +1,16 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import java.io.IOException;
+import java.util.List;
+
+// Translates the name of a place (or an address) into the coordinates of the places matching it.
+// Implementations are called from the GeocodingService workers, so they may block.
+public interface ForwardGeocoder {
+
+    // Returns at most maxResults places matching the given name, best match first (empty if none).
+    List<GeocodeResult> getLocations(String name, int maxResults) throws IOException;
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.location.Location;
+import android.os.Looper;
+
+import com.google.android.gms.location.FusedLocationProviderClient;
+import com.google.android.gms.location.LocationCallback;
+import com.google.android.gms.location.LocationRequest;
+import com.google.android.gms.location.LocationResult;
+import com.google.android.gms.location.LocationServices;
+
+import java.util.List;
+
+// LocationSource relying on the fused location provider of the Google Location API.
+// Locations are received on the thread of the given looper.
+public class FusedLocationSource implements LocationSource {
+
+    // Client giving access to the fused location provider
+    private final FusedLocationProviderClient fusedLocationClient;
+    // Stream where locations are published, on the thread of the looper
+    private final LocationEventStream stream;
+    private final Looper looper;
+    // Callback to receive location updates
+    private final MyGoogleLocationCallback callback = new MyGoogleLocationCallback();
+
+    private boolean active = false;
+
+    public FusedLocationSource(Context context, LocationEventStream stream, Looper looper) {
+        this.fusedLocationClient = LocationServices.getFusedLocationProviderClient(context);
+        this.stream = stream;
+        this.looper = looper;
+    }
+
+    // Creates a request for the fused location provider with the given parameters.
+    public static LocationRequest createRequest(int priority, long intervalMillis, long fastestIntervalMillis,
+                                                float minDistanceMeters, long maxWaitMillis) {
+        LocationRequest request = LocationRequest.create();
+        request.setPriority(priority);
+        request.setInterval(intervalMillis);
+        request.setFastestInterval(fastestIntervalMillis);
+        request.setSmallestDisplacement(minDistanceMeters);
+        // Let the provider deliver locations in batches
+        if (maxWaitMillis > 0) {
+            request.setMaxWaitTime(maxWaitMillis);
+        }
+        return request;
+    }
+
+    @Override
+    public String getName() {
+        return "fused";
+    }
+
+    // Permissions are checked by the caller before requesting updates.
+    @SuppressLint("MissingPermission")
+    @Override
+    public boolean requestUpdates(int priority, long intervalMillis, long fastestIntervalMillis,
+                                  float minDistanceMeters, long maxWaitMillis) {
+        // Requesting updates again for the same callback replaces the previous request
+        fusedLocationClient.requestLocationUpdates(
+                createRequest(priority, intervalMillis, fastestIntervalMillis, minDistanceMeters, maxWaitMillis),
+                callback,
+                looper);
+        active = true;
+        return true;
+    }
+
+    @Override
+    public void removeUpdates() {
+        fusedLocationClient.removeLocationUpdates(callback);
+        active = false;
+    }
+
+    @Override
+    public boolean isActive() {
+        return active;
+    }
+
+    private class MyGoogleLocationCallback extends LocationCallback {
+
+        // This callback is executed whenever new location updates are received.
+        // Several locations are received at once when they are delivered in batches.
+        @Override
+        public void onLocationResult(LocationResult locationResult) {
+            List<Location> locations = locationResult.getLocations();
+            for (int i = 0; i < locations.size(); i++) {
+                stream.publish(FusedLocationSource.this, locations.get(i), i == locations.size() - 1);
+            }
+        }
+    }
+}
@@ -0,0 +1,313 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.location.Location;
+import android.location.LocationListener;
+import android.location.LocationManager;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.google.android.gms.location.FusedLocationProviderClient;
+import com.google.android.gms.location.LocationCallback;
+import com.google.android.gms.location.LocationRequest;
+import com.google.android.gms.location.LocationResult;
+import com.google.android.gms.location.LocationServices;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// LocationSource subscribing to the GPS and network providers of the Android Location Framework and to
+// the fused location provider of the Google Location API at once, and merging their fixes with FixFusion
+// into a single best estimate, that is published on the thread of the given looper.
+// Locations are received and merged on a dedicated background thread, so that thread only gets
+// the estimates. GPS is only used for high accuracy requests, and it is switched off when degraded
+// (no fix for a while or a poor accuracy, e.g. indoors), relying then on the cheaper providers until it
+// is probed again after a growing delay. The fused provider is requested with balanced priority,
+// so it never turns on GPS by itself.
+public class FusionLocationSource implements LocationSource {
+
+    // GPS is degraded if it delivers no fix within this number of intervals, and at least the minimum time
+    private static final int GPS_TIMEOUT_INTERVALS = 3;
+    private static final long MIN_GPS_TIMEOUT_MILLIS = 30 * 1000;
+    // GPS is degraded if its fixes are less accurate than this (in meters)
+    private static final float GPS_DEGRADED_ACCURACY = 30;
+    // Time GPS is off after being degraded, doubled whenever it is still degraded when probed again
+    private static final long INITIAL_GPS_RETRY_MILLIS = 60 * 1000;
+    private static final long MAX_GPS_RETRY_MILLIS = 10 * 60 * 1000;
+    // Speed assumed to age the fixes not providing one (in m/s), and maximum age of the fixes merged
+    private static final double MIN_SPEED = 1.5;
+    private static final long MAX_FIX_AGE_MILLIS = 60 * 1000;
+
+    private final LocationManager locationManager;
+    private final FusedLocationProviderClient fusedLocationClient;
+    // Stream where locations are published
+    private final LocationEventStream stream;
+    // Handler publishing the estimates on the thread of the looper, that must also request and remove updates
+    private final Handler deliveryHandler;
+    // Current session, from the request of updates until they are removed (null if not active)
+    private Session session = null;
+
+    public FusionLocationSource(Context context, LocationEventStream stream, Looper looper) {
+        this.locationManager = (LocationManager) context.getSystemService(Context.LOCATION_SERVICE);
+        this.fusedLocationClient = LocationServices.getFusedLocationProviderClient(context);
+        this.stream = stream;
+        this.deliveryHandler = new Handler(looper);
+    }
+
+    @Override
+    public String getName() {
+        return "fusion";
+    }
+
+    // Batching is not supported, as the fixes must be merged as they arrive.
+    @Override
+    public boolean requestUpdates(final int priority, final long intervalMillis, final long fastestIntervalMillis,
+                                  final float minDistanceMeters, long maxWaitMillis) {
+        final boolean gpsEnabled = locationManager.isProviderEnabled(LocationManager.GPS_PROVIDER);
+        final boolean networkEnabled = locationManager.isProviderEnabled(LocationManager.NETWORK_PROVIDER);
+        if (!gpsEnabled && !networkEnabled) {
+            return false;
+        }
+
+        if (session == null) {
+            session = new Session();
+        }
+        // Requests are replaced on the fusion thread, where all the state of the session is kept
+        final Session requested = session;
+        requested.handler.post(() -> requested.applyRequest(
+                (priority == LocationRequest.PRIORITY_HIGH_ACCURACY) && gpsEnabled, networkEnabled,
+                intervalMillis, fastestIntervalMillis, minDistanceMeters));
+        return true;
+    }
+
+    // Stops all the providers and the fusion thread.
+    @Override
+    public void removeUpdates() {
+        if (session != null) {
+            session.close();
+            session = null;
+        }
+        deliveryHandler.removeCallbacksAndMessages(null);
+    }
+
+    @Override
+    public boolean isActive() {
+        return session != null;
+    }
+
+    @Override
+    public String toString() {
+        final Session current = session;
+        return "FusionLocationSource{" + ((current != null) ? current : "inactive") + "}";
+    }
+
+    // Providers, fusion thread and state of a request of updates. Every session has its own thread
+    // and listeners, so one being closed cannot interfere with the next one.
+    // All the fields are only used on the fusion thread, unless otherwise stated.
+    private class Session {
+
+        // Thread receiving and merging the locations, and handler running tasks on it (used on any thread)
+        private final HandlerThread thread;
+        private final Handler handler;
+        // Listeners receiving the locations of every provider
+        private final ProviderListener gpsListener = new ProviderListener(this, FixFusion.GPS);
+        private final ProviderListener networkListener = new ProviderListener(this, FixFusion.NETWORK);
+        private final MyFusedLocationCallback fusedCallback = new MyFusedLocationCallback(this);
+
+        private final FixFusion fusion = new FixFusion(MIN_SPEED, MAX_FIX_AGE_MILLIS);
+        // Location received and estimate, reused for every location
+        private final Fix received = new Fix();
+        private final Fix estimate = new Fix();
+        // Parameters of the current request
+        private boolean gpsRequested;
+        private long intervalMillis;
+        private float minDistanceMeters;
+        // Time since boot when GPS was last switched on, and before which it is not switched on again (in nanoseconds)
+        private long gpsStartNanos;
+        private long gpsRetryNanos;
+        // Time GPS will be off the next time it is degraded (in milliseconds)
+        private long gpsRetryMillis = INITIAL_GPS_RETRY_MILLIS;
+        private final Runnable checkGpsTask = this::checkGps;
+        // States whether GPS is currently on (read on any thread)
+        private volatile boolean gpsOn = false;
+
+        Session() {
+            thread = new HandlerThread("location-fusion");
+            thread.start();
+            handler = new Handler(thread.getLooper());
+            gpsRetryNanos = SystemClock.elapsedRealtimeNanos();
+        }
+
+        // Registers the providers for the given request.
+        // Permissions are checked by the caller before requesting updates.
+        @SuppressLint("MissingPermission")
+        void applyRequest(boolean gps, boolean network, long intervalMillis, long fastestIntervalMillis,
+                          float minDistanceMeters) {
+            this.gpsRequested = gps;
+            this.intervalMillis = intervalMillis;
+            this.minDistanceMeters = minDistanceMeters;
+
+            if (network) {
+                locationManager.requestLocationUpdates(LocationManager.NETWORK_PROVIDER,
+                        fastestIntervalMillis, minDistanceMeters, networkListener, thread.getLooper());
+            } else {
+                locationManager.removeUpdates(networkListener);
+            }
+            fusedLocationClient.requestLocationUpdates(
+                    FusedLocationSource.createRequest(LocationRequest.PRIORITY_BALANCED_POWER_ACCURACY,
+                            intervalMillis, fastestIntervalMillis, minDistanceMeters, 0),
+                    fusedCallback,
+                    thread.getLooper());
+
+            // Switch GPS on right away unless it was recently degraded
+            if (gps && (SystemClock.elapsedRealtimeNanos() - gpsRetryNanos >= 0)) {
+                startGps();
+            } else if (!gps) {
+                stopGps();
+            }
+            handler.removeCallbacks(checkGpsTask);
+            handler.postDelayed(checkGpsTask, getGpsTimeoutMillis());
+        }
+
+        // Discards the pending tasks and removes the providers on the fusion thread, once any request
+        // being applied has finished, and then stops the thread (called on the delivery thread).
+        void close() {
+            handler.removeCallbacksAndMessages(null);
+            handler.post(() -> {
+                stopGps();
+                locationManager.removeUpdates(networkListener);
+                fusedLocationClient.removeLocationUpdates(fusedCallback);
+                thread.quit();
+            });
+        }
+
+        // Switches GPS off when degraded, and on again once the retry time is over (run periodically).
+        private void checkGps() {
+            long now = SystemClock.elapsedRealtimeNanos();
+            if (gpsOn && fusion.isDegraded(FixFusion.GPS, now, gpsStartNanos,
+                    TimeUnit.MILLISECONDS.toNanos(getGpsTimeoutMillis()), GPS_DEGRADED_ACCURACY)) {
+                stopGps();
+                gpsRetryNanos = now + TimeUnit.MILLISECONDS.toNanos(gpsRetryMillis);
+                gpsRetryMillis = Math.min(gpsRetryMillis * 2, MAX_GPS_RETRY_MILLIS);
+            } else if (!gpsOn && gpsRequested && (now - gpsRetryNanos >= 0)) {
+                startGps();
+            }
+            handler.postDelayed(checkGpsTask, getGpsTimeoutMillis());
+        }
+
+        @SuppressLint("MissingPermission")
+        private void startGps() {
+            // Requesting updates again for the same listener replaces the previous request
+            locationManager.requestLocationUpdates(LocationManager.GPS_PROVIDER,
+                    intervalMillis, minDistanceMeters, gpsListener, thread.getLooper());
+            // Only switching GPS on again counts as a new start
+            if (!gpsOn) {
+                gpsOn = true;
+                gpsStartNanos = SystemClock.elapsedRealtimeNanos();
+            }
+        }
+
+        private void stopGps() {
+            locationManager.removeUpdates(gpsListener);
+            gpsOn = false;
+        }
+
+        private long getGpsTimeoutMillis() {
+            return Math.max(MIN_GPS_TIMEOUT_MILLIS, GPS_TIMEOUT_INTERVALS * intervalMillis);
+        }
+
+        // Merges a location received from a provider and publishes the new estimate on the delivery thread.
+        void onLocation(int provider, Location location) {
+            received.set(location.getLatitude(), location.getLongitude(),
+                    location.hasAccuracy() ? location.getAccuracy() : -1,
+                    location.hasSpeed() ? location.getSpeed() : -1,
+                    location.getTime(), location.getElapsedRealtimeNanos());
+            if (!fusion.add(provider, received, SystemClock.elapsedRealtimeNanos(), estimate)) {
+                return;
+            }
+            // Accurate GPS fixes restore the initial retry time
+            if ((provider == FixFusion.GPS) && (received.accuracy >= 0) && (received.accuracy <= GPS_DEGRADED_ACCURACY)) {
+                gpsRetryMillis = INITIAL_GPS_RETRY_MILLIS;
+            }
+
+            final Location fused = new Location(getName());
+            fused.setLatitude(estimate.latitude);
+            fused.setLongitude(estimate.longitude);
+            fused.setAccuracy(estimate.accuracy);
+            if (estimate.speed >= 0) {
+                fused.setSpeed(estimate.speed);
+            }
+            if (location.hasAltitude()) {
+                fused.setAltitude(location.getAltitude());
+            }
+            fused.setTime(estimate.timeMillis);
+            fused.setElapsedRealtimeNanos(estimate.elapsedRealtimeNanos);
+            deliveryHandler.post(() -> {
+                // Estimates of a closed session are discarded
+                if (session == this) {
+                    stream.publish(FusionLocationSource.this, fused, true);
+                }
+            });
+        }
+
+        @Override
+        public String toString() {
+            return "gps=" + (gpsOn ? "on" : "off");
+        }
+    }
+
+    // Receives the locations of a provider of the Android Location Framework on the fusion thread.
+    private static class ProviderListener implements LocationListener {
+
+        private final Session session;
+        private final int provider;
+
+        ProviderListener(Session session, int provider) {
+            this.session = session;
+            this.provider = provider;
+        }
+
+        @Override
+        public void onLocationChanged(Location location) {
+            session.onLocation(provider, location);
+        }
+
+        @Override
+        public void onStatusChanged(String provider, int status, Bundle extras) {
+        }
+
+        @Override
+        public void onProviderEnabled(String provider) {
+        }
+
+        @Override
+        public void onProviderDisabled(String provider) {
+        }
+    }
+
+    // Receives the locations of the fused location provider on the fusion thread.
+    private static class MyFusedLocationCallback extends LocationCallback {
+
+        private final Session session;
+
+        MyFusedLocationCallback(Session session) {
+            this.session = session;
+        }
+
+        @Override
+        public void onLocationResult(LocationResult locationResult) {
+            List<Location> locations = locationResult.getLocations();
+            for (int i = 0; i < locations.size(); i++) {
+                session.onLocation(FixFusion.FUSED, locations.get(i));
+            }
+        }
+    }
+}
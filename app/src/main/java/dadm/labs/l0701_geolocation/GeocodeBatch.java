@@ -0,0 +1,311 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Set of geocoding queries resolved together by the GeocodingService: reverse lookups of a list of
+// coordinates (e.g. a whole recorded track), possibly with several candidates each, or forward lookups
+// of a list of names. Cached addresses are delivered right away, and the remaining queries are taken
+// one at a time by a bounded number of workers. Results are streamed to the listener on the thread
+// receiving the addresses as each query is resolved, so they are not in the order of the queries.
+// Queries that cannot be resolved without network, or that would use a metered one when the batch has several
+// queries, are set aside and resolved in a new round once the service resumes the batch.
+// Queries refused by the rate limit or the backoff of the online geocoder, and not answered offline, wait
+// until it accepts lookups again, so the workers keep to the pace of the limit instead of reporting no results.
+public class GeocodeBatch {
+
+    private final GeocodingService service;
+    private final GeocodingService.OnResultsListener listener;
+    // Coordinates to translate into addresses, or names to translate into coordinates (the other ones are null)
+    private final double[] latitudes;
+    private final double[] longitudes;
+    private final String[] names;
+    // Number of queries, and maximum number of results for each of them
+    private final int size;
+    private final int maxResults;
+
+    // Workers resolving the queries, so they can be cancelled
+    private final List<Future<?>> workers = new ArrayList<>();
+    // Queries waiting for the network to be resolved (guarded by deliveryLock)
+    private final List<Integer> deferredQueries = new ArrayList<>();
+    private volatile boolean cancelled = false;
+
+    // Results waiting to be delivered (guarded by the lock), and number of queries resolved so far
+    private final Object deliveryLock = new Object();
+    private final List<Integer> resolvedQueries = new ArrayList<>();
+    private final List<List<GeocodeResult>> resolvedResults = new ArrayList<>();
+    private int resolvedCount = 0;
+    private boolean deliveryScheduled = false;
+    private final Runnable deliveryTask = this::deliverResults;
+    // States whether the listener has been told that the batch is finished (only used on the delivery thread)
+    private boolean finished = false;
+
+    GeocodeBatch(GeocodingService service, double[] latitudes, double[] longitudes, String[] names,
+                 int size, int maxResults, GeocodingService.OnResultsListener listener) {
+        this.service = service;
+        this.latitudes = latitudes;
+        this.longitudes = longitudes;
+        this.names = names;
+        this.size = size;
+        this.maxResults = maxResults;
+        this.listener = listener;
+    }
+
+    // Delivers the cached addresses and spreads the remaining queries over at most the given number of workers.
+    // It must be called from the thread receiving the addresses.
+    void start(ExecutorService executor, int maxWorkers) {
+        service.metrics.geocodeRequests.addAndGet(size);
+        // Queries not found in the cache, to be resolved by the workers
+        int[] pendingQueries = new int[size];
+        int pendingCount = 0;
+        for (int i = 0; i < size; i++) {
+            // The cache only holds the best address of each cell
+            if ((names == null) && (maxResults == 1)) {
+                String address = service.cache.get(latitudes[i], longitudes[i]);
+                if (address != null) {
+                    service.metrics.geocodeCacheHits.incrementAndGet();
+                    publish(i, Collections.singletonList(new GeocodeResult(address, latitudes[i], longitudes[i])));
+                    continue;
+                }
+            }
+            pendingQueries[pendingCount++] = i;
+        }
+
+        if (size == 0) {
+            // Nothing to resolve, but the listener must still be told
+            scheduleDelivery();
+        }
+        startWorkers(executor, maxWorkers, pendingQueries, pendingCount);
+    }
+
+    // Resolves the deferred queries in a new round, once the network is available.
+    // It must be called from the thread receiving the addresses.
+    void resume(ExecutorService executor, int maxWorkers) {
+        int[] queries;
+        synchronized (deliveryLock) {
+            queries = new int[deferredQueries.size()];
+            for (int i = 0; i < queries.length; i++) {
+                queries[i] = deferredQueries.get(i);
+            }
+            deferredQueries.clear();
+        }
+        if (!cancelled) {
+            startWorkers(executor, maxWorkers, queries, queries.length);
+        }
+    }
+
+    // Spreads the first count queries over at most the given number of workers.
+    private void startWorkers(ExecutorService executor, int maxWorkers, final int[] queries, final int count) {
+        final AtomicInteger next = new AtomicInteger();
+        for (int i = 0; i < Math.min(count, maxWorkers); i++) {
+            workers.add(executor.submit(() -> resolvePending(queries, count, next)));
+        }
+    }
+
+    // Stops resolving the queries. No more results are delivered to the listener, not even onFinished().
+    // It must be called from the thread receiving the addresses.
+    public void cancel() {
+        cancelled = true;
+        for (int i = 0; i < workers.size(); i++) {
+            workers.get(i).cancel(true);
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    // Number of queries in the batch.
+    public int size() {
+        return size;
+    }
+
+    // Takes the pending queries one at a time until none is left (run by each worker of a round).
+    private void resolvePending(int[] queries, int count, AtomicInteger next) {
+        int index;
+        while (!cancelled && ((index = next.getAndIncrement()) < count)) {
+            int query = queries[index];
+            // Large batches do not use a metered or constrained network
+            if (service.isExpensive(size)) {
+                defer(query);
+                continue;
+            }
+            List<GeocodeResult> results = resolvePaced(query);
+            if ((results == null) || cancelled || Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            // Queries that could not be resolved without network are retried once it is available
+            if (results.isEmpty() && !service.networkStatus.isNetworkAvailable()) {
+                defer(query);
+                continue;
+            }
+            publish(query, results);
+        }
+    }
+
+    // Sets a query aside until the service resumes the batch, registering the batch with its first deferred query.
+    private void defer(int query) {
+        boolean first;
+        synchronized (deliveryLock) {
+            first = deferredQueries.isEmpty();
+            deferredQueries.add(query);
+        }
+        service.metrics.geocodeDeferred.incrementAndGet();
+        if (first) {
+            service.deferBatch(this);
+        }
+    }
+
+    // Resolves a query, waiting as long as the online geocoder refuses the lookup.
+    // Returns null if the worker is interrupted while waiting.
+    private List<GeocodeResult> resolvePaced(int query) {
+        while (true) {
+            try {
+                return resolve(query);
+            } catch (SingleFlightGeocoder.ThrottledException e) {
+                try {
+                    Thread.sleep(e.getRetryDelayMillis());
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
+        }
+    }
+
+    // Resolves a query, following the fallback policy of the service.
+    // Throws a ThrottledException if the online geocoder refused the lookup and no other source had results.
+    private List<GeocodeResult> resolve(int query) throws SingleFlightGeocoder.ThrottledException {
+        // Single reverse lookups share the store, the cache and the single-flight of the latest address
+        if ((names == null) && (maxResults == 1)) {
+            GeocoderTask task = new GeocoderTask(service, 0, latitudes[query], longitudes[query]);
+            String address = task.resolveAddress();
+            if ((address == null) && (task.getThrottled() != null)) {
+                throw task.getThrottled();
+            }
+            return (address == null) ? Collections.<GeocodeResult>emptyList() :
+                    Collections.singletonList(new GeocodeResult(address, latitudes[query], longitudes[query]));
+        }
+
+        final ReverseGeocoder offlineGeocoder = service.getOfflineGeocoder();
+        final GeocodingService.FallbackPolicy policy = service.fallbackPolicy;
+        List<GeocodeResult> results = Collections.emptyList();
+        SingleFlightGeocoder.ThrottledException throttled = null;
+        if ((offlineGeocoder != null) && (policy == GeocodingService.FallbackPolicy.OFFLINE_FIRST)) {
+            results = lookup(offlineGeocoder, query, false);
+        }
+        if (results.isEmpty() && service.networkStatus.isNetworkAvailable()) {
+            try {
+                results = lookup(service.onlineGeocoder, query, true);
+            } catch (SingleFlightGeocoder.ThrottledException e) {
+                throttled = e;
+            }
+        }
+        if (results.isEmpty() && (offlineGeocoder != null) && (policy == GeocodingService.FallbackPolicy.ONLINE_FIRST)) {
+            results = lookup(offlineGeocoder, query, false);
+        }
+        if (results.isEmpty() && (throttled != null)) {
+            throw throttled;
+        }
+        return results;
+    }
+
+    // Resolves a query through the given geocoder, measuring its latency.
+    // Returns no results if the geocoder failed or does not support forward lookups,
+    // and throws a ThrottledException if the lookup was refused because of the rate limit or backoff.
+    private List<GeocodeResult> lookup(ReverseGeocoder geocoder, int query, boolean online)
+            throws SingleFlightGeocoder.ThrottledException {
+        final TrackingMetrics metrics = service.metrics;
+        final LatencyHistogram latency = online ? metrics.onlineGeocodeLatency : metrics.offlineGeocodeLatency;
+        final long start = System.nanoTime();
+        try {
+            List<GeocodeResult> results;
+            if (names == null) {
+                results = geocoder.getAddresses(latitudes[query], longitudes[query], maxResults);
+            } else if (geocoder instanceof ForwardGeocoder) {
+                results = ((ForwardGeocoder) geocoder).getLocations(names[query], maxResults);
+            } else {
+                return Collections.emptyList();
+            }
+            latency.record(System.nanoTime() - start);
+            if (online && !results.isEmpty()) {
+                metrics.geocodeSuccesses.incrementAndGet();
+            } else if (online) {
+                metrics.geocodeFailures.incrementAndGet();
+            }
+            return results;
+        } catch (InterruptedIOException e) {
+            // The batch has been cancelled
+            return Collections.emptyList();
+        } catch (SingleFlightGeocoder.ThrottledException e) {
+            metrics.geocodeThrottled.incrementAndGet();
+            throw e;
+        } catch (IOException e) {
+            latency.record(System.nanoTime() - start);
+            if (online) {
+                metrics.geocodeErrors.incrementAndGet();
+            }
+            return Collections.emptyList();
+        }
+    }
+
+    // Queues the results of a query to be delivered, scheduling a delivery unless one is already pending.
+    private void publish(int query, List<GeocodeResult> results) {
+        synchronized (deliveryLock) {
+            resolvedQueries.add(query);
+            resolvedResults.add(results);
+            resolvedCount++;
+            if (deliveryScheduled) {
+                return;
+            }
+            deliveryScheduled = true;
+        }
+        service.deliveryExecutor.execute(deliveryTask);
+    }
+
+    private void scheduleDelivery() {
+        synchronized (deliveryLock) {
+            if (deliveryScheduled) {
+                return;
+            }
+            deliveryScheduled = true;
+        }
+        service.deliveryExecutor.execute(deliveryTask);
+    }
+
+    // Delivers all the results queued so far to the listener, on the thread receiving the addresses.
+    private void deliverResults() {
+        List<Integer> queries;
+        List<List<GeocodeResult>> results;
+        boolean complete;
+        synchronized (deliveryLock) {
+            deliveryScheduled = false;
+            queries = new ArrayList<>(resolvedQueries);
+            results = new ArrayList<>(resolvedResults);
+            resolvedQueries.clear();
+            resolvedResults.clear();
+            complete = (resolvedCount == size);
+        }
+        for (int i = 0; i < queries.size(); i++) {
+            // The listener may cancel the batch while receiving the results
+            if (cancelled || finished) {
+                return;
+            }
+            listener.onResults(queries.get(i), results.get(i));
+        }
+        if (complete && !cancelled && !finished) {
+            finished = true;
+            listener.onFinished();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// In-memory cache of reverse geocoding results.
+// Coordinates are quantized into square cells of a configurable size, so every location falling
+// within the same cell shares the same address. Entries expire after a given time to live and
+// the least recently used ones are evicted when the cache is full.
+public class GeocodeCache {
+
+    // Approximate number of meters per degree of latitude
+    static final double METERS_PER_DEGREE = 111320.0;
+
+    // Size of the side of each cell (in degrees)
+    private final double cellSizeDegrees;
+    // Maximum number of entries held by the cache
+    private final int maxEntries;
+    // Time an entry remains valid (in nanoseconds)
+    private final long ttlNanos;
+
+    // Entries sorted in access order, so the eldest one is always the least recently used
+    private final LinkedHashMap<Long, Entry> entries;
+
+    // Counters to tune the cell size against the accuracy of the addresses
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    private long expirations = 0;
+
+    // Cached address together with the time it was stored
+    private static class Entry {
+        final String address;
+        final long timestamp;
+
+        Entry(String address, long timestamp) {
+            this.address = address;
+            this.timestamp = timestamp;
+        }
+    }
+
+    // cellSizeMeters Size of the side of each cell (in meters).
+    // maxEntries     Maximum number of entries held by the cache.
+    // ttlMillis      Time an entry remains valid (in milliseconds).
+    public GeocodeCache(double cellSizeMeters, int maxEntries, long ttlMillis) {
+        this.cellSizeDegrees = cellSizeMeters / METERS_PER_DEGREE;
+        this.maxEntries = maxEntries;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+
+        entries = new LinkedHashMap<Long, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, GeocodeCache.Entry> eldest) {
+                if (size() > GeocodeCache.this.maxEntries) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    // Returns the key of the cell containing the given coordinates.
+    // The row and column indexes of the cell are packed into a single long value.
+    public long cellKey(double latitude, double longitude) {
+        long row = (long) Math.floor(latitude / cellSizeDegrees);
+        long column = (long) Math.floor(longitude / cellSizeDegrees);
+        return (row << 32) | (column & 0xFFFFFFFFL);
+    }
+
+    // Returns the cached address for the given coordinates, or null if not available.
+    public synchronized String get(double latitude, double longitude) {
+        Long key = cellKey(latitude, longitude);
+        Entry entry = entries.get(key);
+        // The cell has never been resolved or has been evicted
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        // The cell was resolved too long ago, so it has to be resolved again
+        if (System.nanoTime() - entry.timestamp > ttlNanos) {
+            entries.remove(key);
+            expirations++;
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.address;
+    }
+
+    // Stores the address resolved for the given coordinates.
+    public synchronized void put(double latitude, double longitude, String address) {
+        entries.put(cellKey(latitude, longitude), new Entry(address, System.nanoTime()));
+    }
+
+    // Removes all the entries from the cache.
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getExpirations() {
+        return expirations;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "GeocodeCache{size=" + entries.size() + ", hits=" + hits + ", misses=" + misses +
+                ", evictions=" + evictions + ", expirations=" + expirations + "}";
+    }
+}
@@ -0,0 +1,26 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+// Address of a place together with its coordinates, as obtained from a geocoder.
+public final class GeocodeResult {
+
+    // Human readable address of the place
+    public final String address;
+    // Coordinates of the place (in degrees)
+    public final double latitude;
+    public final double longitude;
+
+    public GeocodeResult(String address, double latitude, double longitude) {
+        this.address = address;
+        this.latitude = latitude;
+        this.longitude = longitude;
+    }
+
+    @Override
+    public String toString() {
+        return "GeocodeResult{" + address + ", " + latitude + ", " + longitude + "}";
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Persistent store of reverse geocoding results that survives process restarts.
+// Addresses are kept in a SQLite table indexed by the same cell key used by GeocodeCache.
+// Writes are buffered and committed in batches on a background thread, and the table is
+// compacted by removing the oldest entries whenever it grows beyond its maximum size.
+public class GeocodeStore implements AddressStore {
+
+    // Name and version of the database
+    private static final String DATABASE_NAME = "geocode_cache.db";
+    private static final int DATABASE_VERSION = 1;
+
+    // Table and columns
+    private static final String TABLE_ADDRESSES = "addresses";
+    private static final String COLUMN_CELL = "cell";
+    private static final String COLUMN_ADDRESS = "address";
+    private static final String COLUMN_TIMESTAMP = "timestamp";
+
+    // Maximum number of addresses kept in the table
+    private static final int MAX_ENTRIES = 10000;
+    // Number of addresses kept after compacting the table
+    private static final int COMPACTED_ENTRIES = MAX_ENTRIES * 3 / 4;
+    // Time a stored address remains valid (in milliseconds)
+    private static final long TTL_MILLIS = 30L * 24 * 60 * 60 * 1000;
+    // Number of pending writes that triggers an immediate flush
+    private static final int BATCH_SIZE = 32;
+    // Maximum time a write is kept pending before being flushed (in milliseconds)
+    private static final long FLUSH_DELAY_MILLIS = 5000;
+
+    // Helper managing the creation and upgrade of the database
+    private final DatabaseHelper helper;
+    // Single background thread committing the pending writes
+    private final ScheduledExecutorService writer;
+
+    // Writes waiting to be committed (guarded by itself)
+    private final List<ContentValues> pendingWrites = new ArrayList<>();
+    // States whether a flush has already been scheduled (guarded by pendingWrites)
+    private boolean flushScheduled = false;
+    // States whether the store has been closed, so workers still running cannot use it (written under pendingWrites)
+    private volatile boolean closed = false;
+    // Held by the workers while reading, so the database is not closed under them (e.g. by a
+    // lookup finishing after the GeocodingService has been shut down)
+    private final ReadWriteLock databaseLock = new ReentrantReadWriteLock();
+
+    public GeocodeStore(Context context) {
+        helper = new DatabaseHelper(context.getApplicationContext());
+        writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "geocode-store");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Returns the stored address for the given cell, or null if not available.
+    // It performs disk I/O, so it must not be called from the main thread.
+    @Override
+    public String get(long cell) {
+        databaseLock.readLock().lock();
+        try {
+            // Opening the database again after being closed would leak it
+            if (closed) {
+                return null;
+            }
+            SQLiteDatabase database = helper.getReadableDatabase();
+            try (Cursor cursor = database.query(
+                    TABLE_ADDRESSES,
+                    new String[]{COLUMN_ADDRESS},
+                    COLUMN_CELL + " = ? AND " + COLUMN_TIMESTAMP + " > ?",
+                    new String[]{Long.toString(cell), Long.toString(System.currentTimeMillis() - TTL_MILLIS)},
+                    null, null, null)) {
+                if (cursor.moveToFirst()) {
+                    return cursor.getString(0);
+                }
+            }
+            return null;
+        } finally {
+            databaseLock.readLock().unlock();
+        }
+    }
+
+    // Schedules the address resolved for the given cell to be written to disk.
+    // Addresses resolved once the store has been closed are discarded.
+    @Override
+    public void put(long cell, String address) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_CELL, cell);
+        values.put(COLUMN_ADDRESS, address);
+        values.put(COLUMN_TIMESTAMP, System.currentTimeMillis());
+
+        synchronized (pendingWrites) {
+            // The writer no longer accepts tasks once closed
+            if (closed) {
+                return;
+            }
+            pendingWrites.add(values);
+            // Flush right away if the batch is full, or wait a while for more writes to come
+            if (pendingWrites.size() >= BATCH_SIZE) {
+                writer.execute(this::flush);
+            } else if (!flushScheduled) {
+                flushScheduled = true;
+                writer.schedule(this::flush, FLUSH_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    // Commits all the pending writes in a single transaction and compacts the table if required.
+    private void flush() {
+        List<ContentValues> batch;
+        synchronized (pendingWrites) {
+            flushScheduled = false;
+            if (pendingWrites.isEmpty()) {
+                return;
+            }
+            batch = new ArrayList<>(pendingWrites);
+            pendingWrites.clear();
+        }
+
+        SQLiteDatabase database = helper.getWritableDatabase();
+        database.beginTransaction();
+        try {
+            for (ContentValues values : batch) {
+                database.insertWithOnConflict(TABLE_ADDRESSES, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+            }
+            compact(database);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    // Removes expired entries and, if the table is still too large, the least recently stored ones.
+    private void compact(SQLiteDatabase database) {
+        database.delete(
+                TABLE_ADDRESSES,
+                COLUMN_TIMESTAMP + " <= ?",
+                new String[]{Long.toString(System.currentTimeMillis() - TTL_MILLIS)});
+
+        long entries = DatabaseUtils.queryNumEntries(database, TABLE_ADDRESSES);
+        if (entries > MAX_ENTRIES) {
+            SQLiteStatement statement = database.compileStatement(
+                    "DELETE FROM " + TABLE_ADDRESSES + " WHERE " + COLUMN_CELL + " IN (SELECT " + COLUMN_CELL +
+                            " FROM " + TABLE_ADDRESSES + " ORDER BY " + COLUMN_TIMESTAMP + " ASC LIMIT ?)");
+            statement.bindLong(1, entries - COMPACTED_ENTRIES);
+            statement.executeUpdateDelete();
+            statement.close();
+        }
+    }
+
+    // Commits any pending write and closes the database once the reads in progress complete.
+    // Reads started afterwards find the store closed and return no address.
+    @Override
+    public void close() {
+        synchronized (pendingWrites) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            writer.execute(() -> {
+                flush();
+                databaseLock.writeLock().lock();
+                try {
+                    helper.close();
+                } finally {
+                    databaseLock.writeLock().unlock();
+                }
+            });
+            writer.shutdown();
+        }
+    }
+
+    // Creates the table holding the addresses.
+    private static class DatabaseHelper extends SQLiteOpenHelper {
+
+        DatabaseHelper(Context context) {
+            super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + TABLE_ADDRESSES + " (" +
+                    COLUMN_CELL + " INTEGER PRIMARY KEY, " +
+                    COLUMN_ADDRESS + " TEXT NOT NULL, " +
+                    COLUMN_TIMESTAMP + " INTEGER NOT NULL)");
+            db.execSQL("CREATE INDEX " + TABLE_ADDRESSES + "_" + COLUMN_TIMESTAMP +
+                    " ON " + TABLE_ADDRESSES + " (" + COLUMN_TIMESTAMP + ")");
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            db.execSQL("DROP TABLE IF EXISTS " + TABLE_ADDRESSES);
+            onCreate(db);
+        }
+    }
+}
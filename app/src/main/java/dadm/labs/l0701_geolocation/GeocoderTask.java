@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+// Translates a pair of coordinates into an address on one of the GeocodingService workers.
+// Addresses are looked up in the persistent store first, and then through the online and offline
+// geocoders according to the fallback policy of the service.
+class GeocoderTask implements Runnable {
+
+    final private GeocodingService service;
+    final long sequence;
+    final double latitude;
+    final double longitude;
+    // Refusal of the online geocoder, if it did not perform the lookup because of its rate limit or backoff
+    private SingleFlightGeocoder.ThrottledException throttled = null;
+
+    GeocoderTask(GeocodingService service, long sequence, double latitude, double longitude) {
+        this.service = service;
+        this.sequence = sequence;
+        this.latitude = latitude;
+        this.longitude = longitude;
+    }
+
+    @Override
+    public void run() {
+        // Skip the lookup if the request has been superseded while waiting in the queue
+        if (Thread.currentThread().isInterrupted()) {
+            return;
+        }
+
+        String display = resolveAddress();
+        // Nothing to display if the network cannot be used (or the online geocoder is throttled)
+        // and there is no offline address, so the previous address is kept.
+        // Without network, the lookup is retried once it is available again, unless superseded by then
+        if ((display == null) && ((throttled != null) || !service.networkStatus.isNetworkAvailable())) {
+            if ((throttled == null) && !Thread.currentThread().isInterrupted()) {
+                service.deferRequest(this);
+            }
+            return;
+        }
+
+        // Do not deliver the result if the request has been superseded during the lookup
+        if (Thread.currentThread().isInterrupted()) {
+            return;
+        }
+
+        // Hand the result over to the service, that will display it on the main thread
+        service.deliverAddress(sequence, latitude, longitude, display);
+    }
+
+    // Looks for the address of the coordinates in the persistent store and then through the geocoders.
+    // Returns null if no address is available. It is also used by the batches of the GeocodingService.
+    String resolveAddress() {
+        // Look for the address in the persistent store before using the geocoders
+        final long cell = service.cache.cellKey(latitude, longitude);
+        String display = service.store.get(cell);
+
+        if (display != null) {
+            service.metrics.geocodeStoreHits.incrementAndGet();
+            service.cache.put(latitude, longitude, display);
+        } else {
+            final ReverseGeocoder offlineGeocoder = service.getOfflineGeocoder();
+            final GeocodingService.FallbackPolicy policy = service.fallbackPolicy;
+
+            // Try first with the offline geocoder if preferred
+            if ((offlineGeocoder != null) && (policy == GeocodingService.FallbackPolicy.OFFLINE_FIRST)) {
+                display = lookupAddress(offlineGeocoder, false);
+            }
+            // Use the online geocoder if there is network connectivity
+            if ((display == null) && service.networkStatus.isNetworkAvailable()) {
+                display = lookupAddress(service.onlineGeocoder, true);
+                // Keep the address so it is available for nearby locations and future executions
+                if (display != null) {
+                    service.cache.put(latitude, longitude, display);
+                    service.store.put(cell, display);
+                }
+            } else if (display == null) {
+                service.metrics.networkSkips.incrementAndGet();
+            }
+            // Fall back to the offline geocoder if the online one could not provide an address.
+            // Offline addresses are cheap to obtain and less precise, so they are not cached
+            if ((display == null) && (offlineGeocoder != null) && (policy == GeocodingService.FallbackPolicy.ONLINE_FIRST)) {
+                display = lookupAddress(offlineGeocoder, false);
+            }
+        }
+        return display;
+    }
+
+    // Returns the refusal of the online geocoder if it did not perform the lookup, or null.
+    SingleFlightGeocoder.ThrottledException getThrottled() {
+        return throttled;
+    }
+
+    // Translates the coordinates into an address through the given geocoder, measuring its latency.
+    // Returns null if no address is available.
+    private String lookupAddress(ReverseGeocoder geocoder, boolean online) {
+        final TrackingMetrics metrics = service.metrics;
+        final LatencyHistogram latency = online ? metrics.onlineGeocodeLatency : metrics.offlineGeocodeLatency;
+        final long start = System.nanoTime();
+        try {
+            String address = geocoder.getAddress(latitude, longitude);
+            latency.record(System.nanoTime() - start);
+            if (online && (address != null)) {
+                metrics.geocodeSuccesses.incrementAndGet();
+            } else if (online) {
+                metrics.geocodeFailures.incrementAndGet();
+            }
+            return address;
+        } catch (InterruptedIOException e) {
+            // The request has been superseded, so the lookup is neither an error nor a valid measure
+            return null;
+        } catch (SingleFlightGeocoder.ThrottledException e) {
+            // The lookup has not been performed, so the backend is not loaded any further
+            metrics.geocodeThrottled.incrementAndGet();
+            throttled = e;
+            return null;
+        } catch (IOException e) {
+            // The online geocoder backs off after errors, so they are only counted
+            latency.record(System.nanoTime() - start);
+            if (online) {
+                metrics.geocodeErrors.incrementAndGet();
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,428 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Translates coordinates into human readable addresses on a small, fixed pool of background threads.
+// Requests follow a "latest wins" policy: a new request replaces any request still waiting in the queue
+// and cancels the one in flight, and results older than the newest one already delivered are discarded.
+// Multi-result, forward and batch lookups are resolved as GeocodeBatches on a second pool of the same size,
+// streaming their results as each query is resolved.
+// Lookups that cannot be resolved without network are deferred and flushed together once the owner reports
+// that connectivity has returned, and batches of several queries also wait while the network is metered.
+// It does not depend on Android: geocoders, persistent store and the executor delivering the results
+// (the main thread, in the app) are provided on creation, so it can also run on a plain JVM.
+public class GeocodingService {
+
+    // Callback to receive the resolved addresses on the main thread.
+    // The address will be null if the Geocoder could not translate the coordinates.
+    public interface OnAddressResolvedListener {
+        void onAddressResolved(double latitude, double longitude, String address);
+    }
+
+    // Callback to receive the results of a GeocodeBatch on the main thread, as each query is resolved.
+    public interface OnResultsListener {
+        // index   Position of the query in the batch.
+        // results Candidates found for the query, best first (empty if none could be obtained).
+        void onResults(int index, List<GeocodeResult> results);
+
+        // Called once the results of all the queries have been delivered (never if the batch is cancelled).
+        void onFinished();
+    }
+
+    // Provides the current state of the network connectivity (it must be cheap, as it is read on every lookup).
+    public interface NetworkStatus {
+        boolean isNetworkAvailable();
+    }
+
+    // Policies to choose between the online and the offline ReverseGeocoder
+    public enum FallbackPolicy {
+        // Use the online geocoder when connected, and the offline one if not connected or failing
+        ONLINE_FIRST,
+        // Use the offline geocoder, and the online one only if no known place is close enough
+        OFFLINE_FIRST,
+        // Never use the offline geocoder
+        ONLINE_ONLY
+    }
+
+    // Number of worker threads. A second worker lets a new request start while a cancelled
+    // lookup is still blocked inside the Geocoder (its network call cannot be interrupted)
+    private static final int POOL_SIZE = 2;
+    // Time an idle worker is kept alive before being released (in seconds)
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    // Size of the cells sharing the same cached address (in meters)
+    private static final double CACHE_CELL_SIZE_METERS = 25;
+    // Maximum number of addresses kept in the cache
+    private static final int CACHE_MAX_ENTRIES = 256;
+    // Time a cached address remains valid (in milliseconds)
+    private static final long CACHE_TTL_MILLIS = 10 * 60 * 1000;
+
+    // Maximum number of lookups sent to the online geocoder per minute
+    private static final int MAX_ONLINE_LOOKUPS_PER_MINUTE = 30;
+    // Time online lookups are suspended after an error, doubled after every further error (in milliseconds)
+    private static final long INITIAL_BACKOFF_MILLIS = 2 * 1000;
+    private static final long MAX_BACKOFF_MILLIS = 5 * 60 * 1000;
+
+    // Geocoders shared by all the workers to translate coordinates into addresses.
+    // The online one is protected by single-flight, a rate limiter and backoff
+    volatile ReverseGeocoder onlineGeocoder;
+    private ReverseGeocoder offlineGeocoder = null;
+    // Loads the offline geocoder the first time it is required
+    private Callable<ReverseGeocoder> offlineGeocoderLoader;
+    // Policy to choose between both geocoders
+    volatile FallbackPolicy fallbackPolicy = FallbackPolicy.ONLINE_FIRST;
+    // Provides the state of the network connectivity
+    final NetworkStatus networkStatus;
+    // Collects the counters and latencies of the lookups
+    final TrackingMetrics metrics;
+    // Addresses already resolved, so nearby locations do not require a new lookup
+    final GeocodeCache cache = new GeocodeCache(CACHE_CELL_SIZE_METERS, CACHE_MAX_ENTRIES, CACHE_TTL_MILLIS);
+    // Addresses resolved in previous executions, so places already visited do not require a new lookup
+    final AddressStore store;
+
+    // Executor with a single slot queue that drops the oldest waiting request when full
+    private final ThreadPoolExecutor executor;
+    // Executor resolving the queries of the batches, shared by all of them
+    private final ThreadPoolExecutor batchExecutor;
+    // Executor delivering the results on the thread requesting the addresses (the main thread)
+    final Executor deliveryExecutor;
+
+    // Cell of the request in flight, which is not superseded by new requests for the same cell
+    private long currentCell;
+
+    // Sequence number assigned to each new request
+    private final AtomicLong requestSequence = new AtomicLong();
+    // Sequence number of the newest result delivered (only accessed from the main thread)
+    private long lastDeliveredSequence = 0;
+
+    // Newest result waiting to be delivered on the main thread (guarded by deliveryLock).
+    // Results arriving before the previous one is delivered are coalesced, keeping only the newest
+    private final Object deliveryLock = new Object();
+    private long pendingSequence = 0;
+    private double pendingLatitude;
+    private double pendingLongitude;
+    private String pendingAddress;
+    private boolean deliveryScheduled = false;
+    // Reusable task delivering the pending result
+    private final Runnable deliveryTask = this::deliverPendingAddress;
+    // Hold reference to the most recent request, so it can be cancelled by the next one
+    private Future<?> currentRequest = null;
+
+    // Latest request that could not be resolved without network, retried once it is available (guarded by deliveryLock)
+    private GeocoderTask deferredRequest = null;
+    // Batches with queries waiting for the network (guarded by itself)
+    private final List<GeocodeBatch> deferredBatches = new ArrayList<>();
+    // States whether the network is metered or constrained, so batches of several queries wait for a better one
+    volatile boolean expensiveNetwork = false;
+    // Reusable task resuming the deferred lookups on the thread receiving the addresses
+    private final Runnable flushTask = this::flushDeferred;
+
+    // Listener receiving the resolved addresses
+    private OnAddressResolvedListener listener = null;
+
+    // onlineGeocoder        Geocoder used when there is network connectivity.
+    // offlineGeocoderLoader Loads the geocoder used without network connectivity (it may return null).
+    // store                 Persistent store of the addresses resolved.
+    // deliveryExecutor      Executor of the thread receiving the addresses (e.g. the main thread).
+    public GeocodingService(ReverseGeocoder onlineGeocoder, Callable<ReverseGeocoder> offlineGeocoderLoader,
+                            AddressStore store, NetworkStatus networkStatus, TrackingMetrics metrics,
+                            Executor deliveryExecutor) {
+        this.onlineGeocoder = throttle(onlineGeocoder, metrics);
+        this.offlineGeocoderLoader = offlineGeocoderLoader;
+        this.store = store;
+        this.networkStatus = networkStatus;
+        this.metrics = metrics;
+        this.deliveryExecutor = deliveryExecutor;
+
+        executor = new ThreadPoolExecutor(
+                POOL_SIZE, POOL_SIZE, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(1), createThreadFactory("geocoder-"), new ThreadPoolExecutor.DiscardOldestPolicy());
+        // Release the workers when no requests are received for a while
+        executor.allowCoreThreadTimeOut(true);
+
+        // Batches never discard queries. Each one submits at most POOL_SIZE tasks, so the queue stays short
+        batchExecutor = new ThreadPoolExecutor(
+                POOL_SIZE, POOL_SIZE, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), createThreadFactory("geocoder-batch-"));
+        batchExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    // Names the worker threads so they can be easily identified when debugging.
+    // Android maps this priority to THREAD_PRIORITY_BACKGROUND.
+    private static ThreadFactory createThreadFactory(final String prefix) {
+        final AtomicInteger threadCount = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + threadCount.incrementAndGet());
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    // Sets the listener that will receive the resolved addresses.
+    public void setOnAddressResolvedListener(OnAddressResolvedListener listener) {
+        this.listener = listener;
+    }
+
+    // Replaces the geocoder used when there is network connectivity (e.g. with a stub for simulations).
+    public void setOnlineGeocoder(ReverseGeocoder onlineGeocoder) {
+        this.onlineGeocoder = throttle(onlineGeocoder, metrics);
+    }
+
+    // Wraps the online geocoder, so concurrent lookups of the same cell share a single request
+    // and the requests sent to the backend respect its rate limit. Geocoders already wrapped
+    // (e.g. with other limits) are used as they are.
+    private ReverseGeocoder throttle(ReverseGeocoder geocoder, TrackingMetrics metrics) {
+        if (geocoder instanceof SingleFlightGeocoder) {
+            return geocoder;
+        }
+        return new SingleFlightGeocoder(geocoder, cache, metrics,
+                MAX_ONLINE_LOOKUPS_PER_MINUTE, INITIAL_BACKOFF_MILLIS, MAX_BACKOFF_MILLIS);
+    }
+
+    // Sets the policy to choose between the online and the offline geocoders.
+    public void setFallbackPolicy(FallbackPolicy fallbackPolicy) {
+        this.fallbackPolicy = fallbackPolicy;
+    }
+
+    // Returns the offline geocoder, loading its dataset the first time it is required.
+    // Returns null if no dataset is available. It performs disk I/O, so it must be called from a worker.
+    synchronized ReverseGeocoder getOfflineGeocoder() {
+        if (offlineGeocoderLoader != null) {
+            try {
+                offlineGeocoder = offlineGeocoderLoader.call();
+            } catch (Exception e) {
+                // No dataset is available, so addresses can only be obtained online
+                offlineGeocoder = null;
+            }
+            offlineGeocoderLoader = null;
+        }
+        return offlineGeocoder;
+    }
+
+    // Requests the address for the given coordinates, superseding any previous request.
+    // It must be called from the thread receiving the addresses (the main thread, in the app).
+    public void requestAddress(double latitude, double longitude) {
+        // Let the request in flight complete if it is for the same cell, as it will provide the same address
+        final long cell = cache.cellKey(latitude, longitude);
+        if ((currentRequest != null) && !currentRequest.isDone() && (cell == currentCell)) {
+            metrics.geocodeRequests.incrementAndGet();
+            metrics.geocodeShared.incrementAndGet();
+            return;
+        }
+
+        // Cancel the previous request, whether it is still queued or already running
+        if (currentRequest != null) {
+            currentRequest.cancel(true);
+        }
+        currentRequest = null;
+        // Remove cancelled requests from the queue so they do not take a worker
+        executor.purge();
+
+        final long sequence = requestSequence.incrementAndGet();
+        metrics.geocodeRequests.incrementAndGet();
+
+        // Deliver the cached address if the location falls in a cell already resolved
+        String address = cache.get(latitude, longitude);
+        if (address != null) {
+            metrics.geocodeCacheHits.incrementAndGet();
+            deliverAddress(sequence, latitude, longitude, address);
+            return;
+        }
+        currentCell = cell;
+        currentRequest = executor.submit(new GeocoderTask(this, sequence, latitude, longitude));
+    }
+
+    // Requests up to maxResults candidate addresses for the given coordinates.
+    // Unlike requestAddress(), it does not supersede other requests. It must be called from the main thread.
+    public GeocodeBatch requestAddresses(double latitude, double longitude, int maxResults,
+                                         OnResultsListener listener) {
+        return requestAddresses(new double[]{latitude}, new double[]{longitude}, 1, maxResults, listener);
+    }
+
+    // Requests the addresses of the first count coordinates of the arrays (e.g. the points of a recorded track).
+    // Cached addresses are delivered first, and the rest are resolved by at most POOL_SIZE workers.
+    // The arrays must not be modified until the batch finishes. It must be called from the main thread.
+    public GeocodeBatch requestAddresses(double[] latitudes, double[] longitudes, int count, int maxResults,
+                                         OnResultsListener listener) {
+        GeocodeBatch batch = new GeocodeBatch(this, latitudes, longitudes, null, count, maxResults, listener);
+        batch.start(batchExecutor, POOL_SIZE);
+        return batch;
+    }
+
+    // Requests up to maxResults places matching the given name. It must be called from the main thread.
+    public GeocodeBatch requestLocations(String name, int maxResults, OnResultsListener listener) {
+        return requestLocations(new String[]{name}, maxResults, listener);
+    }
+
+    // Requests up to maxResults places matching each of the given names. It must be called from the main thread.
+    public GeocodeBatch requestLocations(String[] names, int maxResults, OnResultsListener listener) {
+        GeocodeBatch batch = new GeocodeBatch(this, null, null, names, names.length, maxResults, listener);
+        batch.start(batchExecutor, POOL_SIZE);
+        return batch;
+    }
+
+    // Returns the cache of resolved addresses, giving access to its hit/miss/eviction counters.
+    public GeocodeCache getCache() {
+        return cache;
+    }
+
+    // Delivers the address obtained by a worker to the thread receiving the addresses.
+    void deliverAddress(long sequence, double latitude, double longitude, String address) {
+        synchronized (deliveryLock) {
+            // Keep only the newest result waiting to be delivered
+            if (sequence <= pendingSequence) {
+                return;
+            }
+            pendingSequence = sequence;
+            pendingLatitude = latitude;
+            pendingLongitude = longitude;
+            pendingAddress = address;
+            if (deliveryScheduled) {
+                return;
+            }
+            deliveryScheduled = true;
+        }
+        deliveryExecutor.execute(deliveryTask);
+    }
+
+    // Delivers the pending result to the listener on the thread receiving the addresses.
+    private void deliverPendingAddress() {
+        long sequence;
+        double latitude;
+        double longitude;
+        String address;
+        synchronized (deliveryLock) {
+            deliveryScheduled = false;
+            sequence = pendingSequence;
+            latitude = pendingLatitude;
+            longitude = pendingLongitude;
+            address = pendingAddress;
+        }
+        // Discard results older than the newest one already displayed
+        if (sequence <= lastDeliveredSequence) {
+            return;
+        }
+        lastDeliveredSequence = sequence;
+        if (listener != null) {
+            listener.onAddressResolved(latitude, longitude, address);
+        }
+    }
+
+    // Reports a change in the connectivity (it can be called from any thread), and resumes the lookups
+    // deferred until the network was available, or no longer metered or constrained.
+    // expensive Whether the network is metered or constrained.
+    public void onConnectivityChanged(boolean expensive) {
+        expensiveNetwork = expensive;
+        if (networkStatus.isNetworkAvailable()) {
+            deliveryExecutor.execute(flushTask);
+        }
+    }
+
+    // States whether the online lookups of a batch of the given size must wait for a better network:
+    // batches of several queries are deferred while the network is metered or constrained.
+    boolean isExpensive(int batchSize) {
+        return expensiveNetwork && (batchSize > 1);
+    }
+
+    // Keeps a request that could not be resolved without network, unless a newer one is already waiting
+    // (called from a worker).
+    void deferRequest(GeocoderTask task) {
+        synchronized (deliveryLock) {
+            if ((deferredRequest != null) && (deferredRequest.sequence > task.sequence)) {
+                return;
+            }
+            deferredRequest = task;
+        }
+        metrics.geocodeDeferred.incrementAndGet();
+        // The network may have returned while resolving the request
+        if (networkStatus.isNetworkAvailable()) {
+            deliveryExecutor.execute(flushTask);
+        }
+    }
+
+    // Keeps a batch with queries waiting for the network (called from a worker).
+    void deferBatch(GeocodeBatch batch) {
+        synchronized (deferredBatches) {
+            deferredBatches.add(batch);
+        }
+        if (networkStatus.isNetworkAvailable() && !isExpensive(batch.size())) {
+            deliveryExecutor.execute(flushTask);
+        }
+    }
+
+    // Resubmits the deferred request, if still the newest one, and resumes the deferred batches
+    // the network is good enough for, on the thread receiving the addresses.
+    private void flushDeferred() {
+        if (!networkStatus.isNetworkAvailable() || executor.isShutdown()) {
+            return;
+        }
+        GeocoderTask request;
+        synchronized (deliveryLock) {
+            request = deferredRequest;
+            deferredRequest = null;
+        }
+        if ((request != null) && (request.sequence == requestSequence.get())) {
+            currentCell = cache.cellKey(request.latitude, request.longitude);
+            currentRequest = executor.submit(request);
+        }
+
+        List<GeocodeBatch> batches = new ArrayList<>();
+        synchronized (deferredBatches) {
+            for (int i = deferredBatches.size() - 1; i >= 0; i--) {
+                if (!isExpensive(deferredBatches.get(i).size())) {
+                    batches.add(deferredBatches.remove(i));
+                }
+            }
+        }
+        for (int i = 0; i < batches.size(); i++) {
+            batches.get(i).resume(batchExecutor, POOL_SIZE);
+        }
+    }
+
+    // Returns the state of the online geocoder (lookups in flight and backoff).
+    public String getOnlineGeocoderState() {
+        return onlineGeocoder.toString();
+    }
+
+    // Returns the number of worker threads currently alive.
+    public int getWorkerCount() {
+        return executor.getPoolSize() + batchExecutor.getPoolSize();
+    }
+
+    // Returns the approximate number of worker threads currently performing a lookup.
+    public int getActiveWorkerCount() {
+        return executor.getActiveCount() + batchExecutor.getActiveCount();
+    }
+
+    // Stops all the workers and discards any pending result.
+    // Workers are only interrupted, so a lookup being finished may still reach the store after it is
+    // closed, and then its address is discarded by the store.
+    public void shutdown() {
+        listener = null;
+        executor.shutdownNow();
+        batchExecutor.shutdownNow();
+        synchronized (deliveryLock) {
+            deferredRequest = null;
+        }
+        synchronized (deferredBatches) {
+            deferredBatches.clear();
+        }
+        store.close();
+    }
+}
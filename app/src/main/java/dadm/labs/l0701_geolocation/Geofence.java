@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+// Circular region whose entering and leaving is monitored by the GeofenceEngine.
+public final class Geofence {
+
+    // Unique identifier of the region
+    public final String id;
+    // Center of the region (in degrees)
+    public final double latitude;
+    public final double longitude;
+    // Radius of the region (in meters)
+    public final float radiusMeters;
+
+    public Geofence(String id, double latitude, double longitude, float radiusMeters) {
+        this.id = id;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.radiusMeters = radiusMeters;
+    }
+
+    // Returns the approximate distance (in meters) from the center to the given coordinates.
+    // It uses an equirectangular projection, accurate enough for the size of the regions.
+    public double distanceTo(double latitude, double longitude) {
+        double dLatitude = latitude - this.latitude;
+        double dLongitude = (longitude - this.longitude) * Math.cos(Math.toRadians(this.latitude));
+        return Math.sqrt(dLatitude * dLatitude + dLongitude * dLongitude) * GeocodeCache.METERS_PER_DEGREE;
+    }
+
+    @Override
+    public String toString() {
+        return "Geofence{" + id + ", " + latitude + ", " + longitude + ", radius=" + radiusMeters + "m}";
+    }
+}
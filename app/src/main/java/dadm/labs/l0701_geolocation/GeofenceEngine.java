@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+// Detects when the device enters, dwells in and exits any of a large set of geofences.
+// Each fix is only checked against the geofences indexed in its cell by a GeofenceIndex,
+// and against the few geofences the device is currently inside of.
+// A device enters a geofence when it gets within its radius, but it does not exit until it gets
+// farther than the radius plus a hysteresis margin, so noisy fixes near the border do not flap.
+// The set of geofences can be replaced from any thread at any time: the new index is built by
+// the calling thread and then swapped in, so fixes keep being processed without interruption.
+public class GeofenceEngine {
+
+    // Transitions notified for a geofence
+    public enum Transition {
+        ENTER, DWELL, EXIT
+    }
+
+    // Receives the transitions, on the thread processing the fixes.
+    public interface Listener {
+        void onGeofenceTransition(Geofence geofence, Transition transition, Fix fix);
+    }
+
+    // Default size of the side of each cell of the index (in meters)
+    public static final double DEFAULT_CELL_SIZE_METERS = 1000;
+    // Minimum hysteresis margin (in meters)
+    private static final float MIN_HYSTERESIS_METERS = 20;
+    // Hysteresis margin as a fraction of the radius of the geofence
+    private static final float HYSTERESIS_FACTOR = 0.1f;
+
+    // Geofence the device is inside of
+    private static final class Presence {
+        Geofence geofence;
+        // Time the device entered the geofence (in milliseconds since epoch)
+        final long enterTimeMillis;
+        // States whether the device has already been notified to dwell in the geofence
+        boolean dwellNotified = false;
+
+        Presence(Geofence geofence, long enterTimeMillis) {
+            this.geofence = geofence;
+            this.enterTimeMillis = enterTimeMillis;
+        }
+    }
+
+    private final Listener listener;
+    // Time the device must stay inside a geofence to dwell in it (in milliseconds)
+    private final long dwellMillis;
+    private final double cellSizeMeters;
+
+    // Latest index, replaced atomically when the geofences change
+    private volatile GeofenceIndex index = GeofenceIndex.EMPTY;
+    // Index used to process the previous fix
+    private GeofenceIndex processedIndex = GeofenceIndex.EMPTY;
+    // Geofences the device is inside of, by identifier
+    private final Map<String, Presence> presences = new HashMap<>();
+
+    public GeofenceEngine(Listener listener, long dwellMillis, double cellSizeMeters) {
+        this.listener = listener;
+        this.dwellMillis = dwellMillis;
+        this.cellSizeMeters = cellSizeMeters;
+    }
+
+    // Replaces the set of geofences. It can be called from any thread, and since building the index
+    // of thousands of geofences takes a while, it should not be called from the main thread.
+    // The device keeps inside the geofences that are kept in the new set (same identifier),
+    // while it silently leaves the geofences that are removed.
+    public void setGeofences(Collection<Geofence> geofences) {
+        index = new GeofenceIndex(geofences, cellSizeMeters);
+    }
+
+    // Returns the current number of geofences.
+    public int size() {
+        return index.size();
+    }
+
+    // Forgets the geofences the device is inside of, without notifying it.
+    public void reset() {
+        presences.clear();
+    }
+
+    // Processes a new fix and notifies the transitions it causes.
+    public void onFix(Fix fix) {
+        // Use the geofences of the latest index for those the device is inside of
+        GeofenceIndex current = index;
+        if (current != processedIndex) {
+            Iterator<Presence> iterator = presences.values().iterator();
+            while (iterator.hasNext()) {
+                Presence presence = iterator.next();
+                presence.geofence = current.get(presence.geofence.id);
+                if (presence.geofence == null) {
+                    iterator.remove();
+                }
+            }
+            processedIndex = current;
+        }
+
+        // Check whether the device exits or dwells in the geofences it is inside of
+        Iterator<Presence> iterator = presences.values().iterator();
+        while (iterator.hasNext()) {
+            Presence presence = iterator.next();
+            Geofence geofence = presence.geofence;
+            if (geofence.distanceTo(fix.latitude, fix.longitude) > geofence.radiusMeters + hysteresis(geofence)) {
+                iterator.remove();
+                listener.onGeofenceTransition(geofence, Transition.EXIT, fix);
+            } else if (!presence.dwellNotified && (fix.timeMillis - presence.enterTimeMillis >= dwellMillis)) {
+                presence.dwellNotified = true;
+                listener.onGeofenceTransition(geofence, Transition.DWELL, fix);
+            }
+        }
+
+        // Check whether the device enters any of the geofences of its cell
+        int[] candidates = current.candidates(fix.latitude, fix.longitude);
+        for (int candidate : candidates) {
+            Geofence geofence = current.get(candidate);
+            if (!presences.containsKey(geofence.id) &&
+                    (geofence.distanceTo(fix.latitude, fix.longitude) <= geofence.radiusMeters)) {
+                presences.put(geofence.id, new Presence(geofence, fix.timeMillis));
+                listener.onGeofenceTransition(geofence, Transition.ENTER, fix);
+            }
+        }
+    }
+
+    // Returns the distance beyond the radius a device must get to exit a geofence (in meters).
+    private static float hysteresis(Geofence geofence) {
+        return Math.max(MIN_HYSTERESIS_METERS, geofence.radiusMeters * HYSTERESIS_FACTOR);
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Immutable grid index of a set of geofences.
+// The map is divided into square cells, and every geofence is registered in all the cells
+// its bounding box overlaps, so only the geofences of the cell containing a fix have to be checked.
+// Being immutable, an index can be built on any thread and shared without synchronization.
+public final class GeofenceIndex {
+
+    // Empty index, with no geofences
+    static final GeofenceIndex EMPTY = new GeofenceIndex(new ArrayList<Geofence>(), 1000);
+
+    // Positions of the geofences in a cell with no geofences (shared by all of them)
+    private static final int[] NO_GEOFENCES = new int[0];
+
+    // Size of the side of each cell (in degrees)
+    private final double cellSizeDegrees;
+    // All the geofences and the positions of those registered in every cell
+    private final Geofence[] geofences;
+    private final Map<Long, int[]> cells = new HashMap<>();
+    // Position of every geofence by identifier
+    private final Map<String, Integer> positions = new HashMap<>();
+
+    // cellSizeMeters Size of the side of each cell (in meters).
+    // Geofences with a repeated identifier replace the previous ones.
+    public GeofenceIndex(Collection<Geofence> geofences, double cellSizeMeters) {
+        this.cellSizeDegrees = cellSizeMeters / GeocodeCache.METERS_PER_DEGREE;
+
+        // Keep only the last geofence of every identifier
+        List<Geofence> unique = new ArrayList<>(geofences.size());
+        for (Geofence geofence : geofences) {
+            Integer position = positions.get(geofence.id);
+            if (position == null) {
+                positions.put(geofence.id, unique.size());
+                unique.add(geofence);
+            } else {
+                unique.set(position, geofence);
+            }
+        }
+        this.geofences = unique.toArray(new Geofence[unique.size()]);
+
+        // Register every geofence in the cells overlapped by its bounding box
+        Map<Long, int[]> lists = new HashMap<>();
+        Map<Long, Integer> sizes = new HashMap<>();
+        for (int i = 0; i < this.geofences.length; i++) {
+            Geofence geofence = this.geofences[i];
+            double latitudeRadius = geofence.radiusMeters / GeocodeCache.METERS_PER_DEGREE;
+            double longitudeRadius = latitudeRadius / Math.max(Math.cos(Math.toRadians(geofence.latitude)), 0.01);
+            long firstRow = row(geofence.latitude - latitudeRadius);
+            long lastRow = row(geofence.latitude + latitudeRadius);
+            long firstColumn = column(geofence.longitude - longitudeRadius);
+            long lastColumn = column(geofence.longitude + longitudeRadius);
+            for (long row = firstRow; row <= lastRow; row++) {
+                for (long column = firstColumn; column <= lastColumn; column++) {
+                    Long key = key(row, column);
+                    int[] list = lists.get(key);
+                    int size = (list == null) ? 0 : sizes.get(key);
+                    if (list == null) {
+                        list = new int[4];
+                    } else if (size == list.length) {
+                        list = Arrays.copyOf(list, size * 2);
+                    }
+                    list[size] = i;
+                    lists.put(key, list);
+                    sizes.put(key, size + 1);
+                }
+            }
+        }
+        for (Map.Entry<Long, int[]> entry : lists.entrySet()) {
+            cells.put(entry.getKey(), Arrays.copyOf(entry.getValue(), sizes.get(entry.getKey())));
+        }
+    }
+
+    // Loads the geofences from a CSV stream, with one "latitude,longitude,radius,identifier" line per geofence.
+    // Empty lines and lines starting with '#' are ignored.
+    public static List<Geofence> loadGeofences(InputStream stream) throws IOException {
+        List<Geofence> geofences = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(stream, Charset.forName("UTF-8")));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if ((line.length() == 0) || (line.charAt(0) == '#')) {
+                continue;
+            }
+            int first = line.indexOf(',');
+            int second = line.indexOf(',', first + 1);
+            int third = line.indexOf(',', second + 1);
+            if ((first == -1) || (second == -1) || (third == -1)) {
+                throw new IOException("Malformed geofence: " + line);
+            }
+            try {
+                geofences.add(new Geofence(
+                        line.substring(third + 1).trim(),
+                        Double.parseDouble(line.substring(0, first).trim()),
+                        Double.parseDouble(line.substring(first + 1, second).trim()),
+                        Float.parseFloat(line.substring(second + 1, third).trim())));
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed geofence: " + line, e);
+            }
+        }
+        return geofences;
+    }
+
+    // Returns the positions of the geofences that may contain the given coordinates.
+    // The returned array must not be modified.
+    public int[] candidates(double latitude, double longitude) {
+        int[] list = cells.get(key(row(latitude), column(longitude)));
+        return (list == null) ? NO_GEOFENCES : list;
+    }
+
+    // Returns the geofence at the given position.
+    public Geofence get(int position) {
+        return geofences[position];
+    }
+
+    // Returns the geofence with the given identifier, or null if not indexed.
+    public Geofence get(String id) {
+        Integer position = positions.get(id);
+        return (position == null) ? null : geofences[position];
+    }
+
+    public int size() {
+        return geofences.length;
+    }
+
+    private long row(double latitude) {
+        return (long) Math.floor(latitude / cellSizeDegrees);
+    }
+
+    private long column(double longitude) {
+        return (long) Math.floor(longitude / cellSizeDegrees);
+    }
+
+    // Packs the row and column indexes of a cell into a single long value.
+    private static long key(long row, long column) {
+        return (row << 32) | (column & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Histogram of latencies (in nanoseconds) with logarithmic buckets, in the style of HdrHistogram.
+// Every power of two is split into SUB_BUCKETS linear buckets, so percentiles are reported with
+// a relative error below 1 / SUB_BUCKETS over the whole range of values, using a fixed amount of memory.
+// Values can be recorded concurrently from any thread without locking and without allocating objects.
+public class LatencyHistogram {
+
+    // Number of linear buckets per power of two (must be a power of two)
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Number of buckets to hold any positive long value
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    // Records a value (negative values are recorded as 0).
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(bucket(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long currentMax;
+        while (value > (currentMax = max.get())) {
+            if (max.compareAndSet(currentMax, value)) {
+                break;
+            }
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long n = count.get();
+        return (n == 0) ? 0 : (double) sum.get() / n;
+    }
+
+    // Returns the value below which the given fraction of the recorded values fall (from 0 to 1).
+    // The value returned is the upper bound of the bucket holding the percentile.
+    public long getPercentile(double fraction) {
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(fraction * n));
+        long accumulated = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            accumulated += counts.get(i);
+            if (accumulated >= target) {
+                return Math.min(upperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    // Discards all the recorded values.
+    // Values recorded concurrently may be partially kept.
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    // Returns a summary of the histogram with values in milliseconds.
+    @Override
+    public String toString() {
+        if (count.get() == 0) {
+            return "n=0";
+        }
+        return String.format(Locale.US, "n=%d mean=%.1f p50=%.1f p90=%.1f p99=%.1f max=%.1f ms",
+                getCount(), getMean() / 1e6, getPercentile(0.5) / 1e6, getPercentile(0.9) / 1e6,
+                getPercentile(0.99) / 1e6, getMax() / 1e6);
+    }
+
+    // Returns the bucket of a value: values below SUB_BUCKETS have their own bucket, and larger values
+    // are assigned by their power of two and their next SUB_BUCKET_BITS most significant bits.
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    // Returns the largest value assigned to a bucket.
+    static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int magnitude = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = bucket % SUB_BUCKETS;
+        long lower = (1L << magnitude) | (subBucket << (magnitude - SUB_BUCKET_BITS));
+        return lower + (1L << (magnitude - SUB_BUCKET_BITS)) - 1;
+    }
+}
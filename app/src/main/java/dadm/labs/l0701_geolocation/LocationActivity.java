@@ -5,16 +5,13 @@
 package dadm.labs.l0701_geolocation;
 
 import android.Manifest;
-import android.content.Context;
+import android.content.ComponentName;
 import android.content.Intent;
 import android.content.IntentSender;
+import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
-import android.location.Location;
-import android.location.LocationListener;
-import android.location.LocationManager;
-import android.net.ConnectivityManager;
-import android.net.NetworkInfo;
 import android.os.Bundle;
+import android.os.IBinder;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.widget.TextView;
@@ -28,10 +25,7 @@ import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 
 import com.google.android.gms.common.api.ResolvableApiException;
-import com.google.android.gms.location.FusedLocationProviderClient;
-import com.google.android.gms.location.LocationCallback;
 import com.google.android.gms.location.LocationRequest;
-import com.google.android.gms.location.LocationResult;
 import com.google.android.gms.location.LocationServices;
 import com.google.android.gms.location.LocationSettingsRequest;
 import com.google.android.gms.location.LocationSettingsResponse;
@@ -40,36 +34,70 @@ import com.google.android.gms.tasks.Task;
 // Displays the current location of the device and translates the latitude and longitude coordinates
 // into a human readable address. It manages both the Android Location Framework and the
 // Google Location API to request updates from the location provider.
-public class LocationActivity extends AppCompatActivity {
+// Location updates are obtained by the TrackingService, that keeps running while the activity
+// is paused, so the activity only attaches to it to display its updates.
+public class LocationActivity extends AppCompatActivity implements TrackingService.Listener {
 
     // Constants defining the location framework to be used
     public static final int ANDROID_LOCATION_FRAMEWORK = 0;
     public static final int GOOGLE_LOCATION_API = 1;
+    // Replays a synthetic or recorded track instead of using the location providers
+    public static final int SIMULATED_LOCATION = 2;
+    // Merges the locations of the GPS, network and fused providers into a single estimate
+    public static final int FUSED_PROVIDERS = 3;
     int selectedLocationFramework;
 
     // Constant defining that permission were requested to remove location updates
     private static final int REMOVE_LOCATION_UPDATES_PERMISSION = 2;
 
-    // Hold references required for the Android Location Framework
-    LocationManager locationManager = null;
-    MyAndroidFrameworkLocationListener androidFrameworkLocationListener;
-
-    // Hold references required for Google Location API
-    FusedLocationProviderClient fusedLocationClient;
-    LocationRequest request;
-
-    MyGoogleLocationCallback googleLocationCallback;
-
     // Hold reference to the last permission granted
     String permissionGranted = null;
 
+    // States whether the fused provider should deliver location updates in batches
+    boolean batchedDelivery = false;
+    // States whether locations are processed on a background thread instead of the main one
+    boolean backgroundDispatch = true;
+    // States whether the tracking sessions are profiled
+    boolean profiling = false;
+
     // States whether the options menu to enable location should be displayed
     boolean displayEnableLocation = true;
 
+    // Hold reference to the service tracking the location of the device (null if not bound)
+    TrackingService trackingService = null;
+    // Connection to the TrackingService
+    final ServiceConnection trackingConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            trackingService = ((TrackingService.TrackingBinder) service).getService();
+            backgroundDispatch = trackingService.isBackgroundDispatch();
+            profiling = trackingService.isProfiling();
+            // Restore the state of the tracking session, if any
+            if (trackingService.isTracking()) {
+                permissionGranted = trackingService.getPermissionGranted();
+                batchedDelivery = trackingService.isBatchedDelivery();
+                displayEnableLocation = false;
+                supportInvalidateOptionsMenu();
+            }
+            // Measure the latency from the locations to the screen
+            renderer.setMetrics(trackingService.getMetrics());
+            // Display the last fix and address right away
+            trackingService.attach(LocationActivity.this);
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            trackingService = null;
+        }
+    };
+
     // Hold reference to Views
     TextView tvLongitude;
     TextView tvLatitude;
     TextView tvAddress;
+    TextView tvStatistics;
+    // Renders the location, address and track statistics at most once per frame
+    LocationRenderer renderer;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -80,31 +108,34 @@ public class LocationActivity extends AppCompatActivity {
         tvLongitude = findViewById(R.id.etLongitude);
         tvLatitude = findViewById(R.id.etLatitude);
         tvAddress = findViewById(R.id.tvAddress);
+        tvStatistics = findViewById(R.id.tvStatistics);
 
         // Initially display an "Unknown" longitude and latitude
-        tvLongitude.setText(String.format(getResources().getString(R.string.latitude), Double.NaN));
-        tvLatitude.setText(String.format(getResources().getString(R.string.longitude), Double.NaN));
+        renderer = new LocationRenderer(getResources(), tvLongitude, tvLatitude, tvAddress, tvStatistics);
+        renderer.setLocation(Double.NaN, Double.NaN, 0, 0);
 
-        // Initialize elements according to the selected location framework
+        // Location framework to be used
         selectedLocationFramework = getIntent().getIntExtra("location_framework", -1);
-        switch (selectedLocationFramework) {
-
-            // Android Location Framework
-            case ANDROID_LOCATION_FRAMEWORK:
-                // Listener to receive location updates
-                androidFrameworkLocationListener = new MyAndroidFrameworkLocationListener();
-                // LocationManager giving access to the location services
-                locationManager = (LocationManager) getSystemService(LOCATION_SERVICE);
-                break;
+    }
 
-            // Google Location Framework
-            case GOOGLE_LOCATION_API:
-                // Listener to receive location updates
-                googleLocationCallback = new MyGoogleLocationCallback();
-                // Initialize GoogleApiClient for LocationServices API
-                fusedLocationClient = LocationServices.getFusedLocationProviderClient(this);
-                break;
+    // Attaches to the TrackingService, creating it if required.
+    @Override
+    protected void onStart() {
+        super.onStart();
+        bindService(new Intent(this, TrackingService.class), trackingConnection, BIND_AUTO_CREATE);
+    }
+
+    // Detaches from the TrackingService, that keeps running if it is tracking the location.
+    @Override
+    protected void onStop() {
+        super.onStop();
+        if (trackingService != null) {
+            trackingService.detach(this);
+            trackingService = null;
         }
+        unbindService(trackingConnection);
+        renderer.cancel();
+        renderer.setMetrics(null);
     }
 
     // This method is executed when the activity is created to populate the ActionBar with actions.
@@ -116,6 +147,17 @@ public class LocationActivity extends AppCompatActivity {
         menu.findItem(R.id.mEnableGps).setVisible(displayEnableLocation);
         menu.findItem(R.id.mEnableNetwork).setVisible(displayEnableLocation);
         menu.findItem(R.id.mDisableLocation).setVisible(!displayEnableLocation);
+        // Batched delivery is only available for the Google Location API
+        menu.findItem(R.id.mBatchedDelivery)
+                .setVisible(selectedLocationFramework == GOOGLE_LOCATION_API)
+                .setChecked(batchedDelivery);
+        // The thread processing the locations can only be selected before enabling updates
+        menu.findItem(R.id.mBackgroundDispatch)
+                .setVisible(displayEnableLocation)
+                .setChecked(backgroundDispatch);
+        menu.findItem(R.id.mProfiling)
+                .setVisible(displayEnableLocation)
+                .setChecked(profiling);
 
         return true;
     }
@@ -135,59 +177,45 @@ public class LocationActivity extends AppCompatActivity {
         } else if (selectedItem == R.id.mDisableLocation) {
             // Disable location updates
             disableLocation();
+        } else if (selectedItem == R.id.mBatchedDelivery) {
+            // Toggle batched delivery (the request is registered again if updates are enabled)
+            batchedDelivery = !batchedDelivery;
+            item.setChecked(batchedDelivery);
+            if (trackingService != null) {
+                trackingService.setBatchedDelivery(batchedDelivery);
+            }
+        } else if (selectedItem == R.id.mBackgroundDispatch) {
+            // Toggle the thread processing the locations (applied when updates are enabled)
+            backgroundDispatch = !backgroundDispatch;
+            item.setChecked(backgroundDispatch);
+            if (trackingService != null) {
+                trackingService.setBackgroundDispatch(backgroundDispatch);
+            }
+        } else if (selectedItem == R.id.mProfiling) {
+            // Toggle the profiling of the tracking sessions (applied when updates are enabled)
+            profiling = !profiling;
+            item.setChecked(profiling);
+            if (trackingService != null) {
+                trackingService.setProfiling(profiling);
+            }
+        } else if (selectedItem == R.id.mMetrics) {
+            // Display the metrics collected by the TrackingService
+            startActivity(new Intent(this, MetricsActivity.class));
         }
         return true;
     }
 
-    // Disables the location updates (if enabled).
-    @Override
-    protected void onPause() {
-        super.onPause();
-        // Check the location framework in use
-        switch (selectedLocationFramework) {
-
-            // Android Location Framework
-            case ANDROID_LOCATION_FRAMEWORK:
-                if ((locationManager != null) && (permissionGranted != null)) {
-                    disableLocation();
-                }
-                break;
-
-            // Google Location API
-            case GOOGLE_LOCATION_API:
-                if (permissionGranted != null) {
-                    disableLocation();
-                }
-                break;
-        }
-    }
-
     // Tries to enable location updates for the selected location framework.
     // priority   Determines the priority when selecting the location provider.
     // permission Permission required to request updates from the selected location provider.
     private void enableLocation(int priority, String permission) {
 
-        switch (selectedLocationFramework) {
-
-            // Android Location Framework
-            case ANDROID_LOCATION_FRAMEWORK:
-                enableAndroidLocationFramework(priority, permission);
-                break;
-
-            // Google Location API
-            case GOOGLE_LOCATION_API:
-                enableGoogleLocation(priority, permission);
-                break;
+        // The Google Location API requires checking the location settings first
+        if (selectedLocationFramework == GOOGLE_LOCATION_API) {
+            enableGoogleLocation(priority, permission);
+        } else {
+            checkLocationPermissions(priority, permission);
         }
-
-    }
-
-    // Tries to enable location updates for the Android Location Framework.
-    // priority   Determines the priority when selecting the location provider.
-    // permission Permission required to request updates from the selected location provider.
-    private void enableAndroidLocationFramework(int priority, String permission) {
-        // Check for permissions
-        checkLocationPermissions(priority, permission);
     }
 
     // Tries to enable location updates for the Google Location Service.
@@ -195,16 +223,11 @@ public class LocationActivity extends AppCompatActivity {
     // permission Permission required to request updates from the selected location provider.
     private void enableGoogleLocation(final int priority, final String permission) {
 
-        // Create a new request for updates each 10s (each 5s at most)
-        request = LocationRequest.create();
-        request.setPriority(priority);
-        request.setInterval(10000);
-        request.setFastestInterval(5000);
-
         // Object specifying the type of location services the user is interested in
+        // (updates each 10s, each 5s at most, as requested by default by the TrackingService)
         LocationSettingsRequest.Builder builder =
                 new LocationSettingsRequest.Builder()
-                        .addLocationRequest(request);
+                        .addLocationRequest(FusedLocationSource.createRequest(priority, 10000, 5000, 0, 0));
 
         // Check that the request location services are available
         Task<LocationSettingsResponse> results =
@@ -281,61 +304,41 @@ public class LocationActivity extends AppCompatActivity {
         }
     }
 
-    // Requests location updates for the selected location framework.
+    // Requests location updates for the selected location framework through the TrackingService.
     // priority   Determines the priority when selecting the location provider.
     // permission Permission required to request updates from the selected location provider.
     private void locationPermissionsGranted(int priority, String permission) {
 
-        // Keep reference of the granted permission
-        permissionGranted = permission;
-
-        switch (selectedLocationFramework) {
-
-            // Android Location Framework
-            case ANDROID_LOCATION_FRAMEWORK:
-                requestAndroidLocationFrameworkUpdates(priority);
-                break;
-
-            // Google Location API
-            case GOOGLE_LOCATION_API:
-                requestGoogleLocationUpdates();
-                break;
+        // The service may not be bound yet (or anymore)
+        if (trackingService == null) {
+            return;
         }
-    }
-
-    // Requests location updates for the Android Location Framework.
-    // priority Determines the priority when selecting the location provider.
-    private void requestAndroidLocationFrameworkUpdates(int priority) {
 
-        // Determine the required location provider according to the requested priority
-        String provider = (priority == LocationRequest.PRIORITY_HIGH_ACCURACY) ?
-                LocationManager.GPS_PROVIDER :
-                LocationManager.NETWORK_PROVIDER;
-        // Check whether that location provider is enabled
-        if (locationManager.isProviderEnabled(provider)) {
-
-            // Request location updates each 5s with a minimum distance of 10m
-            locationManager.requestLocationUpdates(provider, 5000, 10, androidFrameworkLocationListener);
+        // Keep reference of the granted permission
+        permissionGranted = permission;
 
-            // Set to false the flag controlling whether to display the actions to enable the location updates
-            displayEnableLocation = false;
-            // Ask the system to rebuild the options of the ActionBar
-            supportInvalidateOptionsMenu();
+        // Configure the simulation (track, playback rate and stub geocoder) when replaying a track
+        if (selectedLocationFramework == SIMULATED_LOCATION) {
+            trackingService.setSimulation(
+                    getIntent().getStringExtra("simulation_track"),
+                    getIntent().getFloatExtra("simulation_rate", 1),
+                    getIntent().getLongExtra("stub_geocoder_latency", -1));
         }
-        // Display a notification to the user stating that the location provider is not enabled
-        else {
-            Toast.makeText(LocationActivity.this, R.string.provider_not_enabled, Toast.LENGTH_SHORT).show();
-        }
-    }
-
-    // Requests location updates for the Google Location API.
-    private void requestGoogleLocationUpdates() {
-        fusedLocationClient.requestLocationUpdates(request, googleLocationCallback, null);
 
-        // Set to false the flag controlling whether to display the actions to enable the location updates
-        displayEnableLocation = false;
-        // Ask the system to rebuild the options of the ActionBar
-        supportInvalidateOptionsMenu();
+        // The service tells on the main thread whether the location updates could be started
+        trackingService.startTracking(selectedLocationFramework, priority, permission, started -> {
+            if (started) {
+                // Set to false the flag controlling whether to display the actions to enable the location updates
+                displayEnableLocation = false;
+                // Ask the system to rebuild the options of the ActionBar
+                supportInvalidateOptionsMenu();
+            }
+            // Display a notification to the user stating that the location provider is not enabled
+            else {
+                permissionGranted = null;
+                Toast.makeText(LocationActivity.this, R.string.provider_not_enabled, Toast.LENGTH_SHORT).show();
+            }
+        });
     }
 
     // This callback is executed whenever an activity was started expecting a result.
@@ -397,19 +400,8 @@ public class LocationActivity extends AppCompatActivity {
                 // Get permission to remove the requested updates from the provider in use
                 case REMOVE_LOCATION_UPDATES_PERMISSION:
 
-                    // Stop receiving location updates according to the selected location framework
-                    switch (selectedLocationFramework) {
-
-                        // Android Location framework
-                        case ANDROID_LOCATION_FRAMEWORK:
-                            removeGoogleLocationUpdates();
-                            break;
-
-                        // Google Location API
-                        case GOOGLE_LOCATION_API:
-                            removeAndroidLocationFrameworkUpdates();
-                            break;
-                    }
+                    // Stop receiving location updates
+                    stopTracking();
             }
         }
         // Notify the user that permission were not granted
@@ -425,25 +417,7 @@ public class LocationActivity extends AppCompatActivity {
         // If required permissions have been granted then
         // stop receiving location updates from the selected framework.
         if (PackageManager.PERMISSION_GRANTED == ContextCompat.checkSelfPermission(this, permissionGranted)) {
-
-            switch (selectedLocationFramework) {
-
-                // Android Location Framework
-                case ANDROID_LOCATION_FRAMEWORK:
-                    removeAndroidLocationFrameworkUpdates();
-                    break;
-
-                // Google Location API
-                case GOOGLE_LOCATION_API:
-                    removeGoogleLocationUpdates();
-                    break;
-            }
-            // Enable the flag controlling whether to display the actions to enable location udpates
-            displayEnableLocation = true;
-            // Clear up the variable holding a reference to the granted permission
-            permissionGranted = null;
-            // Ask the system to rebuild the options of the ActionBar
-            supportInvalidateOptionsMenu();
+            stopTracking();
         }
         // If not, display an activity to request that permission
         else {
@@ -456,70 +430,47 @@ public class LocationActivity extends AppCompatActivity {
         }
     }
 
-    // Removes the current listener to stop receiving location updates from the Android Location Framework.
-    private void removeAndroidLocationFrameworkUpdates() {
-        locationManager.removeUpdates(androidFrameworkLocationListener);
-    }
-
-    // Removes the current listener to stop receiving location updates from the Google Location API.
-    private void removeGoogleLocationUpdates() {
-        fusedLocationClient.removeLocationUpdates(googleLocationCallback);
-    }
-
-    // Check whether Internet connectivity is available.
-    private boolean isConnectionAvailable() {
-
-        // Get a reference to the ConnectivityManager
-        ConnectivityManager manager = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
-        // Get information for the current default data network
-        NetworkInfo info = manager.getActiveNetworkInfo();
-        // Return true if there is network connectivity
-        return ((info != null) && info.isConnected());
-    }
-
-    // Updates the user interface to display the new latitude and longitude.
-    // It will also start an asynchronous task to translate those coordinates into a human readable address.
-    private void updateUI(Location location) {
-        // Display current longitude
-        tvLongitude.setText(String.format(getResources().getString(R.string.longitude), location.getLongitude()));
-        // Display current latitude
-        tvLatitude.setText(String.format(getResources().getString(R.string.longitude), location.getLatitude()));
-        // Start asynchronous task to translate coordinates into an address
-        if (isConnectionAvailable()) {
-            new GeocoderThread(this, location.getLatitude(), location.getLongitude()).start();
+    // Stops the TrackingService from receiving location updates.
+    private void stopTracking() {
+        if (trackingService != null) {
+            trackingService.stopTracking();
         }
+        // Enable the flag controlling whether to display the actions to enable location udpates
+        displayEnableLocation = true;
+        // Clear up the variable holding a reference to the granted permission
+        permissionGranted = null;
+        // Ask the system to rebuild the options of the ActionBar
+        supportInvalidateOptionsMenu();
     }
 
-    // Custom LocationListener for the Android Location Framework.
-    private class MyAndroidFrameworkLocationListener implements LocationListener {
-
-        // This callback is executed whenever a new location update is received.
-        @Override
-        public void onLocationChanged(Location location) {
-            // Update the user interface
-            updateUI(location);
-        }
-
-        @Override
-        public void onStatusChanged(String provider, int status, Bundle extras) {
-        }
-
-        @Override
-        public void onProviderEnabled(String provider) {
-        }
-
-        @Override
-        public void onProviderDisabled(String provider) {
-        }
+    // Updates the user interface to display the new latitude, longitude and statistics (on the next frame).
+    @Override
+    public void onFixUpdated(FixViewState state) {
+        renderer.setLocation(state.latitude, state.longitude, state.elapsedRealtimeNanos, state.callbackNanos);
+        renderer.setStatistics(state);
     }
 
-    private class MyGoogleLocationCallback extends LocationCallback {
+    // Updates the user interface to display the address of the last location (on the next frame).
+    @Override
+    public void onAddressUpdated(String address) {
+        renderer.setAddress((address != null) ? address : getResources().getString(R.string.geocoder_not_available));
+    }
 
-        // This callback is executed whenever a new location update is received.
-        @Override
-        public void onLocationResult(LocationResult locationResult) {
-            // Update the user interface
-            updateUI(locationResult.getLocations().get(0));
+    // Notifies the user that a geofence has been entered, dwelled in or exited.
+    @Override
+    public void onGeofenceTransition(Geofence geofence, GeofenceEngine.Transition transition) {
+        int message;
+        switch (transition) {
+            case ENTER:
+                message = R.string.geofence_enter;
+                break;
+            case DWELL:
+                message = R.string.geofence_dwell;
+                break;
+            default:
+                message = R.string.geofence_exit;
+                break;
         }
+        Toast.makeText(this, getResources().getString(message, geofence.id), Toast.LENGTH_SHORT).show();
     }
-}
\ No newline at end of file
+}
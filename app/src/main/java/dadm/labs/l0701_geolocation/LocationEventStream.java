@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import android.location.Location;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Single stream where every LocationSource publishes its locations, so that all the consumers
+// are served through the same path whatever the framework in use (or even several of them at once).
+// Publishing does not take any lock: the subscribers are held in a copy-on-write array,
+// that is only copied when subscribing or unsubscribing.
+public class LocationEventStream {
+
+    // Receives the locations published to the stream.
+    public interface Subscriber {
+        // source      Source that obtained the location.
+        // location    Location received.
+        // lastInBatch Whether this is the last location of a batch delivered together (true if not batched).
+        void onLocation(LocationSource source, Location location, boolean lastInBatch);
+    }
+
+    // Subscribers to the stream
+    private final CopyOnWriteArrayList<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+
+    public void subscribe(Subscriber subscriber) {
+        subscribers.addIfAbsent(subscriber);
+    }
+
+    public void unsubscribe(Subscriber subscriber) {
+        subscribers.remove(subscriber);
+    }
+
+    // Delivers a location to all the subscribers, on the calling thread.
+    public void publish(LocationSource source, Location location, boolean lastInBatch) {
+        for (Subscriber subscriber : subscribers) {
+            subscriber.onLocation(source, location, lastInBatch);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import android.content.res.Resources;
+import android.os.SystemClock;
+import android.view.Choreographer;
+import android.widget.TextView;
+
+// Renders the location, address and track statistics on the main thread, coalescing all the updates received
+// within a display frame into a single rendering performed on the next frame.
+// Coordinates are formatted into reusable buffers, and TextViews are only updated when
+// the text to display actually changes.
+public class LocationRenderer implements Choreographer.FrameCallback {
+
+    // Views displaying the coordinates and the address
+    private final TextView tvLongitude;
+    private final TextView tvLatitude;
+    private final TextView tvAddress;
+    // View displaying the statistics of the track, and format of the text
+    private final TextView tvStatistics;
+    private final String statisticsFormat;
+
+    // Formatters of the coordinates
+    private final CoordinateFormatter longitudeFormatter;
+    private final CoordinateFormatter latitudeFormatter;
+
+    // Buffers where the coordinates are formatted, and text currently displayed
+    private final StringBuilder longitudeBuffer = new StringBuilder(32);
+    private final StringBuilder latitudeBuffer = new StringBuilder(32);
+    private final StringBuilder displayedLongitude = new StringBuilder(32);
+    private final StringBuilder displayedLatitude = new StringBuilder(32);
+    private String displayedAddress = null;
+    private String displayedStatistics = null;
+
+    // Latest values to be rendered on the next frame
+    private double pendingLatitude = Double.NaN;
+    private double pendingLongitude = Double.NaN;
+    private String pendingAddress = null;
+    // Statistics of the track to be rendered on the next frame (null if none)
+    private FixViewState pendingStatistics = null;
+    // Times since boot of the pending location and of its callback, or 0 if not known (in nanoseconds)
+    private long pendingFixNanos = 0;
+    private long pendingCallbackNanos = 0;
+    // States whether new coordinates are pending to be rendered
+    private boolean locationPending = false;
+    // States whether a frame callback has already been posted
+    private boolean frameScheduled = false;
+    // Collects the latency from the location to the screen (null if not collected)
+    private TrackingMetrics metrics = null;
+
+    public LocationRenderer(Resources resources, TextView tvLongitude, TextView tvLatitude, TextView tvAddress,
+                            TextView tvStatistics) {
+        this.tvLongitude = tvLongitude;
+        this.tvLatitude = tvLatitude;
+        this.tvAddress = tvAddress;
+        this.tvStatistics = tvStatistics;
+        statisticsFormat = resources.getString(R.string.track_statistics);
+        longitudeFormatter = new CoordinateFormatter(resources.getString(R.string.longitude));
+        latitudeFormatter = new CoordinateFormatter(resources.getString(R.string.latitude));
+    }
+
+    // Sets the metrics where the latency from the location to the screen is recorded (null to stop).
+    public void setMetrics(TrackingMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    // Sets the coordinates to be displayed on the next frame.
+    // fixNanos      Time since boot when the location was obtained, or 0 if not known (in nanoseconds).
+    // callbackNanos Time since boot when the location was received, or 0 if not known (in nanoseconds).
+    public void setLocation(double latitude, double longitude, long fixNanos, long callbackNanos) {
+        pendingLatitude = latitude;
+        pendingLongitude = longitude;
+        pendingFixNanos = fixNanos;
+        pendingCallbackNanos = callbackNanos;
+        locationPending = true;
+        scheduleFrame();
+    }
+
+    // Sets the address to be displayed on the next frame.
+    public void setAddress(String address) {
+        pendingAddress = address;
+        scheduleFrame();
+    }
+
+    // Sets the statistics of the track to be displayed on the next frame.
+    // They are only formatted when rendered, so they are formatted once per frame at most.
+    public void setStatistics(FixViewState state) {
+        pendingStatistics = state;
+        scheduleFrame();
+    }
+
+    // Discards any pending rendering.
+    public void cancel() {
+        if (frameScheduled) {
+            Choreographer.getInstance().removeFrameCallback(this);
+            frameScheduled = false;
+        }
+    }
+
+    // Renders the latest values, once per frame.
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        frameScheduled = false;
+
+        longitudeFormatter.format(pendingLongitude, longitudeBuffer);
+        if (update(tvLongitude, longitudeBuffer, displayedLongitude)) {
+            displayedLongitude.setLength(0);
+            displayedLongitude.append(longitudeBuffer);
+        }
+
+        latitudeFormatter.format(pendingLatitude, latitudeBuffer);
+        if (update(tvLatitude, latitudeBuffer, displayedLatitude)) {
+            displayedLatitude.setLength(0);
+            displayedLatitude.append(latitudeBuffer);
+        }
+
+        if ((pendingAddress != null) && !pendingAddress.equals(displayedAddress)) {
+            tvAddress.setText(pendingAddress);
+            displayedAddress = pendingAddress;
+        }
+
+        // Statistics are only displayed once the device has moved
+        if ((pendingStatistics != null) && (pendingStatistics.trackFixes > 1)) {
+            String statistics = String.format(statisticsFormat,
+                    pendingStatistics.trackDistance / 1000, pendingStatistics.trackSpeed * 3.6,
+                    pendingStatistics.trackAverageSpeed * 3.6, pendingStatistics.trackElevationGain);
+            if (!statistics.equals(displayedStatistics)) {
+                tvStatistics.setText(statistics);
+                displayedStatistics = statistics;
+            }
+        }
+
+        // Measure how long it took for the last location received by a callback to reach the screen
+        if (locationPending && (metrics != null)) {
+            metrics.framesRendered.incrementAndGet();
+            if (pendingCallbackNanos != 0) {
+                long now = SystemClock.elapsedRealtimeNanos();
+                metrics.callbackToScreen.record(now - pendingCallbackNanos);
+                metrics.fixToScreen.record(now - pendingFixNanos);
+            }
+        }
+        locationPending = false;
+    }
+
+    // Posts a frame callback, unless one is already pending.
+    private void scheduleFrame() {
+        if (!frameScheduled) {
+            frameScheduled = true;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+
+    // Sets the text of the view only if it differs from the one displayed.
+    // Returns true if the view has been updated.
+    private static boolean update(TextView view, CharSequence text, CharSequence displayed) {
+        if (contentEquals(text, displayed)) {
+            return false;
+        }
+        view.setText(text);
+        return true;
+    }
+
+    // Compares the contents of two sequences of characters.
+    private static boolean contentEquals(CharSequence a, CharSequence b) {
+        int length = a.length();
+        if (length != b.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (a.charAt(i) != b.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+// Provider of location updates, whatever the framework used to obtain them.
+// Every location received is published to the LocationEventStream given to the source.
+// Permissions must be granted before requesting updates.
+public interface LocationSource {
+
+    // Returns a short name identifying the source.
+    String getName();
+
+    // Requests location updates, replacing any previous request.
+    // Returns false if the updates cannot be provided (e.g. the location provider is disabled).
+    // priority              Priority of the request, as defined by LocationRequest.
+    // intervalMillis        Desired interval between updates (in milliseconds).
+    // fastestIntervalMillis Fastest interval between updates (in milliseconds).
+    // minDistanceMeters     Minimum displacement between updates (in meters).
+    // maxWaitMillis         Maximum time updates can be delayed to be delivered in batches, or 0 for no batching.
+    boolean requestUpdates(int priority, long intervalMillis, long fastestIntervalMillis,
+                           float minDistanceMeters, long maxWaitMillis);
+
+    // Stops receiving location updates.
+    void removeUpdates();
+
+    // States whether location updates have been requested.
+    boolean isActive();
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import java.util.Arrays;
+
+// Map from long keys to long counters with open addressing, so counting neither boxes keys and values
+// nor allocates entries: keys and values are kept in two parallel arrays probed linearly from the hash
+// of the key, whose capacity is a power of two doubled when three quarters of the slots are used.
+// Key 0 marks the empty slots, so its counter is kept apart. Keys are never removed.
+// It is not thread safe.
+public final class LongCountMap {
+
+    // Receives the entries of the map.
+    public interface EntryVisitor {
+        void visit(long key, long value);
+    }
+
+    // Minimum and maximum number of slots
+    private static final int MIN_CAPACITY = 16;
+    private static final int MAX_CAPACITY = 1 << 30;
+    // Multiplier spreading the keys over the slots (2^64 divided by the golden ratio)
+    private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    // Keys and counters of every slot (key 0 if empty)
+    private long[] keys;
+    private long[] values;
+    // Bits of the hash used to select the slot, and mask to wrap the probes around the arrays
+    private int shift;
+    private int mask;
+    // Slots in use, and number of slots in use that triggers the next resize
+    private int used;
+    private int resizeAt;
+    // Counter of key 0, and whether it is in the map
+    private boolean hasZeroKey = false;
+    private long zeroValue = 0;
+
+    public LongCountMap() {
+        this(MIN_CAPACITY / 2);
+    }
+
+    // expectedSize Number of keys that fit without resizing the map.
+    public LongCountMap(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while ((capacity < MAX_CAPACITY) && (capacity / 4 * 3 < expectedSize)) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new long[capacity];
+        mask = capacity - 1;
+        shift = 64 - Integer.numberOfTrailingZeros(capacity);
+        resizeAt = (capacity == MAX_CAPACITY) ? capacity - 1 : capacity / 4 * 3;
+    }
+
+    // Returns the first slot to probe for the key (Fibonacci hashing: the top bits of the product).
+    private int slot(long key) {
+        return (int) ((key * HASH_MULTIPLIER) >>> shift);
+    }
+
+    // Adds delta to the counter of the key (0 if not in the map yet), and returns the new value.
+    public long add(long key, long delta) {
+        if (key == 0) {
+            hasZeroKey = true;
+            return zeroValue += delta;
+        }
+        int slot = slot(key);
+        long current;
+        while ((current = keys[slot]) != 0) {
+            if (current == key) {
+                return values[slot] += delta;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = delta;
+        if (++used > resizeAt) {
+            resize(keys.length * 2);
+        }
+        return delta;
+    }
+
+    // Returns the counter of the key, or 0 if not in the map.
+    public long get(long key) {
+        if (key == 0) {
+            return zeroValue;
+        }
+        int slot = slot(key);
+        long current;
+        while ((current = keys[slot]) != 0) {
+            if (current == key) {
+                return values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return 0;
+    }
+
+    public boolean containsKey(long key) {
+        if (key == 0) {
+            return hasZeroKey;
+        }
+        int slot = slot(key);
+        long current;
+        while ((current = keys[slot]) != 0) {
+            if (current == key) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    // Number of keys in the map.
+    public int size() {
+        return used + (hasZeroKey ? 1 : 0);
+    }
+
+    // Adds the counters of the other map to those of this one.
+    public void addAll(LongCountMap other) {
+        // Grow once, instead of doubling several times while merging
+        if (used + other.used > resizeAt) {
+            int capacity = keys.length;
+            while ((capacity < MAX_CAPACITY) && (capacity / 4 * 3 < used + other.used)) {
+                capacity <<= 1;
+            }
+            resize(capacity);
+        }
+        final long[] otherKeys = other.keys;
+        final long[] otherValues = other.values;
+        for (int i = 0; i < otherKeys.length; i++) {
+            if (otherKeys[i] != 0) {
+                add(otherKeys[i], otherValues[i]);
+            }
+        }
+        if (other.hasZeroKey) {
+            add(0, other.zeroValue);
+        }
+    }
+
+    // Visits all the entries of the map, in no particular order.
+    public void forEach(EntryVisitor visitor) {
+        if (hasZeroKey) {
+            visitor.visit(0, zeroValue);
+        }
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0) {
+                visitor.visit(keys[i], values[i]);
+            }
+        }
+    }
+
+    // Removes all the keys, keeping the capacity.
+    public void clear() {
+        Arrays.fill(keys, 0);
+        used = 0;
+        hasZeroKey = false;
+        zeroValue = 0;
+    }
+
+    // Moves the entries to arrays of the given capacity.
+    private void resize(int capacity) {
+        if ((capacity <= 0) || (capacity > MAX_CAPACITY)) {
+            throw new IllegalStateException("Too many keys: " + used);
+        }
+        final long[] oldKeys = keys;
+        final long[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            long key = oldKeys[i];
+            if (key != 0) {
+                int slot = slot(key);
+                while (keys[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = key;
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+}
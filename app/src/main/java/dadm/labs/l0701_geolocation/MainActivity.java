@@ -13,6 +13,13 @@ import androidx.appcompat.app.AppCompatActivity;
 // Gives access to two different geolocation frameworks to get the current location of the device:
 // Android Location Framework
 // Google Location API
+// Both of them at once, merging the locations of the GPS, network and fused providers
+// It also gives access to a simulated location, replaying a synthetic or recorded track.
+// The simulation can be configured through the extras of the intent starting this activity
+// (e.g. adb shell am start -n ... --es simulation_track drive --ef simulation_rate 10 --el stub_geocoder_latency 300):
+// simulation_track      "walk" or "drive" for synthetic tracks, or the name of a recorded track.
+// simulation_rate       Factor to speed up the playback.
+// stub_geocoder_latency Average latency of a stub replacing the online geocoder (in milliseconds).
 public class MainActivity extends AppCompatActivity {
 
     @Override
@@ -23,6 +30,8 @@ public class MainActivity extends AppCompatActivity {
         View.OnClickListener listener = v -> buttonClicked(v.getId());
         findViewById(R.id.bLocationFramework).setOnClickListener(listener);
         findViewById(R.id.bGoogleLocation).setOnClickListener(listener);
+        findViewById(R.id.bFusedProviders).setOnClickListener(listener);
+        findViewById(R.id.bSimulatedLocation).setOnClickListener(listener);
     }
 
     // Starts the LocationActivity passing as parameter the location framework to be used.
@@ -37,6 +46,19 @@ public class MainActivity extends AppCompatActivity {
             // Google Location API
             intent = new Intent(this, LocationActivity.class);
             intent.putExtra("location_framework", LocationActivity.GOOGLE_LOCATION_API);
+        } else if (clickedButton == R.id.bFusedProviders) {
+            // GPS, network and fused providers at once
+            intent = new Intent(this, LocationActivity.class);
+            intent.putExtra("location_framework", LocationActivity.FUSED_PROVIDERS);
+        } else if (clickedButton == R.id.bSimulatedLocation) {
+            // Simulated location
+            Intent extras = getIntent();
+            String track = extras.getStringExtra("simulation_track");
+            intent = new Intent(this, LocationActivity.class);
+            intent.putExtra("location_framework", LocationActivity.SIMULATED_LOCATION);
+            intent.putExtra("simulation_track", (track != null) ? track : TrackGenerator.WALK);
+            intent.putExtra("simulation_rate", extras.getFloatExtra("simulation_rate", 1));
+            intent.putExtra("stub_geocoder_latency", extras.getLongExtra("stub_geocoder_latency", -1));
         }
         // Start the activity
         startActivity(intent);
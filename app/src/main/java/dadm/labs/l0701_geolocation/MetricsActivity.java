@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import android.content.ComponentName;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.appcompat.app.AppCompatActivity;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+// Debug screen displaying the metrics collected by the TrackingService, refreshed every second.
+// The same snapshot can be obtained through "adb shell dumpsys activity service TrackingService".
+// It also summarizes the heatmap of the area around the last fix displayed.
+public class MetricsActivity extends AppCompatActivity {
+
+    // Time between refreshes of the metrics (in milliseconds)
+    private static final long REFRESH_INTERVAL_MILLIS = 1000;
+    // Size of the area around the last fix whose heatmap is summarized (in degrees, about 5 km),
+    // and maximum number of tiles within it, which sets the level of the tiles
+    private static final double HEATMAP_SPAN_DEGREES = 0.05;
+    private static final int HEATMAP_MAX_TILES = 256;
+
+    // Hold reference to the service collecting the metrics (null if not bound)
+    TrackingService trackingService = null;
+    // Connection to the TrackingService
+    final ServiceConnection trackingConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            trackingService = ((TrackingService.TrackingBinder) service).getService();
+            refresh();
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            trackingService = null;
+        }
+    };
+
+    // Hold reference to the View displaying the metrics
+    TextView tvMetrics;
+    // Latest summary of the heatmap around the last fix, displayed with the next snapshot
+    String heatmapSummary = "not available";
+
+    // Refreshes the metrics periodically while the activity is visible
+    final Handler handler = new Handler(Looper.getMainLooper());
+    final Runnable refreshTask = this::refresh;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_metrics);
+
+        tvMetrics = findViewById(R.id.tvMetrics);
+        tvMetrics.setText(R.string.metrics_not_available);
+    }
+
+    // Binds to the TrackingService, without creating it if it is not running.
+    @Override
+    protected void onStart() {
+        super.onStart();
+        bindService(new Intent(this, TrackingService.class), trackingConnection, 0);
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        handler.removeCallbacks(refreshTask);
+        trackingService = null;
+        unbindService(trackingConnection);
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(@NonNull Menu menu) {
+        getMenuInflater().inflate(R.menu.menu_metrics, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if ((item.getItemId() == R.id.mResetMetrics) && (trackingService != null)) {
+            trackingService.getMetrics().reset();
+            refresh();
+        }
+        return true;
+    }
+
+    // Displays a new snapshot of the metrics and schedules the next refresh.
+    private void refresh() {
+        handler.removeCallbacks(refreshTask);
+        if (trackingService == null) {
+            return;
+        }
+        StringWriter snapshot = new StringWriter();
+        PrintWriter writer = new PrintWriter(snapshot);
+        trackingService.dumpMetrics(writer);
+        writer.println("Heatmap nearby: " + heatmapSummary);
+        writer.flush();
+        tvMetrics.setText(snapshot.toString());
+        queryHeatmap();
+        handler.postDelayed(refreshTask, REFRESH_INTERVAL_MILLIS);
+    }
+
+    // Requests the tiles of the heatmap around the last fix, without waiting for them.
+    // The viewport crosses the antimeridian (west > east) if the fix is close to it.
+    private void queryHeatmap() {
+        final FixViewState state = trackingService.getLastState();
+        if (state == null) {
+            return;
+        }
+        final double half = HEATMAP_SPAN_DEGREES / 2;
+        double west = state.longitude - half;
+        double east = state.longitude + half;
+        if (west < -180) {
+            west += 360;
+        }
+        if (east > 180) {
+            east -= 360;
+        }
+        trackingService.queryHeatmap(state.latitude - half, west, state.latitude + half, east,
+                HEATMAP_MAX_TILES, this::onHeatmapQueried);
+    }
+
+    // Summarizes the tiles found: their level, how many have been visited and the most visited one.
+    private void onHeatmapQueried(TileIndex.Tiles tiles) {
+        int hottest = -1;
+        for (int i = 0; i < tiles.size; i++) {
+            if ((hottest < 0) || (tiles.visits[i] > tiles.visits[hottest])) {
+                hottest = i;
+            }
+        }
+        heatmapSummary = "level=" + tiles.level + " tiles=" + tiles.size + ((hottest < 0) ? "" :
+                " hottest=" + TileIndex.toQuadkey(tiles.x[hottest], tiles.y[hottest], tiles.level) +
+                        " visits=" + tiles.visits[hottest]);
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Reverse and forward geocoder working without network connectivity.
+// It answers with the nearest places of a prebuilt dataset held in a PlaceIndex, or with those matching a name.
+public class OfflineReverseGeocoder implements ReverseGeocoder, ForwardGeocoder {
+
+    // Index of the known places
+    private final PlaceIndex index;
+    // Maximum distance to consider a place as the address of a location (in meters)
+    private final double maxDistanceMeters;
+
+    public OfflineReverseGeocoder(PlaceIndex index, double maxDistanceMeters) {
+        this.index = index;
+        this.maxDistanceMeters = maxDistanceMeters;
+    }
+
+    @Override
+    public String getAddress(double latitude, double longitude) {
+        int nearest = index.nearest(latitude, longitude);
+        // Discard places too far away to be meaningful
+        if ((nearest == -1) || (index.distanceMeters(nearest, latitude, longitude) > maxDistanceMeters)) {
+            return null;
+        }
+        return index.getName(nearest);
+    }
+
+    // Returns the nearest places within the maximum distance, nearest first.
+    @Override
+    public List<GeocodeResult> getAddresses(double latitude, double longitude, int maxResults) {
+        int[] places = new int[maxResults];
+        int count = index.nearest(latitude, longitude, places);
+        List<GeocodeResult> results = new ArrayList<>(count);
+        for (int i = 0; (i < count) && (index.distanceMeters(places[i], latitude, longitude) <= maxDistanceMeters); i++) {
+            results.add(toResult(places[i]));
+        }
+        return results;
+    }
+
+    // Returns the places whose name contains the given one, those starting with it first.
+    @Override
+    public List<GeocodeResult> getLocations(String name, int maxResults) {
+        int[] places = index.find(name, maxResults);
+        List<GeocodeResult> results = new ArrayList<>(places.length);
+        for (int place : places) {
+            results.add(toResult(place));
+        }
+        return results;
+    }
+
+    private GeocodeResult toResult(int place) {
+        return new GeocodeResult(index.getName(place), index.getLatitude(place), index.getLongitude(place));
+    }
+
+    // Loads the places from a stream of lines with the format "latitude,longitude,name".
+    // Empty lines and those starting with '#' are ignored.
+    public static PlaceIndex loadPlaces(InputStream stream) throws IOException {
+        List<String> names = new ArrayList<>();
+        double[] latitudes = new double[1024];
+        double[] longitudes = new double[1024];
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(stream, Charset.forName("UTF-8")));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if ((line.length() == 0) || (line.charAt(0) == '#')) {
+                continue;
+            }
+            int first = line.indexOf(',');
+            int second = line.indexOf(',', first + 1);
+            if ((first == -1) || (second == -1)) {
+                throw new IOException("Malformed place: " + line);
+            }
+            // Grow the coordinate arrays when full
+            int size = names.size();
+            if (size == latitudes.length) {
+                latitudes = Arrays.copyOf(latitudes, size * 2);
+                longitudes = Arrays.copyOf(longitudes, size * 2);
+            }
+            try {
+                latitudes[size] = Double.parseDouble(line.substring(0, first).trim());
+                longitudes[size] = Double.parseDouble(line.substring(first + 1, second).trim());
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed place: " + line, e);
+            }
+            names.add(line.substring(second + 1).trim());
+        }
+
+        int size = names.size();
+        return new PlaceIndex(
+                Arrays.copyOf(latitudes, size),
+                Arrays.copyOf(longitudes, size),
+                names.toArray(new String[size]));
+    }
+}
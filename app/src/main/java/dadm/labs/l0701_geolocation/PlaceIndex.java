@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+// Static k-d tree holding a set of named places for (k) nearest neighbour queries and name searches.
+// The tree is implicit: places are stored in primitive arrays sorted so that the median of every
+// range is its splitting node, alternating latitude and longitude at each level.
+// Distances are computed with an equirectangular projection centered on the query location,
+// which is accurate enough for the short distances involved in reverse geocoding.
+public class PlaceIndex {
+
+    // Coordinates and names of the places, in tree order
+    private final double[] latitudes;
+    private final double[] longitudes;
+    private final String[] names;
+
+    // Builds the index from the given places. The arrays are reordered in place.
+    public PlaceIndex(double[] latitudes, double[] longitudes, String[] names) {
+        if ((latitudes.length != longitudes.length) || (latitudes.length != names.length)) {
+            throw new IllegalArgumentException("All the arrays must have the same length");
+        }
+        this.latitudes = latitudes;
+        this.longitudes = longitudes;
+        this.names = names;
+        build(0, latitudes.length, 0);
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    public String getName(int index) {
+        return names[index];
+    }
+
+    public double getLatitude(int index) {
+        return latitudes[index];
+    }
+
+    public double getLongitude(int index) {
+        return longitudes[index];
+    }
+
+    // Returns the position of the place nearest to the given coordinates, or -1 if the index is empty.
+    public int nearest(double latitude, double longitude) {
+        if (names.length == 0) {
+            return -1;
+        }
+        Search search = new Search(latitude, longitude, 1);
+        search(search, 0, names.length, 0);
+        return search.best[0];
+    }
+
+    // Looks for the places nearest to the given coordinates, as many as the length of the given array.
+    // The positions of the places are stored in the array from the nearest to the farthest.
+    // Returns the number of places found (less than requested if the index is smaller).
+    public int nearest(double latitude, double longitude, int[] places) {
+        if ((names.length == 0) || (places.length == 0)) {
+            return 0;
+        }
+        Search search = new Search(latitude, longitude, places.length);
+        search(search, 0, names.length, 0);
+        System.arraycopy(search.best, 0, places, 0, search.count);
+        return search.count;
+    }
+
+    // Returns the positions of at most maxResults places whose name contains the given text (ignoring case),
+    // an exact match first, then those starting with it. It scans all the places, which is fast enough for offline datasets.
+    public int[] find(String text, int maxResults) {
+        if (maxResults <= 0) {
+            return new int[0];
+        }
+        String query = text.trim().toLowerCase(Locale.ROOT);
+        int[] prefixes = new int[maxResults];
+        int[] others = new int[maxResults];
+        int prefixCount = 0;
+        int otherCount = 0;
+        for (int i = 0; i < names.length; i++) {
+            String name = names[i].toLowerCase(Locale.ROOT);
+            if (name.equals(query)) {
+                // Exact matches go before any other one, dropping the last prefix match if full
+                System.arraycopy(prefixes, 0, prefixes, 1, Math.min(prefixCount, maxResults - 1));
+                prefixes[0] = i;
+                prefixCount = Math.min(prefixCount + 1, maxResults);
+            } else if ((prefixCount < maxResults) && name.startsWith(query)) {
+                prefixes[prefixCount++] = i;
+            } else if ((otherCount < maxResults) && name.contains(query)) {
+                others[otherCount++] = i;
+            }
+        }
+        int count = Math.min(maxResults, prefixCount + otherCount);
+        int[] places = Arrays.copyOf(prefixes, count);
+        System.arraycopy(others, 0, places, prefixCount, count - prefixCount);
+        return places;
+    }
+
+    // Returns the approximate distance (in meters) between a place and the given coordinates.
+    public double distanceMeters(int index, double latitude, double longitude) {
+        double dLatitude = latitudes[index] - latitude;
+        double dLongitude = (longitudes[index] - longitude) * Math.cos(Math.toRadians(latitude));
+        return Math.sqrt(dLatitude * dLatitude + dLongitude * dLongitude) * GeocodeCache.METERS_PER_DEGREE;
+    }
+
+    // Sorts the range [from, to) so that its median splits it along the given axis (0 latitude, 1 longitude).
+    private void build(int from, int to, int axis) {
+        if (to - from <= 1) {
+            return;
+        }
+        int median = (from + to) >>> 1;
+        select(from, to - 1, median, axis);
+        build(from, median, axis ^ 1);
+        build(median + 1, to, axis ^ 1);
+    }
+
+    // Places the k-th element of the range [left, right] in its sorted position (quickselect),
+    // with smaller values on its left and larger values on its right.
+    private void select(int left, int right, int k, int axis) {
+        double[] values = (axis == 0) ? latitudes : longitudes;
+        while (right > left) {
+            double pivot = values[(left + right) >>> 1];
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (values[i] < pivot) i++;
+                while (values[j] > pivot) j--;
+                if (i <= j) {
+                    swap(i++, j--);
+                }
+            }
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void swap(int i, int j) {
+        double latitude = latitudes[i];
+        latitudes[i] = latitudes[j];
+        latitudes[j] = latitude;
+        double longitude = longitudes[i];
+        longitudes[i] = longitudes[j];
+        longitudes[j] = longitude;
+        String name = names[i];
+        names[i] = names[j];
+        names[j] = name;
+    }
+
+    // Recursively looks for the nearest place within the range [from, to).
+    private void search(Search search, int from, int to, int axis) {
+        if (from >= to) {
+            return;
+        }
+        int median = (from + to) >>> 1;
+
+        // Check the splitting node
+        double dLatitude = latitudes[median] - search.latitude;
+        double dLongitude = (longitudes[median] - search.longitude) * search.longitudeScale;
+        double distance = dLatitude * dLatitude + dLongitude * dLongitude;
+        if (distance < search.bound()) {
+            search.add(median, distance);
+        }
+
+        // Visit first the side containing the query location, and the other one only if it may be closer
+        double delta = (axis == 0) ? -dLatitude : -dLongitude;
+        if (delta < 0) {
+            search(search, from, median, axis ^ 1);
+            if (delta * delta < search.bound()) {
+                search(search, median + 1, to, axis ^ 1);
+            }
+        } else {
+            search(search, median + 1, to, axis ^ 1);
+            if (delta * delta < search.bound()) {
+                search(search, from, median, axis ^ 1);
+            }
+        }
+    }
+
+    // State of a k nearest neighbours query.
+    private static class Search {
+        final double latitude;
+        final double longitude;
+        // Factor to convert degrees of longitude into degrees of latitude at the query location
+        final double longitudeScale;
+        // Nearest places found so far, sorted by their (squared) distance
+        final int[] best;
+        final double[] bestDistances;
+        int count = 0;
+
+        Search(double latitude, double longitude, int k) {
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.longitudeScale = Math.cos(Math.toRadians(latitude));
+            this.best = new int[k];
+            this.bestDistances = new double[k];
+        }
+
+        // Returns the distance a place must improve to be one of the nearest ones.
+        double bound() {
+            return (count < best.length) ? Double.POSITIVE_INFINITY : bestDistances[count - 1];
+        }
+
+        // Inserts a place in its sorted position, dropping the farthest one if full.
+        void add(int place, double distance) {
+            int i = (count < best.length) ? count++ : count - 1;
+            while ((i > 0) && (bestDistances[i - 1] > distance)) {
+                best[i] = best[i - 1];
+                bestDistances[i] = bestDistances[i - 1];
+                i--;
+            }
+            best[i] = place;
+            bestDistances[i] = distance;
+        }
+    }
+}
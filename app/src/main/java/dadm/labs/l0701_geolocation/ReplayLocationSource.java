@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import android.location.Location;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// LocationSource replaying a recorded or synthetic track, so the whole pipeline can be exercised
+// deterministically without real providers. Fixes are streamed from the FixSequence one at a time,
+// keeping their original time spacing scaled by a playback rate. The UTC times of the locations are those
+// recorded, shifted to start when the playback starts but not scaled by the rate, so the speeds derived
+// from them are those of the track. Their times since boot are those when they are due to be published,
+// so their age and the latencies measured from them are those of a real provider at any rate. Both are
+// derived from the track, so replaying it twice publishes the same locations whatever the delays of the
+// thread. Playback is driven by the elapsed time rather than by chaining
+// delays, so it does not drift, and every fix already due is published on the same tick when the
+// thread of the given looper falls behind (e.g. at high rates).
+public class ReplayLocationSource implements LocationSource {
+
+    // Minimum time between two ticks of the playback (in milliseconds)
+    private static final long MIN_TICK_MILLIS = 10;
+
+    // Fixes to be replayed, in chronological order
+    private final FixSequence track;
+    // Stream where locations are published
+    private final LocationEventStream stream;
+    // Handler scheduling the publication of the locations
+    private final Handler handler;
+    // Factor to speed up the playback
+    private final float rate;
+
+    // Next fix to be published, already read from the track
+    private final Fix next = new Fix();
+    // States whether there is a next fix (false once the end of the track is reached)
+    private boolean hasNext;
+    // Time of the first fix of the track, and elapsed time when it was published (in milliseconds)
+    private long firstFixMillis;
+    private long startElapsedMillis;
+    // Times given to the first fix: since epoch (in milliseconds) and since boot (in nanoseconds)
+    private long baseTimeMillis;
+    private long baseElapsedNanos;
+    private boolean active = false;
+
+    // looper Looper of the thread where locations are published, that must also request and remove updates.
+    public ReplayLocationSource(FixSequence track, LocationEventStream stream, float rate, Looper looper)
+            throws IOException {
+        this.track = track;
+        this.stream = stream;
+        this.rate = rate;
+        this.handler = new Handler(looper);
+        hasNext = track.next(next);
+        firstFixMillis = next.timeMillis;
+    }
+
+    @Override
+    public String getName() {
+        return "replay";
+    }
+
+    // The replayed track does not depend on the request parameters.
+    @Override
+    public boolean requestUpdates(int priority, long intervalMillis, long fastestIntervalMillis,
+                                  float minDistanceMeters, long maxWaitMillis) {
+        if (!active && hasNext) {
+            active = true;
+            // Resume from the next fix, as if it was the first one
+            firstFixMillis = next.timeMillis;
+            startElapsedMillis = SystemClock.elapsedRealtime();
+            baseTimeMillis = System.currentTimeMillis();
+            baseElapsedNanos = TimeUnit.MILLISECONDS.toNanos(startElapsedMillis);
+            handler.post(this::tick);
+        }
+        return hasNext;
+    }
+
+    // Stops the playback and releases the track, which cannot be resumed afterwards.
+    @Override
+    public void removeUpdates() {
+        active = false;
+        handler.removeCallbacksAndMessages(null);
+        if (hasNext) {
+            hasNext = false;
+            closeTrack();
+        }
+    }
+
+    @Override
+    public boolean isActive() {
+        return active;
+    }
+
+    // Publishes every fix already due and schedules the next tick for the following one.
+    private void tick() {
+        if (!active) {
+            return;
+        }
+        long playbackMillis = (long) ((SystemClock.elapsedRealtime() - startElapsedMillis) * rate);
+        try {
+            while (hasNext && (next.timeMillis - firstFixMillis <= playbackMillis)) {
+                publish(next);
+                hasNext = track.next(next);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            hasNext = false;
+        }
+
+        if (!hasNext) {
+            active = false;
+            closeTrack();
+            return;
+        }
+        long delay = (long) ((next.timeMillis - firstFixMillis) / rate) -
+                (SystemClock.elapsedRealtime() - startElapsedMillis);
+        handler.postDelayed(this::tick, Math.max(MIN_TICK_MILLIS, delay));
+    }
+
+    // Publishes a fix of the track as a fresh location, with its recorded time relative to the first fix
+    // and stamped with the time since boot it is due to be published.
+    private void publish(Fix fix) {
+        Location location = new Location(getName());
+        location.setLatitude(fix.latitude);
+        location.setLongitude(fix.longitude);
+        if (fix.accuracy >= 0) {
+            location.setAccuracy(fix.accuracy);
+        }
+        if (fix.speed >= 0) {
+            location.setSpeed(fix.speed);
+        }
+        final long offsetMillis = fix.timeMillis - firstFixMillis;
+        location.setTime(baseTimeMillis + offsetMillis);
+        location.setElapsedRealtimeNanos(baseElapsedNanos + (long) (TimeUnit.MILLISECONDS.toNanos(offsetMillis) / rate));
+        stream.publish(this, location, true);
+    }
+
+    private void closeTrack() {
+        try {
+            track.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,19 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import java.io.IOException;
+import java.util.List;
+
+// Translates a pair of coordinates into a human readable address.
+// Implementations are called from the GeocodingService workers, so they may block.
+public interface ReverseGeocoder {
+
+    // Returns the address for the given coordinates, or null if no address is available.
+    String getAddress(double latitude, double longitude) throws IOException;
+
+    // Returns at most maxResults candidate addresses for the given coordinates, best first (empty if none).
+    List<GeocodeResult> getAddresses(double latitude, double longitude, int maxResults) throws IOException;
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+// Profile of what a tracking session costs with a given configuration (location source, priority,
+// dispatch thread and delivery), so configurations can be compared by their cost per useful fix.
+// It records the wakeups (location callbacks), the locations received and those accepted by the pipeline
+// (the useful fixes), the intervals between locations, the distribution of their accuracy, the CPU time
+// spent in the callbacks, and the geocoding lookups, network bytes and battery charge used during the session.
+// Network bytes and battery charge are provided by the caller, as counters read when starting and
+// finishing the session (negative if not available).
+// It is not thread safe: it must be used on the thread receiving the locations.
+public class SessionProfiler {
+
+    // Upper bounds of the accuracy buckets (in meters). Locations without accuracy are counted apart
+    private static final float[] ACCURACY_BOUNDS = {5, 10, 20, 50, 100};
+
+    // Header of the reports in CSV format, one column per value of toCsv()
+    public static final String CSV_HEADER = "configuration,start,seconds,wakeups,locations,useful," +
+            "interval_p50_ms,interval_p90_ms,accuracy_5m,accuracy_10m,accuracy_20m,accuracy_50m,accuracy_100m," +
+            "accuracy_more,accuracy_unknown,geocode_requests,geocode_online,rx_bytes,tx_bytes,charge_uah," +
+            "cpu_ms,cpu_us_per_fix,bytes_per_fix,wakeups_per_fix";
+
+    // Configuration of the session (e.g. "fused/high/background")
+    private final String configuration;
+    // Metrics of the TrackingService, where geocoding lookups are counted
+    private final TrackingMetrics metrics;
+
+    // Time when the session started (in milliseconds since epoch, and since boot in nanoseconds),
+    // and time since boot when it finished (0 if not finished yet)
+    private final long startMillis;
+    private final long startNanos;
+    private long finishNanos = 0;
+    // Counters of network bytes and battery charge (in µAh) when started and finished (negative if not available)
+    private final long startRxBytes;
+    private final long startTxBytes;
+    private final long startCharge;
+    private long rxBytes = -1;
+    private long txBytes = -1;
+    private long charge = -1;
+    // Geocoding lookups requested, and sent to the online geocoder, when started and during the session
+    private final long startGeocodeRequests;
+    private final long startGeocodeOnline;
+    private long geocodeRequests = 0;
+    private long geocodeOnline = 0;
+
+    // Location callbacks, locations received and locations accepted by the pipeline
+    private long wakeups = 0;
+    private long locations = 0;
+    private long useful = 0;
+    // CPU time spent processing the locations (in nanoseconds)
+    private long cpuNanos = 0;
+    // Intervals between locations, and time since boot of the previous one (0 if none)
+    private final LatencyHistogram intervals = new LatencyHistogram();
+    private long previousLocationNanos = 0;
+    // Locations within every accuracy bucket, followed by those beyond the last one and those without accuracy
+    private final long[] accuracies = new long[ACCURACY_BOUNDS.length + 2];
+
+    // configuration Description of the configuration of the session.
+    // nowNanos      Time since boot (in nanoseconds).
+    // rxBytes       Bytes received by the app so far (negative if not available).
+    // txBytes       Bytes sent by the app so far (negative if not available).
+    // charge        Remaining battery charge (in µAh, negative if not available).
+    public SessionProfiler(String configuration, TrackingMetrics metrics, long nowNanos,
+                           long rxBytes, long txBytes, long charge) {
+        this.configuration = configuration;
+        this.metrics = metrics;
+        this.startMillis = System.currentTimeMillis();
+        this.startNanos = nowNanos;
+        this.startRxBytes = rxBytes;
+        this.startTxBytes = txBytes;
+        this.startCharge = charge;
+        this.startGeocodeRequests = metrics.geocodeRequests.get();
+        this.startGeocodeOnline = getGeocodeOnline(metrics);
+    }
+
+    // Lookups actually sent to the online geocoder
+    private static long getGeocodeOnline(TrackingMetrics metrics) {
+        return metrics.geocodeSuccesses.get() + metrics.geocodeFailures.get() + metrics.geocodeErrors.get();
+    }
+
+    // Records a location received by a callback.
+    // elapsedRealtimeNanos Time since boot when the location was obtained (in nanoseconds).
+    // accuracy             Accuracy of the location (in meters, negative if not known).
+    // useful               Whether the location has been accepted by the pipeline.
+    // cpuNanos             CPU time spent processing the location (in nanoseconds, negative if not known).
+    // lastInBatch          Whether it is the last location delivered by the callback.
+    public void onLocation(long elapsedRealtimeNanos, float accuracy, boolean useful, long cpuNanos,
+                           boolean lastInBatch) {
+        locations++;
+        if (useful) {
+            this.useful++;
+        }
+        if (cpuNanos > 0) {
+            this.cpuNanos += cpuNanos;
+        }
+        if (lastInBatch) {
+            wakeups++;
+        }
+        if ((previousLocationNanos != 0) && (elapsedRealtimeNanos > previousLocationNanos)) {
+            intervals.record(elapsedRealtimeNanos - previousLocationNanos);
+        }
+        previousLocationNanos = elapsedRealtimeNanos;
+
+        int bucket = 0;
+        if (accuracy < 0) {
+            bucket = accuracies.length - 1;
+        } else {
+            while ((bucket < ACCURACY_BOUNDS.length) && (accuracy > ACCURACY_BOUNDS[bucket])) {
+                bucket++;
+            }
+        }
+        accuracies[bucket]++;
+    }
+
+    // Finishes the session, taking the final values of the counters provided by the caller.
+    public void finish(long nowNanos, long rxBytes, long txBytes, long charge) {
+        finishNanos = nowNanos;
+        this.rxBytes = rxBytes;
+        this.txBytes = txBytes;
+        this.charge = charge;
+        // The metrics may have been reset during the session
+        geocodeRequests = Math.max(0, metrics.geocodeRequests.get() - startGeocodeRequests);
+        geocodeOnline = Math.max(0, getGeocodeOnline(metrics) - startGeocodeOnline);
+    }
+
+    // Returns the difference between the final and initial value of a counter, or -1 if not available.
+    private static long delta(long start, long finish) {
+        return ((start < 0) || (finish < 0)) ? -1 : finish - start;
+    }
+
+    // Returns the report of the session as a line of values in the order of CSV_HEADER.
+    // Unknown values are reported as -1, and costs per fix are left empty if there are no useful fixes.
+    public String toCsv() {
+        final long received = delta(startRxBytes, rxBytes);
+        final long sent = delta(startTxBytes, txBytes);
+        final long bytes = ((received < 0) || (sent < 0)) ? -1 : received + sent;
+        StringBuilder builder = new StringBuilder(256);
+        // Configurations are generated by the app, but commas would break the columns
+        builder.append(configuration.replace(',', ';'))
+                .append(',').append(startMillis)
+                .append(',').append(String.format(Locale.US, "%.1f", (finishNanos - startNanos) / 1e9))
+                .append(',').append(wakeups)
+                .append(',').append(locations)
+                .append(',').append(useful)
+                .append(',').append(TimeUnit.NANOSECONDS.toMillis(intervals.getPercentile(0.5)))
+                .append(',').append(TimeUnit.NANOSECONDS.toMillis(intervals.getPercentile(0.9)));
+        for (long accuracy : accuracies) {
+            builder.append(',').append(accuracy);
+        }
+        builder.append(',').append(geocodeRequests)
+                .append(',').append(geocodeOnline)
+                .append(',').append(received)
+                .append(',').append(sent)
+                // The charge decreases while it is being used
+                .append(',').append(delta(charge, startCharge))
+                .append(',').append(TimeUnit.NANOSECONDS.toMillis(cpuNanos))
+                .append(',');
+        if (useful > 0) {
+            builder.append(cpuNanos / 1000 / useful).append(',');
+            if (bytes >= 0) {
+                builder.append(String.format(Locale.US, "%.1f", (double) bytes / useful));
+            }
+            builder.append(',').append(String.format(Locale.US, "%.2f", (double) wakeups / useful));
+        } else {
+            builder.append(",,");
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public String toString() {
+        return configuration + ": wakeups=" + wakeups + " locations=" + locations + " useful=" + useful +
+                " cpu=" + TimeUnit.NANOSECONDS.toMillis(cpuNanos) + " ms";
+    }
+}
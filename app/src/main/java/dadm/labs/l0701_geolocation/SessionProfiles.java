@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import android.content.Context;
+import android.net.TrafficStats;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+// Profiles the tracking sessions of the TrackingService with a SessionProfiler, reading the network bytes
+// of the app and the battery charge when every session starts and finishes. The report of every finished
+// session is appended to a CSV file in the internal storage, and the latest ones are kept to be dumped
+// with the metrics.
+// Sessions are started and finished on the track thread, and dump() can be called from any thread.
+public class SessionProfiles {
+
+    // File (within the internal storage) where the reports of the profiled sessions are appended
+    private static final String PROFILES_FILE = "profiles.csv";
+    // Number of reports of profiled sessions kept in memory to be dumped with the metrics
+    private static final int MAX_PROFILE_REPORTS = 10;
+
+    private final Context context;
+    // Metrics of the TrackingService, where geocoding lookups are counted
+    private final TrackingMetrics metrics;
+
+    // Profiler of the current session (null if not profiled)
+    private SessionProfiler profiler = null;
+    // Reports of the sessions profiled, oldest first (guarded by itself)
+    private final List<String> reports = new ArrayList<>();
+
+    public SessionProfiles(Context context, TrackingMetrics metrics) {
+        this.context = context;
+        this.metrics = metrics;
+    }
+
+    // Starts profiling a new session, finishing the current one if any,
+    // so a session restarted with a new configuration is profiled again from the beginning.
+    // configuration Configuration of the session (e.g. "fused/high/background").
+    public void start(String configuration) {
+        finish();
+        profiler = new SessionProfiler(configuration, metrics, SystemClock.elapsedRealtimeNanos(),
+                TrafficStats.getUidRxBytes(Process.myUid()), TrafficStats.getUidTxBytes(Process.myUid()),
+                getBatteryCharge());
+    }
+
+    // Discards the profile of the current session without reporting it (e.g. if it could not be started).
+    public void cancel() {
+        profiler = null;
+    }
+
+    // Returns the profiler of the current session, or null if not profiled.
+    public SessionProfiler getProfiler() {
+        return profiler;
+    }
+
+    // Finishes the profile of the current session, if any, and appends its report to the profiles file.
+    public void finish() {
+        if (profiler == null) {
+            return;
+        }
+        profiler.finish(SystemClock.elapsedRealtimeNanos(),
+                TrafficStats.getUidRxBytes(Process.myUid()), TrafficStats.getUidTxBytes(Process.myUid()),
+                getBatteryCharge());
+        final String report = profiler.toCsv();
+        profiler = null;
+        synchronized (reports) {
+            reports.add(report);
+            if (reports.size() > MAX_PROFILE_REPORTS) {
+                reports.remove(0);
+            }
+        }
+
+        File file = new File(context.getFilesDir(), PROFILES_FILE);
+        final boolean header = !file.exists();
+        try (FileWriter writer = new FileWriter(file, true)) {
+            if (header) {
+                writer.write(SessionProfiler.CSV_HEADER + "\n");
+            }
+            writer.write(report + "\n");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Writes the reports of the latest sessions profiled, ready to be compared side by side.
+    public void dump(PrintWriter writer) {
+        synchronized (reports) {
+            if (!reports.isEmpty()) {
+                writer.println(SessionProfiler.CSV_HEADER);
+                for (String report : reports) {
+                    writer.println(report);
+                }
+            }
+        }
+    }
+
+    // Returns the remaining charge of the battery (in µAh), or -1 if not available (before Android 5.0).
+    private long getBatteryCharge() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            long charge = ((BatteryManager) context.getSystemService(Context.BATTERY_SERVICE))
+                    .getLongProperty(BatteryManager.BATTERY_PROPERTY_CHARGE_COUNTER);
+            // Devices not supporting the property return 0 or Long.MIN_VALUE
+            return (charge > 0) ? charge : -1;
+        }
+        return -1;
+    }
+}
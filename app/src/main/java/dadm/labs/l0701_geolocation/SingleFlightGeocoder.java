@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+// Reverse and forward geocoder protecting the rate limit of an online geocoder shared by several workers.
+// Concurrent lookups for the same cell of the GeocodeCache share a single request to the backend
+// (single-flight), at most a given number of requests are performed per minute, and requests are
+// suspended with an exponential backoff after an error. Lookups that are not performed because
+// of these limits fail with a ThrottledException, so the caller can fall back to other sources.
+public class SingleFlightGeocoder implements ReverseGeocoder, ForwardGeocoder {
+
+    // Thrown when a lookup is not performed because of the rate limit or the backoff after an error.
+    // It tells when the geocoder will accept lookups again, so callers that cannot do without the result
+    // (e.g. batches) can wait and retry instead of taking it as a lookup without results.
+    public static class ThrottledException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private final long retryDelayMillis;
+
+        ThrottledException(String message, long retryDelayNanos) {
+            super(message);
+            // Round up, so a lookup retried after the delay is not refused again
+            this.retryDelayMillis = TimeUnit.NANOSECONDS.toMillis(retryDelayNanos) + 1;
+        }
+
+        // Returns the time until the geocoder accepts lookups again (in milliseconds).
+        public long getRetryDelayMillis() {
+            return retryDelayMillis;
+        }
+    }
+
+    // Lookup performed through the geocoder.
+    private interface Lookup<T> {
+        T run() throws IOException;
+    }
+
+    // Geocoder actually performing the lookups
+    private final ReverseGeocoder geocoder;
+    // Cache defining the cells whose coordinates share the same address
+    private final GeocodeCache cache;
+    private final TrackingMetrics metrics;
+    // Lookup in flight for each cell
+    private final ConcurrentHashMap<Long, FutureTask<String>> inFlight = new ConcurrentHashMap<>();
+
+    // Length of the window of the rate limiter (in nanoseconds)
+    private final long windowNanos;
+    // Start times of the latest lookups, used as a ring buffer (in nanoseconds)
+    private final long[] lookupTimes;
+    // Position of the oldest start time, and number of start times recorded (up to the size of the buffer)
+    private int oldestLookup = 0;
+    private int lookupCount = 0;
+
+    // Backoff applied after the first error, and maximum one (in nanoseconds)
+    private final long initialBackoffNanos;
+    private final long maxBackoffNanos;
+    // Number of errors since the last successful lookup
+    private int consecutiveErrors = 0;
+    // Time before which no lookup is performed (in nanoseconds)
+    private long retryNanos = 0;
+
+    // maxLookupsPerMinute Maximum number of lookups performed in any one minute window.
+    // initialBackoffMillis Time lookups are suspended after an error, doubled after every further error.
+    // maxBackoffMillis Maximum time lookups are suspended after an error.
+    public SingleFlightGeocoder(ReverseGeocoder geocoder, GeocodeCache cache, TrackingMetrics metrics,
+                                int maxLookupsPerMinute, long initialBackoffMillis, long maxBackoffMillis) {
+        this(geocoder, cache, metrics, maxLookupsPerMinute, TimeUnit.MINUTES.toMillis(1),
+                initialBackoffMillis, maxBackoffMillis);
+    }
+
+    // Rate limits the lookups over a window of any length (e.g. a short one in tests).
+    SingleFlightGeocoder(ReverseGeocoder geocoder, GeocodeCache cache, TrackingMetrics metrics,
+                         int maxLookups, long windowMillis, long initialBackoffMillis, long maxBackoffMillis) {
+        this.geocoder = geocoder;
+        this.cache = cache;
+        this.metrics = metrics;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.lookupTimes = new long[maxLookups];
+        this.initialBackoffNanos = TimeUnit.MILLISECONDS.toNanos(initialBackoffMillis);
+        this.maxBackoffNanos = TimeUnit.MILLISECONDS.toNanos(maxBackoffMillis);
+    }
+
+    // Returns the address for the given coordinates, joining the lookup in flight for the same cell, if any.
+    @Override
+    public String getAddress(final double latitude, final double longitude) throws IOException {
+        final Long cell = cache.cellKey(latitude, longitude);
+        while (true) {
+            // Become the leader of a new lookup, unless there is already one for this cell
+            FutureTask<String> lookup = inFlight.get(cell);
+            boolean leader = false;
+            if (lookup == null) {
+                FutureTask<String> created = new FutureTask<>(() -> lookup(latitude, longitude));
+                lookup = inFlight.putIfAbsent(cell, created);
+                if (lookup == null) {
+                    lookup = created;
+                    leader = true;
+                }
+            }
+            if (leader) {
+                try {
+                    lookup.run();
+                } finally {
+                    inFlight.remove(cell, lookup);
+                }
+            } else {
+                metrics.geocodeShared.incrementAndGet();
+            }
+
+            try {
+                return lookup.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Lookup cancelled");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                // The leader has been cancelled, so try again unless this lookup has been cancelled too
+                if ((cause instanceof InterruptedIOException) && !leader && !Thread.currentThread().isInterrupted()) {
+                    continue;
+                }
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                throw new IOException(cause);
+            }
+        }
+    }
+
+    // Multi-result lookups are rare, so they are not shared, but they are still rate limited.
+    @Override
+    public List<GeocodeResult> getAddresses(final double latitude, final double longitude,
+                                            final int maxResults) throws IOException {
+        return limit(() -> geocoder.getAddresses(latitude, longitude, maxResults));
+    }
+
+    // Forward lookups are rate limited too. Returns no places if the geocoder does not support them.
+    @Override
+    public List<GeocodeResult> getLocations(final String name, final int maxResults) throws IOException {
+        if (!(geocoder instanceof ForwardGeocoder)) {
+            return Collections.emptyList();
+        }
+        return limit(() -> ((ForwardGeocoder) geocoder).getLocations(name, maxResults));
+    }
+
+    // Performs a lookup through the geocoder if the rate limit and the backoff allow it.
+    private String lookup(final double latitude, final double longitude) throws IOException {
+        return limit(() -> geocoder.getAddress(latitude, longitude));
+    }
+
+    // Performs any kind of lookup if the rate limit and the backoff allow it.
+    private <T> T limit(Lookup<T> lookup) throws IOException {
+        acquire();
+        try {
+            T result = lookup.run();
+            onResult(false);
+            return result;
+        } catch (InterruptedIOException e) {
+            // Cancelled lookups do not tell anything about the state of the backend
+            throw e;
+        } catch (IOException e) {
+            onResult(true);
+            throw e;
+        }
+    }
+
+    // Records the start of a lookup, or throws a ThrottledException if it must not be performed yet.
+    private synchronized void acquire() throws ThrottledException {
+        long now = System.nanoTime();
+        if (now - retryNanos < 0) {
+            throw new ThrottledException("Backing off for " + TimeUnit.NANOSECONDS.toMillis(retryNanos - now) + " ms",
+                    retryNanos - now);
+        }
+        // The oldest of the latest lookups must have started before the window
+        if ((lookupCount == lookupTimes.length) && (now - lookupTimes[oldestLookup] < windowNanos)) {
+            throw new ThrottledException("Rate limit of " + lookupTimes.length + " lookups per window reached",
+                    lookupTimes[oldestLookup] + windowNanos - now);
+        }
+        lookupTimes[oldestLookup] = now;
+        oldestLookup = (oldestLookup + 1) % lookupTimes.length;
+        lookupCount = Math.min(lookupCount + 1, lookupTimes.length);
+    }
+
+    // Resets the backoff after a successful lookup, or doubles it after an error.
+    private synchronized void onResult(boolean error) {
+        if (!error) {
+            consecutiveErrors = 0;
+            return;
+        }
+        consecutiveErrors++;
+        long backoff = initialBackoffNanos << Math.min(consecutiveErrors - 1, 20);
+        retryNanos = System.nanoTime() + Math.min(backoff, maxBackoffNanos);
+    }
+
+    @Override
+    public synchronized String toString() {
+        long backoff = retryNanos - System.nanoTime();
+        return "SingleFlightGeocoder{inFlight=" + inFlight.size() +
+                " consecutiveErrors=" + consecutiveErrors +
+                " backoff=" + ((backoff > 0) ? TimeUnit.NANOSECONDS.toMillis(backoff) : 0) + "ms}";
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+// Reverse and forward geocoder for simulations, that does not require network connectivity.
+// It takes a configurable time to answer and fails with a configurable probability,
+// so the geocoding pipeline can be stressed without depending on a real service.
+// The latencies and failures are drawn from a seed, so simulations are reproducible.
+public class StubReverseGeocoder implements ReverseGeocoder, ForwardGeocoder {
+
+    // Distance between the candidate addresses of a multi-result lookup (in degrees, about 11 m)
+    private static final double CANDIDATE_SPACING_DEGREES = 0.0001;
+
+    // Average latency of the lookups and maximum deviation from it (in milliseconds)
+    private final long latencyMillis;
+    private final long jitterMillis;
+    // Probability of a lookup failing with an IOException (from 0 to 1)
+    private final double failureRate;
+    private final Random random;
+
+    public StubReverseGeocoder(long latencyMillis, long jitterMillis, double failureRate, long seed) {
+        this.latencyMillis = latencyMillis;
+        this.jitterMillis = jitterMillis;
+        this.failureRate = failureRate;
+        this.random = new Random(seed);
+    }
+
+    // Returns a synthetic address after waiting for the latency.
+    // The wait is interrupted if the lookup is cancelled, as done by a real network request.
+    @Override
+    public String getAddress(double latitude, double longitude) throws IOException {
+        simulateLookup();
+        return format(latitude, longitude);
+    }
+
+    // Returns synthetic addresses spread around the given coordinates after waiting for the latency.
+    @Override
+    public List<GeocodeResult> getAddresses(double latitude, double longitude, int maxResults) throws IOException {
+        simulateLookup();
+        List<GeocodeResult> results = new ArrayList<>(maxResults);
+        for (int i = 0; i < maxResults; i++) {
+            double placeLatitude = latitude + i * CANDIDATE_SPACING_DEGREES;
+            results.add(new GeocodeResult(format(placeLatitude, longitude), placeLatitude, longitude));
+        }
+        return results;
+    }
+
+    // Returns synthetic places derived from the name after waiting for the latency,
+    // so the same name always leads to the same coordinates.
+    @Override
+    public List<GeocodeResult> getLocations(String name, int maxResults) throws IOException {
+        simulateLookup();
+        Random places = new Random(name.hashCode());
+        List<GeocodeResult> results = new ArrayList<>(maxResults);
+        for (int i = 0; i < maxResults; i++) {
+            results.add(new GeocodeResult(name + " " + (i + 1),
+                    places.nextDouble() * 180 - 90, places.nextDouble() * 360 - 180));
+        }
+        return results;
+    }
+
+    // Waits for the latency of a lookup, failing with the configured probability.
+    private void simulateLookup() throws IOException {
+        long delay;
+        boolean fail;
+        synchronized (random) {
+            delay = latencyMillis + ((jitterMillis > 0) ? (long) ((random.nextDouble() * 2 - 1) * jitterMillis) : 0);
+            fail = random.nextDouble() < failureRate;
+        }
+        try {
+            Thread.sleep(Math.max(0, delay));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Lookup cancelled");
+        }
+        if (fail) {
+            throw new IOException("Simulated geocoder failure");
+        }
+    }
+
+    private static String format(double latitude, double longitude) {
+        return String.format(Locale.US, "Simulated address at %.4f, %.4f", latitude, longitude);
+    }
+}
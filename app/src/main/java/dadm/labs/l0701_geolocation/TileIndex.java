@@ -0,0 +1,464 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+// Heatmap of the places visited: counts the visits to every tile of a range of zoom levels, so a map
+// overlay can draw the places visited at the resolution of its viewport.
+// Tiles are those of the Web Mercator projection used by map services (identified by quadkeys), where
+// level z divides the world into 2^z x 2^z tiles. Every level keeps its counters in a LongCountMap keyed by
+// the (x, y) coordinates of the tile, so adding a point updates one counter per level without allocating.
+// A visit is counted every time the path enters a tile, and again when coming back to it after a gap in time
+// (so staying in a place counts once, however long). The path goes straight from a point to the next one,
+// walking all the tiles in between, so tiles are not missed between distant points. Hence the points kept
+// in a simplified track, which stays within a few meters of the fixes accepted while tracking, count
+// almost the same visits as those fixes, only differing where the path runs along the edge of a tile.
+// Only visits are counted, as the number of points in a tile would depend on the sampling.
+// Indexes built in parallel from parts of a track (or from several tracks) are merged by adding their counters.
+// It is not thread safe.
+public class TileIndex {
+
+    // Finest level supported, so the tile coordinates fit in the keys and are computed exactly
+    public static final int MAX_LEVEL = 24;
+    // Latitudes beyond this one are clamped, as the projection goes to infinity at the poles
+    private static final double MAX_LATITUDE = 85.05112878;
+    // Minimum number of points processed by every task when building in parallel
+    private static final int MIN_CHUNK_POINTS = 16 * 1024;
+    // Segments crossing more tiles than this at the finest level are jumps (e.g. after losing the signal),
+    // so only the tile where they end is visited
+    private static final int MAX_SEGMENT_TILES = 4096;
+
+    // Range of levels of the index
+    private final int minLevel;
+    private final int maxLevel;
+    // Time between points after which the next one starts a new visit (in milliseconds)
+    private final long visitGapMillis;
+    // Visits to every tile, one map per level (starting at minLevel)
+    private final LongCountMap[] visits;
+    // Number of points added
+    private long pointCount = 0;
+
+    // Projected coordinates of the previous point (in tiles of the finest level), and its time
+    // (in milliseconds since epoch)
+    private boolean hasPrevious = false;
+    private double previousX;
+    private double previousY;
+    private long previousTimeMillis;
+    // Tile of the finest level where the path is
+    private int tileX;
+    private int tileY;
+
+    // minLevel       Coarsest level of the index.
+    // maxLevel       Finest level of the index (up to MAX_LEVEL).
+    // visitGapMillis Time after which a point starts a new visit to the same tile (in milliseconds).
+    public TileIndex(int minLevel, int maxLevel, long visitGapMillis) {
+        if ((minLevel < 0) || (maxLevel > MAX_LEVEL) || (minLevel > maxLevel)) {
+            throw new IllegalArgumentException("Invalid levels: " + minLevel + ".." + maxLevel);
+        }
+        this.minLevel = minLevel;
+        this.maxLevel = maxLevel;
+        this.visitGapMillis = visitGapMillis;
+        visits = new LongCountMap[maxLevel - minLevel + 1];
+        for (int i = 0; i < visits.length; i++) {
+            visits[i] = new LongCountMap();
+        }
+    }
+
+    public int getMinLevel() {
+        return minLevel;
+    }
+
+    public int getMaxLevel() {
+        return maxLevel;
+    }
+
+    // Number of points added to the index.
+    public long getPointCount() {
+        return pointCount;
+    }
+
+    // Number of tiles visited at the given level.
+    public int getTileCount(int level) {
+        return visits[checkLevel(level) - minLevel].size();
+    }
+
+    // Adds a point of the path to the index. Points must be added in chronological order, as they are
+    // to a track. Points without valid coordinates are ignored.
+    public void add(double latitude, double longitude, long timeMillis) {
+        if (!isValid(latitude, longitude)) {
+            return;
+        }
+        final double x = projectX(longitude, maxLevel);
+        final double y = projectY(latitude, maxLevel);
+        if (!hasPrevious || (timeMillis - previousTimeMillis > visitGapMillis)) {
+            enter(toTile(x), toTile(y), true);
+        } else {
+            walk(previousX, previousY, x, y);
+        }
+        pointCount++;
+        setPrevious(x, y, timeMillis);
+    }
+
+    // Adds all the points of a sequence (e.g. a recorded track) to the index.
+    public void addAll(FixSequence sequence) throws IOException {
+        final Fix fix = new Fix();
+        while (sequence.next(fix)) {
+            add(fix.latitude, fix.longitude, fix.timeMillis);
+        }
+    }
+
+    // Takes a point as the previous one without counting it, so the next point added continues from it.
+    private void seed(double latitude, double longitude, long timeMillis) {
+        final double x = projectX(longitude, maxLevel);
+        final double y = projectY(latitude, maxLevel);
+        tileX = toTile(x);
+        tileY = toTile(y);
+        setPrevious(x, y, timeMillis);
+    }
+
+    private void setPrevious(double x, double y, long timeMillis) {
+        hasPrevious = true;
+        previousX = x;
+        previousY = y;
+        previousTimeMillis = timeMillis;
+    }
+
+    // Moves the path to a tile of the finest level, counting a visit at every level where the tile changes
+    // (or at all of them if a new visit starts).
+    private void enter(int x, int y, boolean newVisit) {
+        for (int level = maxLevel; level >= minLevel; level--) {
+            final int shift = maxLevel - level;
+            final long key = key(x >> shift, y >> shift);
+            if (newVisit || (key != key(tileX >> shift, tileY >> shift))) {
+                visits[level - minLevel].add(key, 1);
+            }
+        }
+        tileX = x;
+        tileY = y;
+    }
+
+    // Walks the tiles of the finest level crossed by the segment between two projected points, entering
+    // them in order. The segment goes around the antimeridian if that is shorter.
+    private void walk(double x0, double y0, double x1, double y1) {
+        final int tiles = 1 << maxLevel;
+        double dx = x1 - x0;
+        if (dx > tiles / 2.0) {
+            dx -= tiles;
+        } else if (dx < -tiles / 2.0) {
+            dx += tiles;
+        }
+        final double dy = y1 - y0;
+        // Columns are not wrapped until entered, so the walk goes straight across the antimeridian
+        int x = (int) Math.floor(x0);
+        int y = toTile(y0);
+        final int endX = (int) Math.floor(x0 + dx);
+        final int endY = toTile(y1);
+        final int steps = Math.abs(endX - x) + Math.abs(endY - y);
+        if ((steps == 0) || (steps > MAX_SEGMENT_TILES)) {
+            enter(wrap(endX, tiles), endY, false);
+            return;
+        }
+
+        // Distance along the segment (as a fraction of it) to the next column and row, and between columns and rows
+        final int stepX = (dx > 0) ? 1 : -1;
+        final int stepY = (dy > 0) ? 1 : -1;
+        final double deltaX = (dx != 0) ? 1 / Math.abs(dx) : Double.POSITIVE_INFINITY;
+        final double deltaY = (dy != 0) ? 1 / Math.abs(dy) : Double.POSITIVE_INFINITY;
+        double nextX = (dx != 0) ? ((stepX > 0) ? x + 1 - x0 : x0 - x) * deltaX : Double.POSITIVE_INFINITY;
+        double nextY = (dy != 0) ? ((stepY > 0) ? y + 1 - y0 : y0 - y) * deltaY : Double.POSITIVE_INFINITY;
+        for (int i = 0; i < steps; i++) {
+            // Rounding errors cannot take the walk beyond the tile where the segment ends
+            if ((x != endX) && ((y == endY) || (nextX < nextY))) {
+                x += stepX;
+                nextX += deltaX;
+            } else {
+                y += stepY;
+                nextY += deltaY;
+            }
+            enter(wrap(x, tiles), y, false);
+        }
+    }
+
+    // Adds the counters of another index with the same levels to those of this one.
+    // The previous point of this index is kept, so points added afterwards continue from it.
+    public void merge(TileIndex other) {
+        if ((other.minLevel != minLevel) || (other.maxLevel != maxLevel)) {
+            throw new IllegalArgumentException("Different levels: " + other.minLevel + ".." + other.maxLevel);
+        }
+        for (int i = 0; i < visits.length; i++) {
+            visits[i].addAll(other.visits[i]);
+        }
+        pointCount += other.pointCount;
+    }
+
+    // Builds the index of a track given by its coordinates and times, splitting it into chunks indexed in
+    // parallel by the executor and merged afterwards. Every chunk starts from the last point of the previous
+    // one, so visits are counted as if the track was indexed sequentially.
+    public static TileIndex build(final double[] latitudes, final double[] longitudes, final long[] times,
+                                  final int count, final int minLevel, final int maxLevel,
+                                  final long visitGapMillis, ExecutorService executor, int chunks)
+            throws InterruptedException {
+        chunks = Math.max(1, Math.min(chunks, count / MIN_CHUNK_POINTS));
+        List<Callable<TileIndex>> tasks = new ArrayList<>(chunks);
+        for (int i = 0; i < chunks; i++) {
+            final int from = (int) ((long) count * i / chunks);
+            final int to = (int) ((long) count * (i + 1) / chunks);
+            tasks.add(() -> {
+                TileIndex index = new TileIndex(minLevel, maxLevel, visitGapMillis);
+                // Invalid points are ignored, so the previous one is the last valid point before the chunk
+                for (int j = from - 1; j >= 0; j--) {
+                    if (isValid(latitudes[j], longitudes[j])) {
+                        index.seed(latitudes[j], longitudes[j], times[j]);
+                        break;
+                    }
+                }
+                for (int j = from; j < to; j++) {
+                    index.add(latitudes[j], longitudes[j], times[j]);
+                }
+                return index;
+            });
+        }
+        List<TileIndex> partials = new ArrayList<>(chunks);
+        for (Future<TileIndex> future : executor.invokeAll(tasks)) {
+            try {
+                partials.add(future.get());
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        final TileIndex index = mergeAll(partials, executor);
+        // Points added afterwards continue from the last point of the track
+        for (int j = count - 1; j >= 0; j--) {
+            if (isValid(latitudes[j], longitudes[j])) {
+                index.seed(latitudes[j], longitudes[j], times[j]);
+                break;
+            }
+        }
+        return index;
+    }
+
+    // Merges a list of indexes with the same levels into the first one, which is returned.
+    // Pairs of indexes are merged in parallel by the executor, halving the list at every round.
+    public static TileIndex mergeAll(final List<TileIndex> indexes, ExecutorService executor)
+            throws InterruptedException {
+        for (int step = 1; step < indexes.size(); step *= 2) {
+            List<Callable<Void>> tasks = new ArrayList<>();
+            for (int i = 0; i + step < indexes.size(); i += 2 * step) {
+                final TileIndex target = indexes.get(i);
+                final TileIndex source = indexes.get(i + step);
+                tasks.add(() -> {
+                    target.merge(source);
+                    return null;
+                });
+            }
+            for (Future<Void> future : executor.invokeAll(tasks)) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+        }
+        return indexes.get(0);
+    }
+
+    private static boolean isValid(double latitude, double longitude) {
+        return !Double.isNaN(latitude) && !Double.isNaN(longitude) && !Double.isInfinite(longitude);
+    }
+
+    // Returns the finest level of the index at which the viewport spans at most the given number of tiles,
+    // or the coarsest level if there is none. The viewport crosses the antimeridian if west > east.
+    public int levelFor(double south, double west, double north, double east, int maxTiles) {
+        for (int level = maxLevel; level > minLevel; level--) {
+            final long width = countX(tileX(west, level), tileX(east, level), level);
+            final long height = tileY(south, level) - tileY(north, level) + 1;
+            if (width * height <= maxTiles) {
+                return level;
+            }
+        }
+        return minLevel;
+    }
+
+    // Finds the tiles of the given level visited within the viewport, and adds them to the result, so
+    // several indexes can be queried into the same one. Returns the number of tiles in the result.
+    // The viewport crosses the antimeridian if west > east. The result can be reused for every query,
+    // clearing it before, and it cannot hold tiles of other levels.
+    public int query(double south, double west, double north, double east, int level, Tiles result) {
+        checkLevel(level);
+        if ((result.size > 0) && (result.level != level)) {
+            throw new IllegalArgumentException("Result holds tiles of level " + result.level);
+        }
+        result.level = level;
+        final int x0 = tileX(west, level);
+        final int x1 = tileX(east, level);
+        final int y0 = tileY(north, level);
+        final int y1 = tileY(south, level);
+        if (x0 <= x1) {
+            query(x0, x1, y0, y1, level, result);
+        } else {
+            query(x0, (1 << level) - 1, y0, y1, level, result);
+            query(0, x1, y0, y1, level, result);
+        }
+        return result.size;
+    }
+
+    // Finds the tiles visited within a range of tiles (all the bounds included).
+    private void query(final int x0, final int x1, final int y0, final int y1, int level, final Tiles result) {
+        final LongCountMap levelVisits = visits[level - minLevel];
+        // Look up every tile of small ranges, but scan the tiles visited if there are fewer of them
+        if ((long) (x1 - x0 + 1) * (y1 - y0 + 1) <= levelVisits.size()) {
+            for (int x = x0; x <= x1; x++) {
+                for (int y = y0; y <= y1; y++) {
+                    final long count = levelVisits.get(key(x, y));
+                    if (count > 0) {
+                        result.add(x, y, count);
+                    }
+                }
+            }
+        } else {
+            levelVisits.forEach((key, count) -> {
+                final int x = (int) (key >>> 32);
+                final int y = (int) key;
+                if ((x >= x0) && (x <= x1) && (y >= y0) && (y <= y1)) {
+                    result.add(x, y, count);
+                }
+            });
+        }
+    }
+
+    private int checkLevel(int level) {
+        if ((level < minLevel) || (level > maxLevel)) {
+            throw new IllegalArgumentException("Level out of the index: " + level);
+        }
+        return level;
+    }
+
+    // Number of columns between x0 and x1 (both included), wrapping around the antimeridian if x0 > x1.
+    private static long countX(int x0, int x1, int level) {
+        return (x0 <= x1) ? x1 - x0 + 1 : (1L << level) - x0 + x1 + 1;
+    }
+
+    private static long key(int x, int y) {
+        return ((long) x << 32) | y;
+    }
+
+    // Returns the projected coordinate of the longitude, in tiles of the given level (0 at 180°W).
+    private static double projectX(double longitude, int level) {
+        return (longitude + 180) / 360 * (1 << level);
+    }
+
+    // Returns the projected coordinate of the latitude, in tiles of the given level (0 at the north edge).
+    private static double projectY(double latitude, int level) {
+        final double sin = Math.sin(Math.toRadians(Math.min(Math.max(latitude, -MAX_LATITUDE), MAX_LATITUDE)));
+        return (0.5 - Math.log((1 + sin) / (1 - sin)) / (4 * Math.PI)) * (1 << level);
+    }
+
+    // Returns the tile of the finest level containing a projected coordinate.
+    private int toTile(double coordinate) {
+        return Math.min(Math.max((int) Math.floor(coordinate), 0), (1 << maxLevel) - 1);
+    }
+
+    // Returns the column within the world of a column counted beyond the antimeridian.
+    private static int wrap(int x, int tiles) {
+        return ((x % tiles) + tiles) % tiles;
+    }
+
+    // Returns the column of the tile containing the longitude at the given level.
+    public static int tileX(double longitude, int level) {
+        final int x = (int) Math.floor(projectX(longitude, level));
+        return Math.min(Math.max(x, 0), (1 << level) - 1);
+    }
+
+    // Returns the row of the tile containing the latitude at the given level (row 0 is the northernmost one).
+    public static int tileY(double latitude, int level) {
+        final int y = (int) Math.floor(projectY(latitude, level));
+        return Math.min(Math.max(y, 0), (1 << level) - 1);
+    }
+
+    // Returns the longitude of the western edge of the column at the given level.
+    public static double tileLongitude(int x, int level) {
+        return (double) x / (1 << level) * 360 - 180;
+    }
+
+    // Returns the latitude of the northern edge of the row at the given level.
+    public static double tileLatitude(int y, int level) {
+        final double n = Math.PI * (1 - 2.0 * y / (1 << level));
+        return Math.toDegrees(Math.atan(0.5 * (Math.exp(n) - Math.exp(-n))));
+    }
+
+    // Returns the quadkey identifying the tile, with one digit per level.
+    public static String toQuadkey(int x, int y, int level) {
+        final char[] digits = new char[level];
+        for (int i = level; i > 0; i--) {
+            final int mask = 1 << (i - 1);
+            digits[level - i] = (char) ('0' + (((x & mask) != 0) ? 1 : 0) + (((y & mask) != 0) ? 2 : 0));
+        }
+        return new String(digits);
+    }
+
+    @Override
+    public String toString() {
+        return "points=" + pointCount + " tiles[" + minLevel + "]=" + visits[0].size() +
+                " tiles[" + maxLevel + "]=" + visits[visits.length - 1].size();
+    }
+
+    // Tiles found by queries, with their coordinates and visits in parallel arrays (the first size entries).
+    // The visits of a tile found by several queries are added up. The arrays grow as needed and are reused
+    // after clearing the result.
+    public static final class Tiles {
+
+        // Level of the tiles, and number of tiles found
+        public int level;
+        public int size;
+        // Column and row of every tile, and its visits
+        public int[] x = new int[64];
+        public int[] y = new int[64];
+        public long[] visits = new long[64];
+        // Position of every tile in the arrays, plus one
+        private final LongCountMap positions = new LongCountMap();
+
+        void add(int x, int y, long visits) {
+            final long key = key(x, y);
+            final int position = (int) positions.get(key) - 1;
+            if (position >= 0) {
+                this.visits[position] += visits;
+                return;
+            }
+            if (size == this.x.length) {
+                final int capacity = size * 2;
+                this.x = Arrays.copyOf(this.x, capacity);
+                this.y = Arrays.copyOf(this.y, capacity);
+                this.visits = Arrays.copyOf(this.visits, capacity);
+            }
+            this.x[size] = x;
+            this.y[size] = y;
+            this.visits[size] = visits;
+            size++;
+            positions.add(key, size);
+        }
+
+        public void clear() {
+            size = 0;
+            positions.clear();
+        }
+
+        // Returns the highest number of visits of the tiles found (0 if none), to scale the overlay.
+        public long getMaxVisits() {
+            long max = 0;
+            for (int i = 0; i < size; i++) {
+                max = Math.max(max, visits[i]);
+            }
+            return max;
+        }
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+// Keeps the tracks followed by the device: records the accepted fixes of every session into a track file,
+// simplified as they arrive, and counts the visits to every tile of the map in a heatmap, both of the fixes
+// accepted since it was created and of the tracks recorded before. Every track is summarized in background
+// once finished, and a compact copy of it is exported for sharing. Except for loadHistory() and toString(), it is used on the track thread of the TrackingService.
+public class TrackArchive {
+
+    // Maximum distance from a discarded fix to the recorded path (in meters)
+    private static final double TRACK_TOLERANCE_METERS = 5;
+    // Levels of the heatmap of the fixes, from whole regions down to blocks (about 150m wide at the equator)
+    private static final int HEATMAP_MIN_LEVEL = 4;
+    private static final int HEATMAP_MAX_LEVEL = 18;
+    // Time after which coming back to the same tile of the heatmap is a new visit (in milliseconds)
+    private static final long HEATMAP_VISIT_GAP_MILLIS = 30 * 60 * 1000;
+    // Subdirectory where the compact copies of the finished tracks are exported, and maximum distance
+    // from a discarded point to their path (in meters)
+    private static final String EXPORT_DIRECTORY = "export";
+    private static final double EXPORT_TOLERANCE_METERS = 20;
+    // Maximum time waited for a finished track to be completed on disk (in seconds)
+    private static final long FINISH_TIMEOUT_SECONDS = 30;
+
+    // Directory where the tracks are recorded
+    private final File directory;
+
+    // Records the accepted fixes of the current session into its file (null if not recording)
+    private TrackRecorder trackRecorder = null;
+    private File trackFile = null;
+    // Name, summary and points exported of the latest track finished, once computed
+    private volatile String lastTrack = null;
+    // Discards the accepted fixes not needed to reproduce the path before recording them
+    private final TrackSimplifier trackSimplifier = new TrackSimplifier(TRACK_TOLERANCE_METERS, this::recordFix);
+
+    // Visits to every tile of the map of the fixes accepted since the archive was created, and of the tracks
+    // recorded before (null until loaded, and never modified afterwards)
+    private final TileIndex heatmap = createHeatmap();
+    private volatile TileIndex heatmapHistory = null;
+
+    // directory Directory where the tracks are recorded (created when the first one is recorded).
+    public TrackArchive(File directory) {
+        this.directory = directory;
+    }
+
+    // Opens a track recorded before (by name, without extension) to be replayed.
+    public TrackReader openTrack(String name) throws IOException {
+        return new TrackReader(new File(directory, name + ".trk"));
+    }
+
+    // Starts recording the fixes into a new track, unless already recording.
+    public void startRecording() {
+        if (trackRecorder != null) {
+            return;
+        }
+        String name = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date()) + ".trk";
+        try {
+            if (directory.isDirectory() || directory.mkdirs()) {
+                trackFile = new File(directory, name);
+                trackRecorder = new TrackRecorder(trackFile);
+                trackSimplifier.reset();
+                scheduleTrackFlush(trackRecorder);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Stops recording the fixes, completing, summarizing and exporting the track in background.
+    public void stopRecording() {
+        if (trackRecorder != null) {
+            // Record the last fix, pending in the simplifier
+            trackSimplifier.flush();
+            try {
+                trackRecorder.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            finishTrack(trackRecorder, trackFile);
+            trackRecorder = null;
+            trackFile = null;
+        }
+    }
+
+    // Adds a fix accepted by the pipeline to the heatmap and, if recording, to the track.
+    public void add(Fix fix) {
+        heatmap.add(fix.latitude, fix.longitude, fix.timeMillis);
+        if (trackRecorder != null) {
+            trackSimplifier.add(fix);
+        }
+    }
+
+    // Finds the tiles of the heatmap within the viewport, at the finest level where it spans at most maxTiles
+    // tiles, so the overlay keeps the same density at any zoom. The viewport crosses the antimeridian if
+    // west > east. The tracks recorded before are included once loaded.
+    public TileIndex.Tiles queryHeatmap(double south, double west, double north, double east, int maxTiles) {
+        final TileIndex.Tiles tiles = new TileIndex.Tiles();
+        final int level = heatmap.levelFor(south, west, north, east, maxTiles);
+        heatmap.query(south, west, north, east, level, tiles);
+        final TileIndex history = heatmapHistory;
+        if (history != null) {
+            history.query(south, west, north, east, level, tiles);
+        }
+        return tiles;
+    }
+
+    // Builds the heatmap of the tracks recorded before the given time (called from a background thread).
+    // Corrupted tracks contribute the points read before the first corrupted record.
+    // Every track is indexed by a different task, and their heatmaps are then merged in pairs,
+    // so large histories use all the cores. It is kept apart from the heatmap of the fixes accepted since
+    // then, so the track thread does not stop to merge it.
+    public void loadHistory(final long beforeMillis) {
+        File[] tracks = directory.listFiles(
+                file -> file.getName().endsWith(".trk") && (file.lastModified() < beforeMillis));
+        if ((tracks == null) || (tracks.length == 0)) {
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(tracks.length, Runtime.getRuntime().availableProcessors()));
+        try {
+            List<Callable<TileIndex>> tasks = new ArrayList<>(tracks.length);
+            for (final File track : tracks) {
+                tasks.add(() -> {
+                    TileIndex index = createHeatmap();
+                    try (TrackReader reader = new TrackReader(track)) {
+                        index.addAll(reader);
+                    } catch (StreamCorruptedException e) {
+                        // The track cannot be read beyond the damage, but the points before it are kept
+                        e.printStackTrace();
+                    }
+                    return index;
+                });
+            }
+            List<TileIndex> partials = new ArrayList<>(tracks.length);
+            for (Future<TileIndex> future : executor.invokeAll(tasks)) {
+                try {
+                    partials.add(future.get());
+                } catch (ExecutionException e) {
+                    // Tracks that cannot be opened or read are left out of the heatmap
+                    e.getCause().printStackTrace();
+                }
+            }
+            if (partials.isEmpty()) {
+                return;
+            }
+            heatmapHistory = TileIndex.mergeAll(partials, executor);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    // Returns the size of the heatmaps, that may be being updated on the track thread.
+    @Override
+    public String toString() {
+        return "heatmap=" + heatmap + " history=" + heatmapHistory + " last=" + lastTrack;
+    }
+
+    // Summarizes a finished track on a background thread once its file is complete, and exports a copy
+    // simplified by Douglas-Peucker, using all the cores for long tracks, so the track thread does not wait
+    // for the file to be written and read again. The copy keeps the name of the track.
+    private void finishTrack(final TrackRecorder recorder, final File track) {
+        new Thread(() -> {
+            final int cores = Runtime.getRuntime().availableProcessors();
+            ExecutorService executor = Executors.newFixedThreadPool(cores);
+            try {
+                if (!recorder.awaitClosed(FINISH_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    return;
+                }
+                TrackMath.Summary summary = TrackMath.summarizeTrack(track, executor, cores);
+                File export = new File(directory, EXPORT_DIRECTORY);
+                int exported = -1;
+                if (export.isDirectory() || export.mkdirs()) {
+                    exported = DouglasPeucker.simplifyTrack(track, new File(export, track.getName()),
+                            EXPORT_TOLERANCE_METERS, executor, cores);
+                }
+                lastTrack = track.getName() + " " + summary + " exported=" + exported;
+            } catch (IOException e) {
+                e.printStackTrace();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                executor.shutdown();
+            }
+        }, "track-finisher").start();
+    }
+
+    private static TileIndex createHeatmap() {
+        return new TileIndex(HEATMAP_MIN_LEVEL, HEATMAP_MAX_LEVEL, HEATMAP_VISIT_GAP_MILLIS);
+    }
+
+    // Flushes the track to disk periodically on the current thread until the recorder is closed, so a crash
+    // or the process being killed only loses the latest points. The recorder is thread safe, so the flushes
+    // can go on even if the track moves to another thread.
+    private static void scheduleTrackFlush(final TrackRecorder recorder) {
+        final Handler handler = new Handler(Looper.myLooper());
+        handler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                if (recorder.flush()) {
+                    handler.postDelayed(this, TrackRecorder.SYNC_INTERVAL_MILLIS);
+                }
+            }
+        }, TrackRecorder.SYNC_INTERVAL_MILLIS);
+    }
+
+    // Appends a fix kept by the simplifier to the track being recorded.
+    // Recording stops if the track cannot be written, but tracking goes on.
+    private void recordFix(Fix fix) {
+        if (trackRecorder != null) {
+            try {
+                trackRecorder.append(fix.latitude, fix.longitude, fix.timeMillis, fix.accuracy);
+            } catch (IOException e) {
+                e.printStackTrace();
+                stopRecording();
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+
+// Compact binary format of the tracks written by TrackRecorder and read by TrackReader.
+//
+// A track file starts with the 4 bytes magic "TRK1", followed by a sequence of points.
+// Each point is made of 4 variable-length integers (7 bits per byte, least significant first):
+// - time:      (delta << 1) for a point relative to the previous one, or (absolute << 1) | 1 for a keyframe.
+// - latitude:  zigzag encoded delta (or absolute value for keyframes), in 1e-7 degrees.
+// - longitude: zigzag encoded delta (or absolute value for keyframes), in 1e-7 degrees.
+// - accuracy:  absolute value in decimeters plus one, or 0 if not known.
+// Times are in milliseconds since epoch. Keyframes are written periodically and whenever the time
+// goes backwards. A file truncated by a crash only loses its incomplete last point, but there are no
+// markers to resynchronize with, so a corrupted file cannot be read beyond the damage.
+final class TrackFormat {
+
+    // Magic number at the beginning of every track file
+    static final byte[] MAGIC = {'T', 'R', 'K', '1'};
+
+    // Units of the coordinates (degrees per unit)
+    static final double COORDINATE_SCALE = 1e7;
+    // Units of the accuracy (meters per unit)
+    static final float ACCURACY_SCALE = 10f;
+
+    // Maximum number of bytes of an encoded point
+    static final int MAX_POINT_BYTES = 10 + 5 + 5 + 5;
+
+    private TrackFormat() {
+    }
+
+    // Converts a coordinate into fixed point units.
+    static int toFixed(double degrees) {
+        return (int) Math.round(degrees * COORDINATE_SCALE);
+    }
+
+    // Converts an accuracy into its encoded value.
+    static int encodeAccuracy(float accuracy) {
+        return (accuracy < 0) ? 0 : Math.round(accuracy * ACCURACY_SCALE) + 1;
+    }
+
+    // Converts an encoded accuracy into meters (negative if not known).
+    static float decodeAccuracy(int value) {
+        return (value == 0) ? -1 : (value - 1) / ACCURACY_SCALE;
+    }
+
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    // Writes a non-negative variable-length integer.
+    static void putVarLong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    // Reads a variable-length integer.
+    // Returns -1 if the buffer ends before the integer does, leaving its position unchanged.
+    // Throws StreamCorruptedException if the integer is longer than 64 bits.
+    static long getVarLong(ByteBuffer buffer) throws StreamCorruptedException {
+        int start = buffer.position();
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (!buffer.hasRemaining()) {
+                buffer.position(start);
+                return -1;
+            }
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new StreamCorruptedException("Malformed variable-length integer");
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import java.util.Random;
+
+// Endless synthetic track following a random heading at a given speed, with noisy positions
+// and occasional outliers, as reported by a real location provider.
+// Tracks are generated from a seed, so the same seed always produces the same fixes.
+public class TrackGenerator implements FixSequence {
+
+    // Names of the predefined tracks
+    public static final String WALK = "walk";
+    public static final String DRIVE = "drive";
+
+    // Time of the first fix (in milliseconds since epoch)
+    private static final long START_TIME_MILLIS = 1500000000000L;
+
+    private final Random random;
+    // Time between fixes (in milliseconds)
+    private final long intervalMillis;
+    // Average speed (in m/s)
+    private final double speed;
+    // Standard deviation of the change of heading between fixes (in radians)
+    private final double turn;
+    // Range of reported accuracies (in meters)
+    private final float minAccuracy;
+    private final float maxAccuracy;
+    // Fraction of fixes with a large position error
+    private final double outliers;
+
+    // Actual position of the device, before adding the error of the provider
+    private double latitude = 39.4699;
+    private double longitude = -0.3763;
+    private double heading = 0;
+    private long timeMillis = START_TIME_MILLIS;
+
+    public TrackGenerator(long seed, long intervalMillis, double speed, double turn,
+                          float minAccuracy, float maxAccuracy, double outliers) {
+        this.random = new Random(seed);
+        this.intervalMillis = intervalMillis;
+        this.speed = speed;
+        this.turn = turn;
+        this.minAccuracy = minAccuracy;
+        this.maxAccuracy = maxAccuracy;
+        this.outliers = outliers;
+    }
+
+    // Pedestrian: 1 fix per second at about 1.4 m/s, with noisy GPS accuracy.
+    public static TrackGenerator walk(long seed) {
+        return new TrackGenerator(seed, 1000, 1.4, 0.3, 5, 25, 0.05);
+    }
+
+    // Highway: 1 fix per second at about 30 m/s, with few changes of heading.
+    public static TrackGenerator drive(long seed) {
+        return new TrackGenerator(seed, 1000, 30, 0.02, 3, 10, 0.01);
+    }
+
+    // Returns the predefined track with the given name, or null if there is none.
+    public static TrackGenerator get(String name, long seed) {
+        if (WALK.equals(name)) {
+            return walk(seed);
+        }
+        if (DRIVE.equals(name)) {
+            return drive(seed);
+        }
+        return null;
+    }
+
+    // Generates the next fix. There is always a next fix.
+    @Override
+    public boolean next(Fix fix) {
+        // Move the device
+        heading += random.nextGaussian() * turn;
+        double meters = speed * intervalMillis / 1000 * (0.8 + 0.4 * random.nextDouble());
+        latitude += Math.cos(heading) * meters / GeocodeCache.METERS_PER_DEGREE;
+        longitude += Math.sin(heading) * meters /
+                (GeocodeCache.METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude)));
+        timeMillis += intervalMillis;
+
+        // Add the error of the provider, within its reported accuracy except for outliers
+        float accuracy = minAccuracy + random.nextFloat() * (maxAccuracy - minAccuracy);
+        double error = accuracy / GeocodeCache.METERS_PER_DEGREE;
+        if (random.nextDouble() < outliers) {
+            error *= 20;
+        }
+        fix.set(latitude + random.nextGaussian() * error,
+                longitude + random.nextGaussian() * error,
+                accuracy,
+                (float) (meters * 1000 / intervalMillis),
+                timeMillis,
+                (timeMillis - START_TIME_MILLIS) * 1000000L);
+        return true;
+    }
+
+    @Override
+    public void close() {
+    }
+}
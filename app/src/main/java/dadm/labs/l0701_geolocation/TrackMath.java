@@ -0,0 +1,293 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+// Distance, bearing, speed and elevation computations on tracks held in primitive arrays
+// (struct of arrays), so long tracks are processed without creating an object per point.
+// Distances use an equirectangular projection for points close to each other, which is as precise
+// as the haversine formula at that scale and much cheaper, and the haversine formula otherwise.
+// Summaries of very long tracks can be computed in parallel, in chunks whose results are merged.
+public final class TrackMath {
+
+    // Mean radius of the Earth (in meters)
+    public static final double EARTH_RADIUS_METERS = 6371008.8;
+    // Maximum separation (in degrees of latitude and longitude) for the equirectangular projection,
+    // whose error is below 1 mm per km up to that distance (about 10 km)
+    private static final double EQUIRECTANGULAR_MAX_DEGREES = 0.1;
+    // Changes of altitude smaller than this are considered noise when accumulating elevation (in meters)
+    public static final double ELEVATION_THRESHOLD_METERS = 3;
+    // Minimum number of points processed by each parallel task
+    private static final int MIN_CHUNK_POINTS = 16 * 1024;
+
+    // Summary of a track, or of a part of it.
+    public static final class Summary {
+        // Length of the track (in meters)
+        public final double distanceMeters;
+        // Time between the first and the last point (in milliseconds)
+        public final long durationMillis;
+        // Accumulated ascent and descent, ignoring changes below ELEVATION_THRESHOLD_METERS (in meters)
+        public final double elevationGainMeters;
+        public final double elevationLossMeters;
+        // Highest speed between two consecutive points (in m/s)
+        public final double maxSpeed;
+
+        Summary(double distanceMeters, long durationMillis, double elevationGainMeters,
+                double elevationLossMeters, double maxSpeed) {
+            this.distanceMeters = distanceMeters;
+            this.durationMillis = durationMillis;
+            this.elevationGainMeters = elevationGainMeters;
+            this.elevationLossMeters = elevationLossMeters;
+            this.maxSpeed = maxSpeed;
+        }
+
+        // Returns the average speed over the whole track (in m/s), or 0 if it has no duration.
+        public double getAverageSpeed() {
+            return (durationMillis > 0) ? distanceMeters * 1000 / durationMillis : 0;
+        }
+
+        // Combines the summary with that of the part of the track that follows it.
+        Summary merge(Summary next) {
+            return new Summary(distanceMeters + next.distanceMeters, durationMillis + next.durationMillis,
+                    elevationGainMeters + next.elevationGainMeters, elevationLossMeters + next.elevationLossMeters,
+                    Math.max(maxSpeed, next.maxSpeed));
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "Summary{distance=%.1fm duration=%ds gain=%.1fm loss=%.1fm avgSpeed=%.2fm/s maxSpeed=%.2fm/s}",
+                    distanceMeters, durationMillis / 1000, elevationGainMeters, elevationLossMeters,
+                    getAverageSpeed(), maxSpeed);
+        }
+    }
+
+    private TrackMath() {
+    }
+
+    // Returns the distance between two points (in meters).
+    public static double distance(double latitude1, double longitude1, double latitude2, double longitude2) {
+        double dLatitude = latitude2 - latitude1;
+        double dLongitude = wrapLongitude(longitude2 - longitude1);
+        if ((Math.abs(dLatitude) < EQUIRECTANGULAR_MAX_DEGREES) && (Math.abs(dLongitude) < EQUIRECTANGULAR_MAX_DEGREES)) {
+            double x = dLongitude * Math.cos(Math.toRadians((latitude1 + latitude2) / 2));
+            return Math.toRadians(Math.sqrt(x * x + dLatitude * dLatitude)) * EARTH_RADIUS_METERS;
+        }
+        return haversine(latitude1, longitude1, latitude2, longitude2);
+    }
+
+    // Returns the great circle distance between two points (in meters).
+    static double haversine(double latitude1, double longitude1, double latitude2, double longitude2) {
+        double sinLatitude = Math.sin(Math.toRadians(latitude2 - latitude1) / 2);
+        double sinLongitude = Math.sin(Math.toRadians(longitude2 - longitude1) / 2);
+        double a = sinLatitude * sinLatitude +
+                Math.cos(Math.toRadians(latitude1)) * Math.cos(Math.toRadians(latitude2)) * sinLongitude * sinLongitude;
+        return 2 * EARTH_RADIUS_METERS * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    // Returns the initial bearing from the first point to the second one (in degrees clockwise from north,
+    // from 0 to 360), or NaN if both points are the same.
+    public static double bearing(double latitude1, double longitude1, double latitude2, double longitude2) {
+        double dLatitude = latitude2 - latitude1;
+        double dLongitude = wrapLongitude(longitude2 - longitude1);
+        if ((dLatitude == 0) && (dLongitude == 0)) {
+            return Double.NaN;
+        }
+        double angle;
+        if ((Math.abs(dLatitude) < EQUIRECTANGULAR_MAX_DEGREES) && (Math.abs(dLongitude) < EQUIRECTANGULAR_MAX_DEGREES)) {
+            angle = Math.atan2(dLongitude * Math.cos(Math.toRadians((latitude1 + latitude2) / 2)), dLatitude);
+        } else {
+            double phi1 = Math.toRadians(latitude1);
+            double phi2 = Math.toRadians(latitude2);
+            double lambda = Math.toRadians(dLongitude);
+            angle = Math.atan2(Math.sin(lambda) * Math.cos(phi2),
+                    Math.cos(phi1) * Math.sin(phi2) - Math.sin(phi1) * Math.cos(phi2) * Math.cos(lambda));
+        }
+        double degrees = Math.toDegrees(angle);
+        return (degrees < 0) ? degrees + 360 : degrees;
+    }
+
+    // Stores into distances the distance from the first point to every point along the track (in meters).
+    // Returns the length of the whole track.
+    public static double cumulativeDistances(double[] latitudes, double[] longitudes, int count, double[] distances) {
+        if (count == 0) {
+            return 0;
+        }
+        double total = 0;
+        distances[0] = 0;
+        double previousCos = Math.cos(Math.toRadians(latitudes[0]));
+        for (int i = 1; i < count; i++) {
+            double cos = Math.cos(Math.toRadians(latitudes[i]));
+            total += segment(latitudes, longitudes, i, previousCos, cos);
+            distances[i] = total;
+            previousCos = cos;
+        }
+        return total;
+    }
+
+    // Stores into bearings the bearing of the segment reaching every point (in degrees, NaN for the first point
+    // and for points at the same position as the previous one).
+    public static void bearings(double[] latitudes, double[] longitudes, int count, float[] bearings) {
+        if (count > 0) {
+            bearings[0] = Float.NaN;
+        }
+        for (int i = 1; i < count; i++) {
+            bearings[i] = (float) bearing(latitudes[i - 1], longitudes[i - 1], latitudes[i], longitudes[i]);
+        }
+    }
+
+    // Stores into speeds the average speed along the segment reaching every point (in m/s), computed from
+    // the cumulative distances and the times of the points (NaN for the first point and when time does not advance).
+    public static void speeds(double[] distances, long[] times, int count, float[] speeds) {
+        if (count > 0) {
+            speeds[0] = Float.NaN;
+        }
+        for (int i = 1; i < count; i++) {
+            long interval = times[i] - times[i - 1];
+            speeds[i] = (interval > 0) ? (float) ((distances[i] - distances[i - 1]) * 1000 / interval) : Float.NaN;
+        }
+    }
+
+    // Summarizes the first count points of a track.
+    // altitudes Altitudes of the points (in meters, NaN if not known), or null if none is known.
+    public static Summary summarize(double[] latitudes, double[] longitudes, double[] altitudes, long[] times, int count) {
+        return (count == 0) ? new Summary(0, 0, 0, 0, 0) :
+                summarize(latitudes, longitudes, altitudes, times, 0, count - 1);
+    }
+
+    // Summarizes the first count points of a track, splitting it into chunks processed by the executor.
+    // Only the elevation may differ slightly from the sequential summary, as the noise threshold starts
+    // again at every chunk.
+    public static Summary summarizeParallel(final double[] latitudes, final double[] longitudes,
+                                           final double[] altitudes, final long[] times, int count,
+                                           ExecutorService executor, int chunks) throws InterruptedException {
+        chunks = Math.max(1, Math.min(chunks, count / MIN_CHUNK_POINTS));
+        if (chunks == 1) {
+            return summarize(latitudes, longitudes, altitudes, times, count);
+        }
+
+        // Consecutive chunks share their boundary point, so no segment is lost
+        List<Callable<Summary>> tasks = new ArrayList<>(chunks);
+        for (int i = 0; i < chunks; i++) {
+            final int from = (int) ((long) (count - 1) * i / chunks);
+            final int to = (int) ((long) (count - 1) * (i + 1) / chunks);
+            tasks.add(() -> summarize(latitudes, longitudes, altitudes, times, from, to));
+        }
+        Summary summary = null;
+        for (Future<Summary> future : executor.invokeAll(tasks)) {
+            try {
+                summary = (summary == null) ? future.get() : summary.merge(future.get());
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        return summary;
+    }
+
+    // Summarizes a recorded track, in parallel if long enough. Recorded tracks do not keep the altitude.
+    public static Summary summarizeTrack(File track, ExecutorService executor, int chunks)
+            throws IOException, InterruptedException {
+        double[] latitudes = new double[1024];
+        double[] longitudes = new double[1024];
+        long[] times = new long[1024];
+        int count = 0;
+        try (TrackReader reader = new TrackReader(track)) {
+            while (reader.next()) {
+                if (count == latitudes.length) {
+                    int capacity = count * 2;
+                    latitudes = Arrays.copyOf(latitudes, capacity);
+                    longitudes = Arrays.copyOf(longitudes, capacity);
+                    times = Arrays.copyOf(times, capacity);
+                }
+                latitudes[count] = reader.getLatitude();
+                longitudes[count] = reader.getLongitude();
+                times[count] = reader.getTimeMillis();
+                count++;
+            }
+        }
+        return summarizeParallel(latitudes, longitudes, null, times, count, executor, chunks);
+    }
+
+    // Summarizes the points between from and to (both included).
+    private static Summary summarize(double[] latitudes, double[] longitudes, double[] altitudes, long[] times,
+                                     int from, int to) {
+        double distance = 0;
+        double maxSpeed = 0;
+        double previousCos = Math.cos(Math.toRadians(latitudes[from]));
+        for (int i = from + 1; i <= to; i++) {
+            double cos = Math.cos(Math.toRadians(latitudes[i]));
+            double segment = segment(latitudes, longitudes, i, previousCos, cos);
+            distance += segment;
+            long interval = times[i] - times[i - 1];
+            if ((interval > 0) && (segment * 1000 > maxSpeed * interval)) {
+                maxSpeed = segment * 1000 / interval;
+            }
+            previousCos = cos;
+        }
+
+        // Accumulate only the changes of altitude beyond the noise threshold
+        double gain = 0;
+        double loss = 0;
+        if (altitudes != null) {
+            double reference = Double.NaN;
+            for (int i = from; i <= to; i++) {
+                double altitude = altitudes[i];
+                if (Double.isNaN(altitude)) {
+                    continue;
+                }
+                if (Double.isNaN(reference)) {
+                    reference = altitude;
+                } else if (altitude - reference >= ELEVATION_THRESHOLD_METERS) {
+                    gain += altitude - reference;
+                    reference = altitude;
+                } else if (reference - altitude >= ELEVATION_THRESHOLD_METERS) {
+                    loss += reference - altitude;
+                    reference = altitude;
+                }
+            }
+        }
+        return new Summary(distance, times[to] - times[from], gain, loss, maxSpeed);
+    }
+
+    // Returns the length of the segment reaching the given point (in meters).
+    private static double segment(double[] latitudes, double[] longitudes, int i, double previousCos, double cos) {
+        return segment(latitudes[i - 1], longitudes[i - 1], previousCos, latitudes[i], longitudes[i], cos);
+    }
+
+    // Returns the distance between two points (in meters), as distance() does. The cosines of the latitudes
+    // of both points are provided, so each one is computed only once along a track.
+    static double segment(double latitude1, double longitude1, double cos1,
+                          double latitude2, double longitude2, double cos2) {
+        double dLatitude = latitude2 - latitude1;
+        double dLongitude = wrapLongitude(longitude2 - longitude1);
+        if ((Math.abs(dLatitude) < EQUIRECTANGULAR_MAX_DEGREES) && (Math.abs(dLongitude) < EQUIRECTANGULAR_MAX_DEGREES)) {
+            // The mean of the cosines is as good as the cosine of the mean latitude for close points
+            double x = dLongitude * (cos1 + cos2) * 0.5;
+            return Math.sqrt(x * x + dLatitude * dLatitude) * (Math.PI / 180 * EARTH_RADIUS_METERS);
+        }
+        return haversine(latitude1, longitude1, latitude2, longitude2);
+    }
+
+    // Brings a difference of longitudes into the range [-180, 180], so segments may cross the antimeridian.
+    private static double wrapLongitude(double dLongitude) {
+        if (dLongitude > 180) {
+            return dLongitude - 360;
+        }
+        if (dLongitude < -180) {
+            return dLongitude + 360;
+        }
+        return dLongitude;
+    }
+}
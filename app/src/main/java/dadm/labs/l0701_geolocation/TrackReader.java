@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+// Streaming reader of the tracks written by TrackRecorder.
+// The file is read through a fixed-size buffer, so tracks of any length can be iterated
+// without loading them into memory. The reader works as a cursor: every call to next()
+// decodes the following point, whose values are then available through the getters.
+// A truncated point at the end of the file (e.g. after a crash) is silently ignored, while malformed
+// points throw a StreamCorruptedException (an IOException), so callers can skip the rest of the file.
+public class TrackReader implements FixSequence {
+
+    // Size of the read buffer (in bytes)
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    // States whether the end of the file has been reached
+    private boolean endOfFile = false;
+
+    // Values of the current point (coordinates in fixed point)
+    private long timeMillis;
+    private int latitude;
+    private int longitude;
+    private int accuracy;
+    // States whether a keyframe has already been read, so deltas can be decoded
+    private boolean hasKeyframe = false;
+
+    public TrackReader(File file) throws IOException {
+        channel = new RandomAccessFile(file, "r").getChannel();
+        buffer.limit(0);
+        fill();
+        for (byte b : TrackFormat.MAGIC) {
+            if (!buffer.hasRemaining() || (buffer.get() != b)) {
+                channel.close();
+                throw new IOException("Not a track file: " + file);
+            }
+        }
+    }
+
+    // Decodes the next point of the track.
+    // Returns false if there are no more points.
+    public boolean next() throws IOException {
+        // Make sure a whole point is in the buffer, unless the file ends before
+        if ((buffer.remaining() < TrackFormat.MAX_POINT_BYTES) && !endOfFile) {
+            fill();
+        }
+        int start = buffer.position();
+        long time = TrackFormat.getVarLong(buffer);
+        long dLatitude = TrackFormat.getVarLong(buffer);
+        long dLongitude = TrackFormat.getVarLong(buffer);
+        long encodedAccuracy = TrackFormat.getVarLong(buffer);
+        if ((time < 0) || (dLatitude < 0) || (dLongitude < 0) || (encodedAccuracy < 0)) {
+            // Truncated point at the end of the file
+            buffer.position(start);
+            return false;
+        }
+
+        if ((time & 1) != 0) {
+            timeMillis = time >>> 1;
+            latitude = (int) TrackFormat.unzigzag(dLatitude);
+            longitude = (int) TrackFormat.unzigzag(dLongitude);
+            hasKeyframe = true;
+        } else if (hasKeyframe) {
+            timeMillis += time >>> 1;
+            latitude += (int) TrackFormat.unzigzag(dLatitude);
+            longitude += (int) TrackFormat.unzigzag(dLongitude);
+        } else {
+            throw new StreamCorruptedException("Track does not start with a keyframe");
+        }
+        accuracy = (int) encodedAccuracy;
+        return true;
+    }
+
+    // Decodes the next point of the track into a fix.
+    // Returns false if there are no more points.
+    @Override
+    public boolean next(Fix fix) throws IOException {
+        if (!next()) {
+            return false;
+        }
+        getFix(fix);
+        return true;
+    }
+
+    public double getLatitude() {
+        return latitude / TrackFormat.COORDINATE_SCALE;
+    }
+
+    public double getLongitude() {
+        return longitude / TrackFormat.COORDINATE_SCALE;
+    }
+
+    public long getTimeMillis() {
+        return timeMillis;
+    }
+
+    // Returns the accuracy of the current point (in meters), or negative if not known.
+    public float getAccuracy() {
+        return TrackFormat.decodeAccuracy(accuracy);
+    }
+
+    // Copies the current point into a fix.
+    public Fix getFix(Fix fix) {
+        return fix.set(getLatitude(), getLongitude(), getAccuracy(), -1, timeMillis, 0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // Moves the unread bytes to the beginning of the buffer and reads as many more as possible.
+    private void fill() throws IOException {
+        buffer.compact();
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                endOfFile = true;
+                break;
+            }
+        }
+        buffer.flip();
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// Appends the points of a track to a file with the compact binary format described in TrackFormat.
+// Points are encoded into an in-memory buffer on the calling thread, and full buffers are written
+// to the file channel by a background thread while points keep being encoded into a spare buffer.
+// The file is synchronized to disk when full buffers are written, at most once per SYNC_INTERVAL_MILLIS,
+// whenever the client calls flush() (which it should do with that period, so a slow track is not kept
+// in memory for long), and when the recorder is closed.
+public class TrackRecorder implements Closeable {
+
+    // Size of each buffer (in bytes)
+    private static final int BUFFER_SIZE = 16 * 1024;
+    // Number of points between two keyframes
+    private static final int KEYFRAME_INTERVAL = 256;
+    // Minimum time between two synchronizations of the file to disk (in milliseconds)
+    static final long SYNC_INTERVAL_MILLIS = 30 * 1000;
+
+    private final FileChannel channel;
+    // Background thread writing the buffers to the file
+    private final ExecutorService writer;
+
+    // Buffer where points are being encoded
+    private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    // Buffers already written to the file and ready to be reused
+    private final BlockingQueue<ByteBuffer> freeBuffers = new ArrayBlockingQueue<>(1);
+    // Exception raised while writing in background, reported on the next call
+    private volatile IOException writeException = null;
+    // Time of the last synchronization to disk (only accessed from the writer thread)
+    private long lastSyncMillis = System.currentTimeMillis();
+
+    // Values of the previous point, to encode the next one as deltas
+    private int pointsSinceKeyframe = KEYFRAME_INTERVAL;
+    private long previousTime;
+    private int previousLatitude;
+    private int previousLongitude;
+    // Number of points recorded, and whether any has been encoded since the last flush
+    private long points = 0;
+    private boolean unflushed = false;
+    // States whether the recorder has been closed
+    private boolean closed = false;
+
+    // Opens the file to append points to it, creating it if it does not exist.
+    public TrackRecorder(File file) throws IOException {
+        channel = new RandomAccessFile(file, "rw").getChannel();
+        channel.position(channel.size());
+        if (channel.size() == 0) {
+            buffer.put(TrackFormat.MAGIC);
+        }
+        freeBuffers.add(ByteBuffer.allocate(BUFFER_SIZE));
+        writer = Executors.newSingleThreadExecutor(runnable -> {
+            // Not a daemon thread, so the file is completed even if the process is exiting
+            return new Thread(runnable, "track-recorder");
+        });
+    }
+
+    // Appends a point to the track.
+    // accuracy Estimated accuracy (in meters), or negative if not known.
+    public synchronized void append(double latitude, double longitude, long timeMillis, float accuracy) throws IOException {
+        if (closed) {
+            throw new IOException("Track recorder closed");
+        }
+        if (writeException != null) {
+            throw writeException;
+        }
+        if (buffer.remaining() < TrackFormat.MAX_POINT_BYTES) {
+            submitBuffer(false);
+        }
+
+        int fixedLatitude = TrackFormat.toFixed(latitude);
+        int fixedLongitude = TrackFormat.toFixed(longitude);
+
+        // Write a keyframe periodically and whenever the time goes backwards
+        if ((pointsSinceKeyframe >= KEYFRAME_INTERVAL) || (timeMillis < previousTime)) {
+            TrackFormat.putVarLong(buffer, (timeMillis << 1) | 1);
+            TrackFormat.putVarLong(buffer, TrackFormat.zigzag(fixedLatitude));
+            TrackFormat.putVarLong(buffer, TrackFormat.zigzag(fixedLongitude));
+            pointsSinceKeyframe = 0;
+        } else {
+            TrackFormat.putVarLong(buffer, (timeMillis - previousTime) << 1);
+            TrackFormat.putVarLong(buffer, TrackFormat.zigzag((long) fixedLatitude - previousLatitude));
+            TrackFormat.putVarLong(buffer, TrackFormat.zigzag((long) fixedLongitude - previousLongitude));
+            pointsSinceKeyframe++;
+        }
+        TrackFormat.putVarLong(buffer, TrackFormat.encodeAccuracy(accuracy));
+
+        previousTime = timeMillis;
+        previousLatitude = fixedLatitude;
+        previousLongitude = fixedLongitude;
+        points++;
+        unflushed = true;
+    }
+
+    // Returns the number of points recorded since the recorder was opened.
+    public synchronized long getPoints() {
+        return points;
+    }
+
+    // Writes all the encoded points to the file and synchronizes it to disk in background, so a crash
+    // only loses the points appended afterwards. Nothing is done if no points have been appended since
+    // the previous flush. Returns false if the recorder has been closed.
+    public synchronized boolean flush() {
+        if (closed) {
+            return false;
+        }
+        if (unflushed) {
+            submitBuffer(true);
+            unflushed = false;
+        }
+        return true;
+    }
+
+    // Writes all the encoded points, synchronizes the file to disk and closes it.
+    // This is done in background, so it can be called from the main thread. Errors raised
+    // before calling it are reported, while those raised while completing the file are logged.
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        submitBuffer(true);
+        writer.execute(() -> {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            if (writeException != null) {
+                writeException.printStackTrace();
+            }
+        });
+        writer.shutdown();
+        if (writeException != null) {
+            throw writeException;
+        }
+    }
+
+    // Waits until the file has been completed in background after closing the recorder
+    // (e.g. before reading it again). Returns false if the timeout elapses before.
+    public boolean awaitClosed(long timeout, TimeUnit unit) throws InterruptedException {
+        return writer.awaitTermination(timeout, unit);
+    }
+
+    // Hands the current buffer to the writer thread and continues encoding into the spare one.
+    // It waits for the spare buffer if it is still being written.
+    private void submitBuffer(final boolean sync) {
+        if ((buffer.position() == 0) && !sync) {
+            return;
+        }
+        final ByteBuffer full = buffer;
+        full.flip();
+        try {
+            buffer = freeBuffers.take();
+        } catch (InterruptedException e) {
+            // Keep encoding into a new buffer rather than losing points
+            Thread.currentThread().interrupt();
+            buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        }
+        writer.execute(() -> {
+            try {
+                while (full.hasRemaining()) {
+                    channel.write(full);
+                }
+                // Synchronize to disk periodically, so a crash loses only the latest points
+                long now = System.currentTimeMillis();
+                if (sync || (now - lastSyncMillis >= SYNC_INTERVAL_MILLIS)) {
+                    channel.force(false);
+                    lastSyncMillis = now;
+                }
+            } catch (IOException e) {
+                writeException = e;
+            }
+            full.clear();
+            freeBuffers.offer(full);
+        });
+    }
+}
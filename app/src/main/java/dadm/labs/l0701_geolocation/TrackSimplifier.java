@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+// Streaming simplification of a track, keeping only the points needed to reproduce the path
+// followed within a given tolerance. It uses an opening window: points are accumulated after the
+// last kept point (the anchor) while all of them stay close enough to the segment joining the anchor
+// with the newest point. When one of them does not, the previous point is kept and becomes the new anchor.
+// The window is bounded, so memory is constant and each point is processed in bounded time.
+// Kept points are delivered with a delay, as they are only known to be required when a later point arrives.
+public class TrackSimplifier {
+
+    // Receives the points kept by the simplifier, in order.
+    // The fix is reused, so it must be copied if it has to be kept.
+    public interface Sink {
+        void onPoint(Fix fix);
+    }
+
+    // Maximum number of points in the window (a point is kept when it gets full)
+    private static final int MAX_WINDOW = 64;
+
+    // Maximum distance from a discarded point to the simplified path (in meters)
+    private final double toleranceMeters;
+    private final Sink sink;
+
+    // Last kept point
+    private final Fix anchor = new Fix();
+    private boolean hasAnchor = false;
+    // Points received after the anchor (reused)
+    private final Fix[] window = new Fix[MAX_WINDOW];
+    private int windowSize = 0;
+
+    // Number of points received and kept
+    private long received = 0;
+    private long kept = 0;
+
+    public TrackSimplifier(double toleranceMeters, Sink sink) {
+        this.toleranceMeters = toleranceMeters;
+        this.sink = sink;
+        for (int i = 0; i < MAX_WINDOW; i++) {
+            window[i] = new Fix();
+        }
+    }
+
+    // Processes a new point of the track.
+    public void add(Fix fix) {
+        received++;
+
+        // The first point is always kept
+        if (!hasAnchor) {
+            keep(fix);
+            return;
+        }
+
+        // Keep the previous point if the window is full or if the segment from the anchor to the new point
+        // deviates too much from the path followed, and start a new window from the new point
+        if ((windowSize == MAX_WINDOW) || !isWindowWithinTolerance(fix)) {
+            keep(window[windowSize - 1]);
+        }
+        window[windowSize++].set(fix);
+    }
+
+    // Keeps the last point received, so the simplified track ends where the original one does.
+    public void flush() {
+        if (windowSize > 0) {
+            keep(window[windowSize - 1]);
+        }
+    }
+
+    // Forgets all the points received, without delivering the pending ones.
+    public void reset() {
+        hasAnchor = false;
+        windowSize = 0;
+    }
+
+    public long getReceived() {
+        return received;
+    }
+
+    public long getKept() {
+        return kept;
+    }
+
+    // Delivers a point and makes it the new anchor, emptying the window.
+    private void keep(Fix fix) {
+        anchor.set(fix);
+        hasAnchor = true;
+        windowSize = 0;
+        kept++;
+        sink.onPoint(anchor);
+    }
+
+    // States whether all the points in the window are within tolerance of the segment
+    // from the anchor to the given point. Distances are computed on a local planar projection.
+    private boolean isWindowWithinTolerance(Fix end) {
+        double scale = Math.cos(Math.toRadians(anchor.latitude));
+        double endX = (end.longitude - anchor.longitude) * scale;
+        double endY = end.latitude - anchor.latitude;
+        // Tolerance in degrees, squared to avoid square roots
+        double tolerance = toleranceMeters / GeocodeCache.METERS_PER_DEGREE;
+        double toleranceSquared = tolerance * tolerance;
+
+        for (int i = 0; i < windowSize; i++) {
+            Fix point = window[i];
+            double x = (point.longitude - anchor.longitude) * scale;
+            double y = point.latitude - anchor.latitude;
+            if (DouglasPeucker.segmentDistanceSquared(x, y, endX, endY) > toleranceSquared) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import java.util.Locale;
+
+// Metrics derived from the fixes of the current session as they are accepted: distance covered,
+// bearing and speed of the last segment, average speed and elevation gained and lost.
+// Every fix is processed in constant time, without allocating, so it can be fed on the main thread.
+// It is not thread safe.
+public class TrackStatistics {
+
+    // Number of fixes processed
+    private int count = 0;
+    // Previous fix, and cosine of its latitude
+    private double previousLatitude;
+    private double previousLongitude;
+    private double previousCos;
+    private long previousTimeMillis;
+    // Time of the first fix (in milliseconds)
+    private long firstTimeMillis;
+
+    // Distance covered (in meters), and bearing and speed of the last segment that moved (in degrees and m/s)
+    private double distanceMeters = 0;
+    private double bearing = Double.NaN;
+    private double speed = 0;
+    private double maxSpeed = 0;
+
+    // Altitude of reference for the elevation, so changes below the noise threshold are ignored (NaN if none)
+    private double referenceAltitude = Double.NaN;
+    private double elevationGainMeters = 0;
+    private double elevationLossMeters = 0;
+
+    // Adds a new fix to the statistics.
+    // altitude  Altitude of the fix (in meters), or NaN if not known.
+    public void add(double latitude, double longitude, double altitude, long timeMillis) {
+        double cos = Math.cos(Math.toRadians(latitude));
+        if (count == 0) {
+            firstTimeMillis = timeMillis;
+        } else {
+            double segment = TrackMath.segment(previousLatitude, previousLongitude, previousCos, latitude, longitude, cos);
+            distanceMeters += segment;
+            long interval = timeMillis - previousTimeMillis;
+            if (interval > 0) {
+                speed = segment * 1000 / interval;
+                maxSpeed = Math.max(maxSpeed, speed);
+            }
+            // Keep the last bearing while the device does not move
+            if (segment > 0) {
+                bearing = TrackMath.bearing(previousLatitude, previousLongitude, latitude, longitude);
+            }
+        }
+
+        // Accumulate only the changes of altitude beyond the noise threshold
+        if (!Double.isNaN(altitude)) {
+            if (Double.isNaN(referenceAltitude)) {
+                referenceAltitude = altitude;
+            } else if (altitude - referenceAltitude >= TrackMath.ELEVATION_THRESHOLD_METERS) {
+                elevationGainMeters += altitude - referenceAltitude;
+                referenceAltitude = altitude;
+            } else if (referenceAltitude - altitude >= TrackMath.ELEVATION_THRESHOLD_METERS) {
+                elevationLossMeters += referenceAltitude - altitude;
+                referenceAltitude = altitude;
+            }
+        }
+
+        previousLatitude = latitude;
+        previousLongitude = longitude;
+        previousCos = cos;
+        previousTimeMillis = timeMillis;
+        count++;
+    }
+
+    // Discards all the fixes, to start a new session.
+    public void reset() {
+        count = 0;
+        distanceMeters = 0;
+        bearing = Double.NaN;
+        speed = 0;
+        maxSpeed = 0;
+        referenceAltitude = Double.NaN;
+        elevationGainMeters = 0;
+        elevationLossMeters = 0;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    // Returns the distance covered (in meters).
+    public double getDistance() {
+        return distanceMeters;
+    }
+
+    // Returns the bearing of the last segment that moved (in degrees clockwise from north), or NaN if none.
+    public double getBearing() {
+        return bearing;
+    }
+
+    // Returns the speed along the last segment (in m/s).
+    public double getSpeed() {
+        return speed;
+    }
+
+    // Returns the highest speed along any segment (in m/s).
+    public double getMaxSpeed() {
+        return maxSpeed;
+    }
+
+    // Returns the average speed since the first fix (in m/s), or 0 if no time has elapsed.
+    public double getAverageSpeed() {
+        long duration = getDuration();
+        return (duration > 0) ? distanceMeters * 1000 / duration : 0;
+    }
+
+    // Returns the time between the first and the last fix (in milliseconds).
+    public long getDuration() {
+        return (count > 0) ? previousTimeMillis - firstTimeMillis : 0;
+    }
+
+    public double getElevationGain() {
+        return elevationGainMeters;
+    }
+
+    public double getElevationLoss() {
+        return elevationLossMeters;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US,
+                "TrackStatistics{fixes=%d distance=%.1fm duration=%ds speed=%.2fm/s avgSpeed=%.2fm/s " +
+                        "maxSpeed=%.2fm/s bearing=%.0f gain=%.1fm loss=%.1fm}",
+                count, distanceMeters, getDuration() / 1000, speed, getAverageSpeed(), maxSpeed, bearing,
+                elevationGainMeters, elevationLossMeters);
+    }
+}
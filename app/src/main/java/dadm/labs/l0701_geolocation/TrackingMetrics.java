@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Counters and latency histograms of the hot path, from the location callbacks to the screen
+// and through the geocoding workers. They are updated from any thread without locking,
+// so they can be kept enabled at all times, and can be dumped as a text snapshot.
+public class TrackingMetrics {
+
+    // Time between consecutive locations, according to the location provider
+    public final LatencyHistogram fixInterval = new LatencyHistogram();
+    // Age of the locations when received by the callback
+    public final LatencyHistogram fixAge = new LatencyHistogram();
+    // Time from the location callback to the coordinates being displayed
+    public final LatencyHistogram callbackToScreen = new LatencyHistogram();
+    // Time from the location being obtained by the provider to the coordinates being displayed
+    public final LatencyHistogram fixToScreen = new LatencyHistogram();
+    // Time spent on the main thread per location: processing it, when dispatched on the main thread,
+    // or only handing the fix displayed to the listener, when processed in background
+    public final LatencyHistogram mainThreadPerFix = new LatencyHistogram();
+    // Time taken by the online and offline geocoders to translate the coordinates
+    public final LatencyHistogram onlineGeocodeLatency = new LatencyHistogram();
+    public final LatencyHistogram offlineGeocodeLatency = new LatencyHistogram();
+
+    // Locations received and accepted by the pipeline
+    public final AtomicLong fixesReceived = new AtomicLong();
+    public final AtomicLong fixesAccepted = new AtomicLong();
+    // Renderings of the coordinates on screen
+    public final AtomicLong framesRendered = new AtomicLong();
+
+    // Addresses requested, and resolved by the cache and the persistent store
+    public final AtomicLong geocodeRequests = new AtomicLong();
+    public final AtomicLong geocodeCacheHits = new AtomicLong();
+    public final AtomicLong geocodeStoreHits = new AtomicLong();
+    // Results of the online geocoder: address found, no address, and I/O error
+    public final AtomicLong geocodeSuccesses = new AtomicLong();
+    public final AtomicLong geocodeFailures = new AtomicLong();
+    public final AtomicLong geocodeErrors = new AtomicLong();
+    // Online lookups skipped because the network was not available
+    public final AtomicLong networkSkips = new AtomicLong();
+    // Lookups deferred until the network is available, or no longer metered
+    public final AtomicLong geocodeDeferred = new AtomicLong();
+    // Requests joining an online lookup already in flight for the same cell
+    public final AtomicLong geocodeShared = new AtomicLong();
+    // Online lookups refused by the rate limiter or during the backoff after an error
+    public final AtomicLong geocodeThrottled = new AtomicLong();
+
+    // Time when the metrics started being collected (in milliseconds since epoch)
+    private volatile long startMillis = System.currentTimeMillis();
+
+    // Discards all the values collected so far.
+    public void reset() {
+        fixInterval.reset();
+        fixAge.reset();
+        callbackToScreen.reset();
+        fixToScreen.reset();
+        mainThreadPerFix.reset();
+        onlineGeocodeLatency.reset();
+        offlineGeocodeLatency.reset();
+        fixesReceived.set(0);
+        fixesAccepted.set(0);
+        framesRendered.set(0);
+        geocodeRequests.set(0);
+        geocodeCacheHits.set(0);
+        geocodeStoreHits.set(0);
+        geocodeSuccesses.set(0);
+        geocodeFailures.set(0);
+        geocodeErrors.set(0);
+        networkSkips.set(0);
+        geocodeDeferred.set(0);
+        geocodeShared.set(0);
+        geocodeThrottled.set(0);
+        startMillis = System.currentTimeMillis();
+    }
+
+    // Writes a snapshot of all the metrics.
+    public void dump(PrintWriter writer) {
+        writer.println("Collected for " + (System.currentTimeMillis() - startMillis) / 1000 + " s");
+        writer.println("Fixes: received=" + fixesReceived.get() + " accepted=" + fixesAccepted.get() +
+                " rendered=" + framesRendered.get());
+        writer.println("  interval:           " + fixInterval);
+        writer.println("  age on callback:    " + fixAge);
+        writer.println("  callback to screen: " + callbackToScreen);
+        writer.println("  fix to screen:      " + fixToScreen);
+        writer.println("  main thread cost:   " + mainThreadPerFix);
+
+        long online = geocodeSuccesses.get() + geocodeFailures.get() + geocodeErrors.get();
+        writer.println("Geocoding: requests=" + geocodeRequests.get() + " cacheHits=" + geocodeCacheHits.get() +
+                " storeHits=" + geocodeStoreHits.get() + " shared=" + geocodeShared.get() +
+                " throttled=" + geocodeThrottled.get() + " networkSkips=" + networkSkips.get() +
+                " deferred=" + geocodeDeferred.get());
+        writer.println(String.format(Locale.US, "  online: success=%d noAddress=%d errors=%d successRate=%.1f%%",
+                geocodeSuccesses.get(), geocodeFailures.get(), geocodeErrors.get(),
+                (online == 0) ? 0 : 100.0 * geocodeSuccesses.get() / online));
+        writer.println("  online latency:     " + onlineGeocodeLatency);
+        writer.println("  offline latency:    " + offlineGeocodeLatency);
+    }
+}
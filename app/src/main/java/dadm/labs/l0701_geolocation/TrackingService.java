@@ -0,0 +1,810 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.location.Location;
+import android.os.BatteryManager;
+import android.os.Binder;
+import android.os.Build;
+import android.os.Debug;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import androidx.core.app.NotificationCompat;
+import androidx.core.content.ContextCompat;
+
+import com.google.android.gms.location.LocationRequest;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.util.Collection;
+
+// Keeps track of the location of the device independently of the activity lifecycle.
+// It owns the location source, the scheduler, the fix pipeline and the geocoding service,
+// and keeps the last fix and address, so activities can attach and detach instantly without
+// paying the warm-up of the location provider again. Accepted fixes are handed to a TrackArchive,
+// that records them and keeps the heatmap, and sessions are profiled by SessionProfiles.
+// While tracking it runs as a foreground service, so it is not killed when no activity is bound.
+// Locations are received and processed on a dedicated dispatch thread (or on the main one, if so selected),
+// that owns the location source and the state of the track, and the main thread only gets an immutable
+// FixViewState for every fix displayed, so its cost per fix does not depend on the processing.
+public class TrackingService extends Service {
+
+    // Receives the updates of the tracking service on the main thread.
+    public interface Listener {
+        // A new meaningful fix has been obtained, together with the statistics of the track
+        void onFixUpdated(FixViewState state);
+
+        // The address of the last fix has been resolved (null if not available)
+        void onAddressUpdated(String address);
+
+        // The device has entered, dwelled in or exited a geofence
+        void onGeofenceTransition(Geofence geofence, GeofenceEngine.Transition transition);
+    }
+
+    // Receives whether the location updates could be started, on the main thread.
+    // Not called if tracking is stopped or started again before the updates are started.
+    public interface OnTrackingStartedListener {
+        void onTrackingStarted(boolean started);
+    }
+
+    // Receives the tiles of the heatmap found within a viewport, on the main thread.
+    public interface OnHeatmapQueriedListener {
+        void onHeatmapQueried(TileIndex.Tiles tiles);
+    }
+
+    // Identifiers of the notification displayed while tracking
+    private static final String NOTIFICATION_CHANNEL_ID = "tracking";
+    private static final int NOTIFICATION_ID = 1;
+
+    // Directory (within the internal storage) where the tracks are recorded
+    private static final String TRACKS_DIRECTORY = "tracks";
+
+    // Asset holding the places known by the offline geocoder (optional)
+    private static final String OFFLINE_PLACES_ASSET = "places.csv";
+    // Maximum distance to a known place for the offline geocoder to provide an address (in meters)
+    private static final double OFFLINE_MAX_DISTANCE_METERS = 500;
+
+    // Asset holding the geofences monitored while tracking (optional)
+    private static final String GEOFENCES_ASSET = "geofences.csv";
+    // Time the device must stay inside a geofence to dwell in it (in milliseconds)
+    private static final long GEOFENCE_DWELL_MILLIS = 5 * 60 * 1000;
+
+    // Seed of the synthetic tracks and of the stub geocoder, so simulations are reproducible
+    private static final long SIMULATION_SEED = 1;
+    // Deviation of the latency of the stub geocoder, as a fraction of its average latency
+    private static final float STUB_GEOCODER_JITTER = 0.5f;
+
+    // Number of update intervals the fused provider can wait before delivering a batch of locations
+    private static final int BATCH_INTERVALS = 6;
+
+    // Binder giving direct access to the service from the activities of the app
+    public class TrackingBinder extends Binder {
+        public TrackingService getService() {
+            return TrackingService.this;
+        }
+    }
+
+    private final IBinder binder = new TrackingBinder();
+
+    // Stream where the location source publishes the locations received
+    final LocationEventStream locationStream = new LocationEventStream();
+    // Source of location updates for the selected location framework (read on the track thread)
+    volatile LocationSource locationSource = null;
+    int selectedLocationFramework = -1;
+    // Subscriber processing the locations published to the stream
+    final LocationEventStream.Subscriber locationSubscriber = new MyLocationSubscriber();
+
+    // Priority and permission of the current request (the permission is null if not tracking)
+    int requestedPriority;
+    volatile String permissionGranted = null;
+    // States whether the fused provider should deliver location updates in batches
+    boolean batchedDelivery = false;
+
+    // Thread receiving and processing the locations when dispatching them in background, and its handler
+    HandlerThread dispatchThread;
+    Handler dispatchHandler;
+    // Handler of the thread owning the location source and the state of the track (the dispatch or the main one),
+    // only used on the main thread. The source, scheduler, pipeline, statistics and recorder are used on that thread
+    Handler trackHandler;
+    // States whether locations are processed on the dispatch thread, applied on the next call to startTracking()
+    boolean backgroundDispatch = true;
+
+    // States whether the sessions are profiled, applied on the next call to startTracking()
+    boolean profiling = false;
+    // Profiles of the sessions, started and finished on the track thread
+    SessionProfiles profiles;
+
+    // Adapts the update interval and priority to the speed of the device and the battery level
+    AdaptiveLocationScheduler scheduler;
+    // Receives changes in the battery state
+    BroadcastReceiver batteryReceiver;
+
+    // Discards and smooths the fixes before they reach the user interface
+    final FixPipeline pipeline = FixPipeline.createDefault();
+    // Fix being processed by the pipeline and last fix accepted (reused for every location)
+    final Fix fix = new Fix();
+    final Fix acceptedFix = new Fix();
+    // States whether any location of the current batch has been accepted
+    boolean batchAccepted = false;
+
+    // Counters and latencies of the path from the location callbacks to the screen
+    final TrackingMetrics metrics = new TrackingMetrics();
+    // Time since boot of the previous location received, or 0 if not known (in nanoseconds)
+    long previousLocationNanos = 0;
+
+    // Distance, speed and elevation derived from the accepted fixes of the current session
+    final TrackStatistics trackStatistics = new TrackStatistics();
+    // Records the accepted fixes of every session and keeps the heatmap of the places visited
+    TrackArchive trackArchive;
+
+    // Detects the geofences entered and exited by the accepted fixes
+    GeofenceEngine geofenceEngine;
+
+    // Translates the coordinates into human readable addresses in background
+    GeocodingService geocodingService;
+    // Keeps the state of the network connectivity, so it is not queried for every lookup
+    ConnectivityMonitor connectivityMonitor;
+    // Handler delivering the addresses on the main thread
+    final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Track replayed and playback rate when using the simulated location source
+    String simulatedTrack = TrackGenerator.WALK;
+    float simulationRate = 1;
+
+    // Last fix (null if none) and address, delivered as soon as a listener attaches,
+    // and copy of the last fix to be persisted
+    FixViewState lastState = null;
+    final Fix lastFix = new Fix();
+    String lastAddress = null;
+    // States whether the last fix has been received in this session (and not on startup)
+    boolean hasFreshFix = false;
+    // Provides a location to display on startup and persists the last one for the next startup
+    WarmStartLocator warmStartLocator;
+
+    // Listener attached to the service (typically the visible activity)
+    Listener listener = null;
+    // States whether the service has been destroyed, so fixes still posted by the dispatch thread are ignored
+    boolean destroyed = false;
+    // Incremented each time tracking is started or stopped, so the result of a session superseded
+    // before being started is ignored
+    int sessionGeneration = 0;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        // Thread where the locations are received and processed when dispatching them in background
+        dispatchThread = new HandlerThread("location-dispatch");
+        dispatchThread.start();
+        dispatchHandler = new Handler(dispatchThread.getLooper());
+        trackHandler = dispatchHandler;
+
+        // Keep the addresses as they are resolved and forward them to the listener
+        connectivityMonitor = new ConnectivityMonitor(this);
+        geocodingService = new GeocodingService(
+                new AndroidReverseGeocoder(this), this::loadOfflineGeocoder, new GeocodeStore(this),
+                connectivityMonitor, metrics, mainHandler::post);
+        // Resume the lookups deferred while the network was not available (or metered)
+        connectivityMonitor.start(monitor ->
+                geocodingService.onConnectivityChanged(monitor.isMetered() || monitor.isConstrained()));
+        geocodingService.setOnAddressResolvedListener((latitude, longitude, address) -> {
+            lastAddress = address;
+            if (listener != null) {
+                listener.onAddressUpdated(address);
+            }
+            // Keep the fix together with its address for the next startup
+            if (hasFreshFix) {
+                warmStartLocator.save(lastFix, lastAddress, false);
+            }
+        });
+
+        // Forward the geofence transitions to the listener, and load the geofences in background
+        geofenceEngine = new GeofenceEngine((geofence, transition, fix) -> runOnMainThread(() -> {
+            if (listener != null) {
+                listener.onGeofenceTransition(geofence, transition);
+            }
+        }), GEOFENCE_DWELL_MILLIS, GeofenceEngine.DEFAULT_CELL_SIZE_METERS);
+        new Thread(this::loadGeofences, "geofence-loader").start();
+
+        // Add the tracks recorded so far to the heatmap in background
+        trackArchive = new TrackArchive(new File(getFilesDir(), TRACKS_DIRECTORY));
+        final long createdMillis = System.currentTimeMillis();
+        new Thread(() -> trackArchive.loadHistory(createdMillis), "heatmap-loader").start();
+        profiles = new SessionProfiles(this, metrics);
+
+        // Display the best location already known until a fresh fix arrives
+        warmStartLocator = new WarmStartLocator(this);
+        warmStartLocator.locate(this::onWarmStartFix);
+
+        // Register the location request again whenever the scheduler changes its policy (on the track thread)
+        scheduler = new AdaptiveLocationScheduler(policy -> {
+            if (isTracking()) {
+                requestLocationUpdates();
+            }
+        });
+        // Keep the scheduler informed of the battery state
+        batteryReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+                int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+                int status = intent.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+                if ((level >= 0) && (scale > 0)) {
+                    final float batteryLevel = (float) level / scale;
+                    final boolean charging =
+                            (status == BatteryManager.BATTERY_STATUS_CHARGING) || (status == BatteryManager.BATTERY_STATUS_FULL);
+                    runOnTrackThread(() -> scheduler.setBatteryState(batteryLevel, charging));
+                }
+            }
+        };
+        registerReceiver(batteryReceiver, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+
+        // Process the locations published by the source
+        locationStream.subscribe(locationSubscriber);
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return binder;
+    }
+
+    // The service is only started to keep it alive while tracking, so it must not be recreated if killed.
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        destroyed = true;
+        if (hasFreshFix) {
+            warmStartLocator.save(lastFix, lastAddress, true);
+        }
+        unregisterReceiver(batteryReceiver);
+        locationStream.unsubscribe(locationSubscriber);
+        connectivityMonitor.stop();
+        geocodingService.shutdown();
+        mainHandler.removeCallbacksAndMessages(null);
+        // Stop the source and the recording on the track thread, and then the dispatch thread
+        final LocationSource source = locationSource;
+        runOnTrackThread(() -> {
+            if (source != null) {
+                source.removeUpdates();
+            }
+            trackArchive.stopRecording();
+            profiles.finish();
+        });
+        dispatchHandler.post(dispatchThread::quit);
+    }
+
+    // Attaches a listener and immediately delivers the last known fix and address.
+    public void attach(Listener listener) {
+        this.listener = listener;
+        if (lastState != null) {
+            listener.onFixUpdated(lastState);
+        }
+        if (lastAddress != null) {
+            listener.onAddressUpdated(lastAddress);
+        }
+    }
+
+    // Detaches the listener, that will not receive further updates.
+    public void detach(Listener listener) {
+        if (this.listener == listener) {
+            this.listener = null;
+        }
+    }
+
+    // States whether location updates are being received.
+    public boolean isTracking() {
+        return permissionGranted != null;
+    }
+
+    public int getSelectedLocationFramework() {
+        return selectedLocationFramework;
+    }
+
+    public int getRequestedPriority() {
+        return requestedPriority;
+    }
+
+    public String getPermissionGranted() {
+        return permissionGranted;
+    }
+
+    public TrackingMetrics getMetrics() {
+        return metrics;
+    }
+
+    // Returns the last fix displayed, or null if none yet. It must be called from the main thread.
+    public FixViewState getLastState() {
+        return lastState;
+    }
+
+    // Returns the geocoding service, so clients can request multi-result, forward or batch lookups
+    // (e.g. the addresses of a recorded track) sharing its cache, workers and rate limit.
+    public GeocodingService getGeocodingService() {
+        return geocodingService;
+    }
+
+    // Writes a snapshot of the metrics and of the state of the workers.
+    public void dumpMetrics(PrintWriter writer) {
+        metrics.dump(writer);
+        writer.println("Geocoder threads: alive=" + geocodingService.getWorkerCount() +
+                " active=" + geocodingService.getActiveWorkerCount());
+        writer.println("Online geocoder: " + geocodingService.getOnlineGeocoderState());
+        // Hit, eviction and expiration rates, to tune the cell size and time to live of the cache
+        writer.println("Address cache: " + geocodingService.getCache());
+        writer.println("Network: " + connectivityMonitor);
+        // Reports of the profiled sessions, ready to be compared side by side
+        writer.println("Profiling: " + (profiling ? "on" : "off"));
+        profiles.dump(writer);
+        writer.println("Tracking: " + isTracking() + " " + scheduler.getPolicy() +
+                " dispatch=" + ((trackHandler == dispatchHandler) ? "background" : "main"));
+        if (locationSource instanceof FusionLocationSource) {
+            writer.println("Location source: " + locationSource);
+        }
+        // Snapshot of the statistics, that may be being updated on the dispatch thread
+        writer.println("Track: " + trackStatistics);
+        writer.println("Tracks: " + trackArchive);
+    }
+
+    // Dumps the metrics through "adb shell dumpsys activity service TrackingService".
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        dumpMetrics(writer);
+    }
+
+    public boolean isBatchedDelivery() {
+        return batchedDelivery;
+    }
+
+    // Sets whether the locations are received and processed on the dispatch thread, instead of the main one.
+    // It is applied on the next call to startTracking().
+    public void setBackgroundDispatch(boolean backgroundDispatch) {
+        this.backgroundDispatch = backgroundDispatch;
+    }
+
+    public boolean isBackgroundDispatch() {
+        return backgroundDispatch;
+    }
+
+    // Sets whether the tracking sessions are profiled, appending their reports to the profiles file
+    // when they finish. It is applied on the next call to startTracking().
+    public void setProfiling(boolean profiling) {
+        this.profiling = profiling;
+    }
+
+    public boolean isProfiling() {
+        return profiling;
+    }
+
+    // Starts receiving location updates from the given framework.
+    // Permissions must have been granted before calling this method.
+    // Called on the main thread, that does not wait for the updates to be requested on the track thread:
+    // the listener is told on the main thread whether they could be started.
+    // framework  Location framework to be used (as defined by LocationActivity).
+    // priority   Determines the priority when selecting the location provider.
+    // permission Permission granted to request updates from the selected location provider.
+    // listener   Listener receiving whether the location updates could be started.
+    public void startTracking(int framework, int priority, String permission,
+                              final OnTrackingStartedListener listener) {
+        final int generation = ++sessionGeneration;
+
+        // Initialize the location source if the framework or the thread receiving the locations changes.
+        // Simulations always start again from the beginning of the track
+        final Handler handler = backgroundDispatch ? dispatchHandler : mainHandler;
+        final Handler previousHandler = trackHandler;
+        LocationSource previous = null;
+        if ((framework != selectedLocationFramework) || (framework == LocationActivity.SIMULATED_LOCATION) ||
+                (handler != trackHandler)) {
+            previous = locationSource;
+            locationSource = null;
+            trackHandler = handler;
+            selectedLocationFramework = framework;
+            if (framework == LocationActivity.SIMULATED_LOCATION) {
+                try {
+                    locationSource = new ReplayLocationSource(
+                            openSimulatedTrack(), locationStream, simulationRate, handler.getLooper());
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    selectedLocationFramework = -1;
+                    stopPreviousSource(previous, previousHandler);
+                    onSessionStarted(generation, false, listener);
+                    return;
+                }
+            } else if (framework == LocationActivity.FUSED_PROVIDERS) {
+                locationSource = new FusionLocationSource(this, locationStream, handler.getLooper());
+            } else {
+                locationSource = (framework == LocationActivity.GOOGLE_LOCATION_API) ?
+                        new FusedLocationSource(this, locationStream, handler.getLooper()) :
+                        new AndroidFrameworkLocationSource(this, locationStream, handler.getLooper());
+            }
+        }
+
+        requestedPriority = priority;
+        permissionGranted = permission;
+        // Describe the configuration of the session, to identify its profile
+        final String configuration = profiling ?
+                locationSource.getName() +
+                        ((priority == LocationRequest.PRIORITY_HIGH_ACCURACY) ? "/high" : "/balanced") +
+                        ((handler == dispatchHandler) ? "/background" : "/main") +
+                        (batchedDelivery ? "/batched" : "") :
+                null;
+        final Runnable start = () -> {
+            final boolean started = startSession(configuration);
+            mainHandler.post(() -> onSessionStarted(generation, started, listener));
+        };
+        // The previous source is stopped on its own thread before the session starts on the new one,
+        // so the state of the track is never used by both threads at once
+        final boolean posted;
+        if (previous == null) {
+            posted = runOnTrackThread(start);
+        } else {
+            final LocationSource source = previous;
+            posted = runOn(previousHandler, () -> {
+                source.removeUpdates();
+                if (!runOn(handler, start)) {
+                    mainHandler.post(() -> onSessionStarted(generation, false, listener));
+                }
+            });
+        }
+        // The dispatch thread no longer runs tasks once the service has been destroyed
+        if (!posted) {
+            onSessionStarted(generation, false, listener);
+        }
+    }
+
+    // Stops the source replaced by a new one on its own thread, when the new one could not be created.
+    private static void stopPreviousSource(final LocationSource previous, Handler previousHandler) {
+        if (previous != null) {
+            runOn(previousHandler, previous::removeUpdates);
+        }
+    }
+
+    // Completes starting a session on the main thread, once the location updates have been requested
+    // on the track thread: keeps the service running while tracking and notifies the listener.
+    // Sessions stopped or started again meanwhile, or started after the service was destroyed, are ignored.
+    private void onSessionStarted(int generation, boolean started, OnTrackingStartedListener listener) {
+        if (destroyed || (generation != sessionGeneration)) {
+            return;
+        }
+        if (started) {
+            // Keep the service running while tracking, even if no activity is bound
+            ContextCompat.startForegroundService(this, new Intent(this, TrackingService.class));
+            startForeground(NOTIFICATION_ID, createNotification());
+        } else {
+            permissionGranted = null;
+        }
+        listener.onTrackingStarted(started);
+    }
+
+    // Stops receiving location updates and lets the service be destroyed once unbound.
+    public void stopTracking() {
+        sessionGeneration++;
+        permissionGranted = null;
+        final LocationSource source = locationSource;
+        runOnTrackThread(() -> {
+            if (source != null) {
+                source.removeUpdates();
+            }
+            trackArchive.stopRecording();
+            profiles.finish();
+        });
+        if (hasFreshFix) {
+            warmStartLocator.save(lastFix, lastAddress, true);
+        }
+        stopForeground(true);
+        stopSelf();
+    }
+
+    // Sets whether the fused provider should deliver location updates in batches.
+    public void setBatchedDelivery(boolean batchedDelivery) {
+        this.batchedDelivery = batchedDelivery;
+        runOnTrackThread(() -> {
+            if (isTracking()) {
+                requestLocationUpdates();
+            }
+        });
+    }
+
+    // Starts a new session on the track thread: resets the state of the track, requests location updates
+    // and starts recording the fixes.
+    // Returns false if the location updates could not be requested.
+    // configuration Configuration of the session to be profiled, or null if not profiled.
+    private boolean startSession(String configuration) {
+        // Start with the default policy of the scheduler and forget previous fixes
+        scheduler.reset();
+        pipeline.reset();
+        geofenceEngine.reset();
+        trackStatistics.reset();
+        batchAccepted = false;
+
+        // A session restarted with a new configuration is profiled again from the beginning
+        if (configuration != null) {
+            profiles.start(configuration);
+        } else {
+            profiles.finish();
+        }
+
+        if (!requestLocationUpdates()) {
+            profiles.cancel();
+            return false;
+        }
+        // Record the fixes of this session
+        trackArchive.startRecording();
+        return true;
+    }
+
+    // Runs the task on the thread owning the location source and the state of the track
+    // (immediately, if already on that thread). Only called on the main thread.
+    // Returns false if the task could not be posted because that thread has quit.
+    private boolean runOnTrackThread(Runnable task) {
+        return runOn(trackHandler, task);
+    }
+
+    // Runs the task on the thread of the handler (immediately, if already on that thread).
+    // Returns false if the task could not be posted because that thread has quit.
+    private static boolean runOn(Handler handler, Runnable task) {
+        if (handler.getLooper() == Looper.myLooper()) {
+            task.run();
+            return true;
+        }
+        return handler.post(task);
+    }
+
+    // Runs the task on the main thread (immediately, if already on that thread).
+    private void runOnMainThread(Runnable task) {
+        if (Looper.getMainLooper() == Looper.myLooper()) {
+            task.run();
+        } else {
+            mainHandler.post(task);
+        }
+    }
+
+    // Requests location updates from the location source according to the scheduler policy
+    // (by default each 10s, each 5s at most, with a minimum distance of 10m). Called on the track thread.
+    // The priority is relaxed when the policy allows it, and in batched mode locations are delivered
+    // together after several update intervals.
+    private boolean requestLocationUpdates() {
+        AdaptiveLocationScheduler.Policy policy = scheduler.getPolicy();
+        return locationSource.requestUpdates(
+                policy.relaxPriority ? LocationRequest.PRIORITY_BALANCED_POWER_ACCURACY : requestedPriority,
+                policy.intervalMillis,
+                policy.fastestIntervalMillis,
+                policy.minDistanceMeters,
+                batchedDelivery ? policy.intervalMillis * BATCH_INTERVALS : 0);
+    }
+
+    // Creates the notification displayed while tracking, that opens the LocationActivity.
+    private Notification createNotification() {
+        // Notification channels are required from Android 8.0
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationChannel channel = new NotificationChannel(
+                    NOTIFICATION_CHANNEL_ID,
+                    getString(R.string.tracking_channel_name),
+                    NotificationManager.IMPORTANCE_LOW);
+            ((NotificationManager) getSystemService(NOTIFICATION_SERVICE)).createNotificationChannel(channel);
+        }
+
+        Intent intent = new Intent(this, LocationActivity.class);
+        intent.putExtra("location_framework", selectedLocationFramework);
+        PendingIntent pendingIntent = PendingIntent.getActivity(
+                this, 0, intent,
+                PendingIntent.FLAG_UPDATE_CURRENT |
+                        ((Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) ? PendingIntent.FLAG_IMMUTABLE : 0));
+
+        return new NotificationCompat.Builder(this, NOTIFICATION_CHANNEL_ID)
+                .setSmallIcon(android.R.drawable.ic_menu_mylocation)
+                .setContentTitle(getString(R.string.tracking_notification_title))
+                .setContentText(getString(R.string.tracking_notification_text))
+                .setContentIntent(pendingIntent)
+                .setOngoing(true)
+                .setPriority(NotificationCompat.PRIORITY_LOW)
+                .build();
+    }
+
+    // Replaces the geofences monitored while tracking.
+    // It can be called from any thread, and it should not be the main one for large sets.
+    public void setGeofences(Collection<Geofence> geofences) {
+        geofenceEngine.setGeofences(geofences);
+    }
+
+    // Loads the geofences included as an asset, if any (called from a background thread).
+    private void loadGeofences() {
+        try (InputStream stream = getAssets().open(GEOFENCES_ASSET)) {
+            setGeofences(GeofenceIndex.loadGeofences(stream));
+        } catch (FileNotFoundException e) {
+            // No geofences to monitor
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Finds the tiles of the heatmap within the viewport, at the finest level where it spans at most maxTiles
+    // tiles, so the overlay keeps the same density at any zoom. The viewport crosses the antimeridian if
+    // west > east. Called on the main thread, that does not wait for the query: it runs on the track thread
+    // (after the location being processed, if any) and the tiles found are delivered to the listener
+    // on the main thread.
+    public void queryHeatmap(final double south, final double west, final double north, final double east,
+                             final int maxTiles, final OnHeatmapQueriedListener listener) {
+        runOnTrackThread(() -> {
+            final TileIndex.Tiles tiles = trackArchive.queryHeatmap(south, west, north, east, maxTiles);
+            runOnMainThread(() -> {
+                if (!destroyed) {
+                    listener.onHeatmapQueried(tiles);
+                }
+            });
+        });
+    }
+
+    // Loads the offline geocoder from the places included as an asset (called from a worker).
+    // Returns null if no places have been bundled, so addresses can only be obtained online.
+    private ReverseGeocoder loadOfflineGeocoder() {
+        try (InputStream stream = getAssets().open(OFFLINE_PLACES_ASSET)) {
+            return new OfflineReverseGeocoder(OfflineReverseGeocoder.loadPlaces(stream), OFFLINE_MAX_DISTANCE_METERS);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // Configures the simulated location source, used on the next call to startTracking().
+    // track                 Name of a synthetic track ("walk" or "drive") or of a recorded one (without extension).
+    // rate                  Factor to speed up the playback.
+    // geocoderLatencyMillis Average latency of a stub geocoder replacing the online one, or negative to use the real one.
+    public void setSimulation(String track, float rate, long geocoderLatencyMillis) {
+        simulatedTrack = (track != null) ? track : TrackGenerator.WALK;
+        simulationRate = (rate > 0) ? rate : 1;
+        geocodingService.setOnlineGeocoder((geocoderLatencyMillis < 0) ?
+                new AndroidReverseGeocoder(this) :
+                new StubReverseGeocoder(geocoderLatencyMillis,
+                        (long) (geocoderLatencyMillis * STUB_GEOCODER_JITTER), 0, SIMULATION_SEED));
+    }
+
+    // Opens the track to be replayed by the simulated location source.
+    private FixSequence openSimulatedTrack() throws IOException {
+        FixSequence track = TrackGenerator.get(simulatedTrack, SIMULATION_SEED);
+        if (track != null) {
+            return track;
+        }
+        return trackArchive.openTrack(simulatedTrack);
+    }
+
+    // Updates the state kept about the track followed by the device with a new location (on the track thread).
+    // It is called for every location received, even if it is not going to be displayed.
+    // Returns true if the location passes the pipeline, and then it is kept in acceptedFix.
+    // nowNanos Time since boot when the location was received (in nanoseconds).
+    private boolean processLocation(Location location, long nowNanos) {
+        // Measure the interval between locations and how old they are when received
+        long locationNanos = location.getElapsedRealtimeNanos();
+        metrics.fixesReceived.incrementAndGet();
+        metrics.fixAge.record(nowNanos - locationNanos);
+        if ((previousLocationNanos != 0) && (locationNanos > previousLocationNanos)) {
+            metrics.fixInterval.record(locationNanos - previousLocationNanos);
+        }
+        previousLocationNanos = locationNanos;
+
+        // Let the scheduler adapt the location request to the speed of the device
+        scheduler.onLocation(
+                location.getLatitude(), location.getLongitude(), location.getTime(),
+                location.hasSpeed() ? location.getSpeed() : -1);
+
+        // Discard inaccurate, duplicated or irrelevant fixes and smooth the remaining ones
+        fix.set(location.getLatitude(), location.getLongitude(),
+                location.hasAccuracy() ? location.getAccuracy() : -1,
+                location.hasSpeed() ? location.getSpeed() : -1,
+                location.getTime(), location.getElapsedRealtimeNanos());
+        if (pipeline.process(fix, nowNanos)) {
+            metrics.fixesAccepted.incrementAndGet();
+            acceptedFix.set(fix);
+            geofenceEngine.onFix(fix);
+            trackStatistics.add(fix.latitude, fix.longitude,
+                    location.hasAltitude() ? location.getAltitude() : Double.NaN, fix.timeMillis);
+            trackArchive.add(fix);
+            return true;
+        }
+        return false;
+    }
+
+    // Displays a location obtained on startup, unless a fresh fix has already been received.
+    // It uses the address provided, or requests it otherwise (it is likely to be cached).
+    private void onWarmStartFix(Fix fix, String address) {
+        if (hasFreshFix) {
+            return;
+        }
+        lastState = new FixViewState(fix, 0, null);
+        lastFix.set(fix);
+        if (listener != null) {
+            listener.onFixUpdated(lastState);
+        }
+        if (address != null) {
+            lastAddress = address;
+            if (listener != null) {
+                listener.onAddressUpdated(address);
+            }
+        } else {
+            geocodingService.requestAddress(fix.latitude, fix.longitude);
+        }
+    }
+
+    // Keeps the new fix, notifies the listener and requests the translation of its coordinates
+    // into an address (superseding any previous request). Called on the main thread.
+    private void updateFix(FixViewState state) {
+        if (destroyed) {
+            return;
+        }
+        lastState = state;
+        state.toFix(lastFix);
+        hasFreshFix = true;
+        if (listener != null) {
+            listener.onFixUpdated(state);
+        }
+        geocodingService.requestAddress(state.latitude, state.longitude);
+    }
+
+    // Processes the locations published by the location source.
+    private class MyLocationSubscriber implements LocationEventStream.Subscriber {
+
+        // This callback is executed on the track thread whenever a new location update is received.
+        // Several locations are received in a row when they are delivered in batches.
+        @Override
+        public void onLocation(LocationSource source, Location location, boolean lastInBatch) {
+            // Locations still queued by a source already replaced are discarded
+            if (source != locationSource) {
+                return;
+            }
+            // Update the track state with every location, measuring its CPU time when profiling
+            final long now = SystemClock.elapsedRealtimeNanos();
+            final SessionProfiler profiler = profiles.getProfiler();
+            final long cpuStart = (profiler != null) ? Debug.threadCpuTimeNanos() : 0;
+            final boolean accepted = processLocation(location, now);
+            batchAccepted |= accepted;
+            // Update the last fix only with the newest meaningful location of the batch,
+            // handing the main thread an immutable copy together with the statistics of the track
+            if (lastInBatch) {
+                if (batchAccepted) {
+                    final FixViewState state = new FixViewState(acceptedFix, now, trackStatistics);
+                    if (Looper.getMainLooper() == Looper.myLooper()) {
+                        updateFix(state);
+                    } else {
+                        mainHandler.post(() -> {
+                            final long start = SystemClock.elapsedRealtimeNanos();
+                            updateFix(state);
+                            metrics.mainThreadPerFix.record(SystemClock.elapsedRealtimeNanos() - start);
+                        });
+                    }
+                }
+                batchAccepted = false;
+            }
+            if (profiler != null) {
+                profiler.onLocation(location.getElapsedRealtimeNanos(),
+                        location.hasAccuracy() ? location.getAccuracy() : -1, accepted,
+                        (cpuStart >= 0) ? Debug.threadCpuTimeNanos() - cpuStart : -1, lastInBatch);
+            }
+            // When dispatching on the main thread, it also pays for the processing of every location
+            if (Looper.getMainLooper() == Looper.myLooper()) {
+                metrics.mainThreadPerFix.record(SystemClock.elapsedRealtimeNanos() - now);
+            }
+        }
+    }
+}
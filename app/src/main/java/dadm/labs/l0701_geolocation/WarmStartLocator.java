@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import android.Manifest;
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.location.Location;
+import android.location.LocationManager;
+
+import androidx.core.content.ContextCompat;
+
+import com.google.android.gms.location.LocationServices;
+
+import java.util.List;
+
+// Provides a location to display right away on startup, before the first fresh fix arrives.
+// It chooses the best usable location among the last known ones of every Android provider,
+// the last location of the fused provider and the last fix persisted by the app (together with its address).
+public class WarmStartLocator {
+
+    // Receives the best location found so far (several times, if a better one is found later).
+    public interface Callback {
+        // address Address of the location, or null if not known.
+        void onWarmStartFix(Fix fix, String address);
+    }
+
+    // Maximum age of a location to be usable on startup (in milliseconds)
+    static final long MAX_AGE_MILLIS = 30 * 60 * 1000;
+    // Worst accuracy of a location to be usable on startup (in meters)
+    static final float MAX_ACCURACY_METERS = 500;
+    // Time difference making a location significantly newer than another one (in milliseconds)
+    static final long SIGNIFICANTLY_NEWER_MILLIS = 2 * 60 * 1000;
+    // Minimum time between two writes of the last fix (in milliseconds)
+    private static final long SAVE_INTERVAL_MILLIS = 60 * 1000;
+
+    // Preferences holding the last fix and its address
+    private static final String PREFERENCES_NAME = "last_fix";
+    private static final String KEY_LATITUDE = "latitude";
+    private static final String KEY_LONGITUDE = "longitude";
+    private static final String KEY_ACCURACY = "accuracy";
+    private static final String KEY_TIME = "time";
+    private static final String KEY_ADDRESS = "address";
+
+    private final Context context;
+    private final SharedPreferences preferences;
+    // Time of the last write of the last fix
+    private long lastSaveMillis = 0;
+
+    public WarmStartLocator(Context context) {
+        this.context = context.getApplicationContext();
+        this.preferences = this.context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    // States whether a location is recent and accurate enough to be displayed on startup.
+    static boolean isUsable(Fix fix, long nowMillis) {
+        return (nowMillis - fix.timeMillis <= MAX_AGE_MILLIS) &&
+                (fix.accuracy >= 0) && (fix.accuracy <= MAX_ACCURACY_METERS);
+    }
+
+    // States whether a candidate location is better than the current one: significantly newer
+    // locations are always better, significantly older ones never, and otherwise the most accurate wins.
+    static boolean isBetter(Fix candidate, Fix current) {
+        long timeDelta = candidate.timeMillis - current.timeMillis;
+        if (timeDelta > SIGNIFICANTLY_NEWER_MILLIS) {
+            return true;
+        }
+        if (timeDelta < -SIGNIFICANTLY_NEWER_MILLIS) {
+            return false;
+        }
+        return candidate.accuracy < current.accuracy;
+    }
+
+    // Looks for the best usable location. The callback is immediately called with the best one among
+    // the persisted fix and the Android providers, and later again if the fused provider has a better one.
+    @SuppressLint("MissingPermission")
+    public void locate(final Callback callback) {
+        final long now = System.currentTimeMillis();
+        final Fix best = new Fix();
+        boolean found = false;
+        String bestAddress = null;
+
+        // Last fix persisted by the app, which comes with its address
+        if (preferences.contains(KEY_TIME)) {
+            Fix saved = new Fix().set(
+                    Double.longBitsToDouble(preferences.getLong(KEY_LATITUDE, 0)),
+                    Double.longBitsToDouble(preferences.getLong(KEY_LONGITUDE, 0)),
+                    preferences.getFloat(KEY_ACCURACY, -1),
+                    -1,
+                    preferences.getLong(KEY_TIME, 0),
+                    0);
+            if (isUsable(saved, now)) {
+                best.set(saved);
+                bestAddress = preferences.getString(KEY_ADDRESS, null);
+                found = true;
+            }
+        }
+
+        // Locations from the system require permissions
+        if (!isLocationPermissionGranted()) {
+            if (found) {
+                callback.onWarmStartFix(best, bestAddress);
+            }
+            return;
+        }
+
+        // Last known location of every Android provider
+        LocationManager locationManager = (LocationManager) context.getSystemService(Context.LOCATION_SERVICE);
+        List<String> providers = locationManager.getProviders(true);
+        Fix candidate = new Fix();
+        for (int i = 0; i < providers.size(); i++) {
+            Location location = locationManager.getLastKnownLocation(providers.get(i));
+            if (location != null) {
+                toFix(location, candidate);
+                if (isUsable(candidate, now) && (!found || isBetter(candidate, best))) {
+                    best.set(candidate);
+                    bestAddress = null;
+                    found = true;
+                }
+            }
+        }
+        if (found) {
+            callback.onWarmStartFix(best, bestAddress);
+        }
+
+        // Last location of the fused provider, obtained asynchronously
+        final boolean foundBefore = found;
+        LocationServices.getFusedLocationProviderClient(context).getLastLocation()
+                .addOnSuccessListener(location -> {
+                    if (location != null) {
+                        Fix fused = toFix(location, new Fix());
+                        if (isUsable(fused, System.currentTimeMillis()) && (!foundBefore || isBetter(fused, best))) {
+                            callback.onWarmStartFix(fused, null);
+                        }
+                    }
+                });
+    }
+
+    // Persists the last fix and its address, so they can be displayed on the next startup.
+    // Writes are throttled, unless forced.
+    public void save(Fix fix, String address, boolean force) {
+        long now = System.currentTimeMillis();
+        if (!force && (now - lastSaveMillis < SAVE_INTERVAL_MILLIS)) {
+            return;
+        }
+        lastSaveMillis = now;
+        preferences.edit()
+                .putLong(KEY_LATITUDE, Double.doubleToRawLongBits(fix.latitude))
+                .putLong(KEY_LONGITUDE, Double.doubleToRawLongBits(fix.longitude))
+                .putFloat(KEY_ACCURACY, fix.accuracy)
+                .putLong(KEY_TIME, fix.timeMillis)
+                .putString(KEY_ADDRESS, address)
+                .apply();
+    }
+
+    // States whether any location permission has been granted.
+    private boolean isLocationPermissionGranted() {
+        return (PackageManager.PERMISSION_GRANTED ==
+                ContextCompat.checkSelfPermission(context, Manifest.permission.ACCESS_FINE_LOCATION)) ||
+                (PackageManager.PERMISSION_GRANTED ==
+                        ContextCompat.checkSelfPermission(context, Manifest.permission.ACCESS_COARSE_LOCATION));
+    }
+
+    // Copies the data of a location into a fix.
+    private static Fix toFix(Location location, Fix fix) {
+        return fix.set(location.getLatitude(), location.getLongitude(),
+                location.hasAccuracy() ? location.getAccuracy() : -1,
+                location.hasSpeed() ? location.getSpeed() : -1,
+                location.getTime(), location.getElapsedRealtimeNanos());
+    }
+}
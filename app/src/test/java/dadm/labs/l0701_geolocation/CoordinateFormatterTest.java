@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class CoordinateFormatterTest {
+
+    private static final String PATTERN = "Longitude: %1$f°";
+    // Locales with another decimal separator, other digits, or another minus sign
+    private static final String[] LOCALES = {"en-US", "es-ES", "de-CH", "ar-EG", "fa-IR", "hi-IN-u-nu-deva"};
+
+    private final Locale defaultLocale = Locale.getDefault();
+
+    @After
+    public void tearDown() {
+        Locale.setDefault(defaultLocale);
+    }
+
+    // The output is that of String.format in every locale, including its rounding and negative zero.
+    @Test
+    public void matchesStringFormat() {
+        Random random = new Random(1);
+        CoordinateFormatter formatter = new CoordinateFormatter(PATTERN);
+        StringBuilder builder = new StringBuilder();
+        double[] values = {0, -0.0, -0.0000001, 0.0000005, 179.9999996, -180, 90, Double.NaN,
+                Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        for (String tag : LOCALES) {
+            Locale.setDefault(Locale.forLanguageTag(tag));
+            for (double value : values) {
+                assertEquals(tag, String.format(PATTERN, value), formatter.format(value, builder).toString());
+            }
+            for (int i = 0; i < 1000; i++) {
+                double value = random.nextDouble() * 360 - 180;
+                assertEquals(tag, String.format(PATTERN, value), formatter.format(value, builder).toString());
+            }
+        }
+    }
+
+    // The builder is reused, and a pattern without placeholder is taken as the label before the value.
+    @Test
+    public void reusesBuilder() {
+        Locale.setDefault(Locale.US);
+        StringBuilder builder = new StringBuilder("previous text");
+        assertSame(builder, new CoordinateFormatter(PATTERN).format(-0.37, builder));
+        assertEquals("Longitude: -0.370000°", builder.toString());
+        assertEquals("Lat 39.470000", new CoordinateFormatter("Lat ").format(39.47, builder).toString());
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DouglasPeuckerTest {
+
+    private static final double TOLERANCE_METERS = 5;
+    // Enough points to be split into several chunks
+    private static final int POINTS = 20000;
+
+    private static ExecutorService executor;
+    private static final double[] latitudes = new double[POINTS];
+    private static final double[] longitudes = new double[POINTS];
+
+    @BeforeClass
+    public static void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+        TrackGenerator generator = TrackGenerator.walk(1);
+        Fix fix = new Fix();
+        for (int i = 0; i < POINTS; i++) {
+            generator.next(fix);
+            latitudes[i] = fix.latitude;
+            longitudes[i] = fix.longitude;
+        }
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        executor.shutdown();
+    }
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void straightLineKeepsEnds() {
+        double[] lats = new double[100];
+        double[] lons = new double[100];
+        for (int i = 0; i < lats.length; i++) {
+            lats[i] = 39.47 + i * 1e-5;
+            lons[i] = -0.37 + i * 2e-5;
+        }
+        assertArrayEquals(new int[]{0, 99}, DouglasPeucker.simplify(lats, lons, lats.length, TOLERANCE_METERS));
+    }
+
+    @Test
+    public void shortTracks() {
+        assertEquals(0, DouglasPeucker.simplify(latitudes, longitudes, 0, TOLERANCE_METERS).length);
+        assertArrayEquals(new int[]{0}, DouglasPeucker.simplify(latitudes, longitudes, 1, TOLERANCE_METERS));
+        assertArrayEquals(new int[]{0, 1}, DouglasPeucker.simplify(latitudes, longitudes, 2, TOLERANCE_METERS));
+    }
+
+    @Test
+    public void sequentialWithinTolerance() {
+        int[] kept = DouglasPeucker.simplify(latitudes, longitudes, POINTS, TOLERANCE_METERS);
+        assertTrue(kept.length < POINTS);
+        assertWithinTolerance(latitudes, longitudes, POINTS, kept, TOLERANCE_METERS);
+    }
+
+    // Chunks are simplified on their own, so the result differs from the sequential one,
+    // but it is still within tolerance and keeps about the same points.
+    @Test
+    public void parallelWithinTolerance() throws InterruptedException {
+        int[] sequential = DouglasPeucker.simplify(latitudes, longitudes, POINTS, TOLERANCE_METERS);
+        int[] parallel = DouglasPeucker.simplifyParallel(latitudes, longitudes, POINTS, TOLERANCE_METERS, executor, 4);
+        assertWithinTolerance(latitudes, longitudes, POINTS, parallel, TOLERANCE_METERS);
+        assertTrue(Math.abs(parallel.length - sequential.length) < sequential.length / 10);
+    }
+
+    // Tracks too short to be split are simplified sequentially.
+    @Test
+    public void parallelShortTrack() throws InterruptedException {
+        assertArrayEquals(DouglasPeucker.simplify(latitudes, longitudes, 1000, TOLERANCE_METERS),
+                DouglasPeucker.simplifyParallel(latitudes, longitudes, 1000, TOLERANCE_METERS, executor, 4));
+    }
+
+    // The exported track keeps the points selected by the parallel simplification, with their times.
+    @Test
+    public void simplifyTrack() throws IOException, InterruptedException {
+        File input = folder.newFile("walk.trk");
+        File output = new File(folder.getRoot(), "export.trk");
+        // Points are identified by their position in the track, stored as their time
+        TrackRecorder recorder = new TrackRecorder(input);
+        for (int i = 0; i < POINTS; i++) {
+            recorder.append(latitudes[i], longitudes[i], i, 5);
+        }
+        recorder.close();
+        assertTrue(recorder.awaitClosed(10, TimeUnit.SECONDS));
+
+        int count = DouglasPeucker.simplifyTrack(input, output, TOLERANCE_METERS, executor, 4);
+        int[] kept = new int[count];
+        int read = 0;
+        try (TrackReader reader = new TrackReader(output)) {
+            while (reader.next()) {
+                kept[read++] = (int) reader.getTimeMillis();
+                assertEquals(5, reader.getAccuracy(), 0.1);
+            }
+        }
+        assertEquals(count, read);
+        assertTrue(count < POINTS);
+        // Coordinates are recorded in fixed point, so distances may differ by a few millimeters
+        assertWithinTolerance(latitudes, longitudes, POINTS, kept, TOLERANCE_METERS + 0.05);
+    }
+
+    // Checks that the first and last points are kept, in order, and that every discarded point is within
+    // tolerance of the segment joining the kept points around it.
+    static void assertWithinTolerance(double[] latitudes, double[] longitudes, int count, int[] kept,
+                                      double toleranceMeters) {
+        assertEquals(0, kept[0]);
+        assertEquals(count - 1, kept[kept.length - 1]);
+        for (int k = 1; k < kept.length; k++) {
+            int start = kept[k - 1];
+            int end = kept[k];
+            assertTrue(end > start);
+            for (int i = start + 1; i < end; i++) {
+                double distance = segmentDistanceMeters(latitudes, longitudes, i, start, end);
+                assertTrue("Point " + i + " is " + distance + "m away", distance <= toleranceMeters * 1.001);
+            }
+        }
+    }
+
+    // Returns the distance from a point to a segment (in meters), on a planar projection around its start.
+    private static double segmentDistanceMeters(double[] latitudes, double[] longitudes, int point,
+                                                int start, int end) {
+        double scale = Math.cos(Math.toRadians(latitudes[start])) * GeocodeCache.METERS_PER_DEGREE;
+        double endX = (longitudes[end] - longitudes[start]) * scale;
+        double endY = (latitudes[end] - latitudes[start]) * GeocodeCache.METERS_PER_DEGREE;
+        double x = (longitudes[point] - longitudes[start]) * scale;
+        double y = (latitudes[point] - latitudes[start]) * GeocodeCache.METERS_PER_DEGREE;
+        double lengthSquared = endX * endX + endY * endY;
+        double t = (lengthSquared == 0) ? 0 : Math.max(0, Math.min(1, (x * endX + y * endY) / lengthSquared));
+        return Math.hypot(x - t * endX, y - t * endY);
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FixFiltersTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+    // Offset of about 11 m in latitude (in degrees)
+    private static final double STEP = 0.0001;
+
+    private final Fix fix = new Fix();
+
+    @Test
+    public void ageGate() {
+        FixFilters.AgeGate gate = new FixFilters.AgeGate(1000);
+        assertTrue(gate.accept(at(0, 0, 5, 10 * SECOND), 10 * SECOND));
+        // Too old
+        assertFalse(gate.accept(at(0, 0, 5, 8 * SECOND), 10 * SECOND));
+        // Older than the one already accepted
+        assertFalse(gate.accept(at(0, 0, 5, 10 * SECOND - 1), 10 * SECOND));
+        gate.reset();
+        assertTrue(gate.accept(at(0, 0, 5, 10 * SECOND - 1), 10 * SECOND));
+    }
+
+    // Fixes without an accuracy are not discarded, only those known to be too inaccurate.
+    @Test
+    public void accuracyGate() {
+        FixFilters.AccuracyGate gate = new FixFilters.AccuracyGate(100);
+        assertTrue(gate.accept(at(0, 0, 0, 0), 0));
+        assertTrue(gate.accept(at(0, 0, 100, 0), 0));
+        assertFalse(gate.accept(at(0, 0, 101, 0), 0));
+        assertTrue(gate.accept(at(0, 0, -1, 0), 0));
+    }
+
+    @Test
+    public void duplicateFilter() {
+        FixFilters.DuplicateFilter filter = new FixFilters.DuplicateFilter();
+        assertTrue(filter.accept(at(39.47, -0.37, 5, 0), 0));
+        assertFalse(filter.accept(at(39.47, -0.37, 5, SECOND), SECOND));
+        assertTrue(filter.accept(at(39.47 + STEP, -0.37, 5, 2 * SECOND), 2 * SECOND));
+        filter.reset();
+        assertTrue(filter.accept(at(39.47 + STEP, -0.37, 5, 3 * SECOND), 3 * SECOND));
+    }
+
+    // Small movements add up against the last accepted fix, not against the previous one.
+    @Test
+    public void displacementGate() {
+        FixFilters.DisplacementGate gate = new FixFilters.DisplacementGate(15);
+        assertTrue(gate.accept(at(39.47, -0.37, 5, 0), 0));
+        assertFalse(gate.accept(at(39.47 + STEP, -0.37, 5, 0), 0));
+        assertTrue(gate.accept(at(39.47 + 2 * STEP, -0.37, 5, 0), 0));
+        assertFalse(gate.accept(at(39.47 + STEP, -0.37, 5, 0), 0));
+        gate.reset();
+        assertTrue(gate.accept(at(39.47 + 2 * STEP, -0.37, 5, 0), 0));
+    }
+
+    // Fixes are weighted by their accuracy, and the uncertainty grows with the time between them.
+    @Test
+    public void kalmanWeightsByAccuracy() {
+        FixFilters.KalmanSmoother smoother = new FixFilters.KalmanSmoother(3);
+        assertTrue(smoother.accept(at(0, 0, 10, 0), 0));
+        assertEquals(0, fix.latitude, 0);
+        assertEquals(10, fix.accuracy, 1e-6);
+
+        // Same accuracy and no time elapsed: halfway, with less uncertainty than either fix
+        smoother.accept(at(STEP, 0, 10, 0), 0);
+        assertEquals(STEP / 2, fix.latitude, 1e-12);
+        assertEquals(Math.sqrt(50), fix.accuracy, 1e-4);
+
+        // A much less accurate fix barely moves the estimate
+        smoother.accept(at(100 * STEP, 0, 1000, 0), 0);
+        assertTrue(fix.latitude < STEP);
+
+        // After a long time without fixes, a new one is mostly trusted
+        smoother.accept(at(0, 0, 10, 1000 * SECOND), 1000 * SECOND);
+        assertTrue(fix.latitude < STEP / 100);
+    }
+
+    // A fix without accuracy is weighted as a 50 m one.
+    @Test
+    public void kalmanDefaultAccuracy() {
+        FixFilters.KalmanSmoother unknown = new FixFilters.KalmanSmoother(3);
+        unknown.accept(at(0, 0, 10, 0), 0);
+        unknown.accept(at(STEP, 0, -1, 0), 0);
+        double latitude = fix.latitude;
+
+        FixFilters.KalmanSmoother known = new FixFilters.KalmanSmoother(3);
+        known.accept(at(0, 0, 10, 0), 0);
+        known.accept(at(STEP, 0, 50, 0), 0);
+        assertEquals(fix.latitude, latitude, 1e-12);
+        assertEquals(STEP * 100 / (100 + 2500), latitude, 1e-12);
+    }
+
+    // Fixes without accuracy go through the whole default pipeline.
+    @Test
+    public void defaultPipeline() {
+        FixPipeline pipeline = FixPipeline.createDefault();
+        assertTrue(pipeline.process(at(39.47, -0.37, -1, SECOND), SECOND));
+        // Inaccurate, duplicated and too close fixes are discarded
+        assertFalse(pipeline.process(at(39.48, -0.37, 500, 2 * SECOND), 2 * SECOND));
+        assertFalse(pipeline.process(at(39.47, -0.37, 5, 3 * SECOND), 3 * SECOND));
+        assertFalse(pipeline.process(at(39.47 + STEP / 10, -0.37, 5, 4 * SECOND), 4 * SECOND));
+        assertTrue(pipeline.process(at(39.47 + 10 * STEP, -0.37, 5, 5 * SECOND), 5 * SECOND));
+        assertEquals(5, pipeline.getProcessed());
+        assertEquals(2, pipeline.getAccepted());
+    }
+
+    private Fix at(double latitude, double longitude, float accuracy, long elapsedRealtimeNanos) {
+        return fix.set(latitude, longitude, accuracy, -1, TimeUnit.NANOSECONDS.toMillis(elapsedRealtimeNanos),
+                elapsedRealtimeNanos);
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class GeocodeBatchTest {
+
+    // Lookups allowed per window of the rate limiter, and length of the window
+    private static final int MAX_LOOKUPS = 5;
+    private static final long WINDOW_MILLIS = 200;
+    // Queries in each batch, well above the limit of a single window
+    private static final int QUERIES = 3 * MAX_LOOKUPS + 2;
+
+    private TrackingMetrics metrics;
+    private GeocodingService service;
+
+    @Before
+    public void setUp() {
+        metrics = new TrackingMetrics();
+        StubReverseGeocoder stub = new StubReverseGeocoder(0, 0, 0, 1);
+        // No offline geocoder, so refused lookups can only be resolved online
+        service = new GeocodingService(stub, () -> null, new MemoryAddressStore(), () -> true, metrics, Runnable::run);
+        service.setOnlineGeocoder(new SingleFlightGeocoder(stub, service.getCache(), metrics,
+                MAX_LOOKUPS, WINDOW_MILLIS, 50, 1000));
+    }
+
+    @After
+    public void tearDown() {
+        service.shutdown();
+    }
+
+    // Queries over the rate limit wait for the next window instead of being reported without results.
+    @Test
+    public void throttledAddressesAreResolved() throws InterruptedException {
+        assertAllResolved(1);
+    }
+
+    @Test
+    public void throttledCandidatesAreResolved() throws InterruptedException {
+        assertAllResolved(3);
+    }
+
+    // Cancelling a batch while its workers wait for the rate limit stops them without finishing it.
+    @Test
+    public void cancelWhileThrottled() throws InterruptedException {
+        final CountDownLatch finished = new CountDownLatch(1);
+        double[] latitudes = new double[QUERIES];
+        double[] longitudes = new double[QUERIES];
+        fill(latitudes, longitudes);
+        GeocodeBatch batch = service.requestAddresses(latitudes, longitudes, QUERIES, 1,
+                new GeocodingService.OnResultsListener() {
+                    @Override
+                    public void onResults(int index, List<GeocodeResult> results) {
+                    }
+
+                    @Override
+                    public void onFinished() {
+                        finished.countDown();
+                    }
+                });
+        Thread.sleep(WINDOW_MILLIS / 2);
+        batch.cancel();
+        assertFalse(finished.await(3 * WINDOW_MILLIS, TimeUnit.MILLISECONDS));
+        assertTrue(batch.isCancelled());
+    }
+
+    // Resolves a batch of distinct cells and checks that every query got the expected number of results.
+    private void assertAllResolved(int maxResults) throws InterruptedException {
+        final AtomicReferenceArray<List<GeocodeResult>> received = new AtomicReferenceArray<>(QUERIES);
+        final CountDownLatch finished = new CountDownLatch(1);
+        double[] latitudes = new double[QUERIES];
+        double[] longitudes = new double[QUERIES];
+        fill(latitudes, longitudes);
+        service.requestAddresses(latitudes, longitudes, QUERIES, maxResults, new GeocodingService.OnResultsListener() {
+            @Override
+            public void onResults(int index, List<GeocodeResult> results) {
+                received.set(index, results);
+            }
+
+            @Override
+            public void onFinished() {
+                finished.countDown();
+            }
+        });
+        assertTrue(finished.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < QUERIES; i++) {
+            assertNotNull(received.get(i));
+            assertEquals(maxResults, received.get(i).size());
+        }
+        // The limit was actually reached, and no lookup was lost on the way
+        assertTrue(metrics.geocodeThrottled.get() > 0);
+        assertEquals(QUERIES, metrics.geocodeSuccesses.get());
+    }
+
+    // Coordinates far enough apart to fall in different cells of the cache.
+    private static void fill(double[] latitudes, double[] longitudes) {
+        for (int i = 0; i < latitudes.length; i++) {
+            latitudes[i] = 39.47 + i * 0.01;
+            longitudes[i] = -0.37;
+        }
+    }
+
+    private static final class MemoryAddressStore implements AddressStore {
+
+        private final Map<Long, String> addresses = new HashMap<>();
+
+        @Override
+        public synchronized String get(long cell) {
+            return addresses.get(cell);
+        }
+
+        @Override
+        public synchronized void put(long cell, String address) {
+            addresses.put(cell, address);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
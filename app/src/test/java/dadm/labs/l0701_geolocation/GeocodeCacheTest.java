@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+public class GeocodeCacheTest {
+
+    private static final double CELL_METERS = 25;
+    // Size of a cell in degrees
+    private static final double CELL_DEGREES = CELL_METERS / GeocodeCache.METERS_PER_DEGREE;
+
+    // Coordinates within the same cell share the address, and those of the next cell do not.
+    @Test
+    public void cells() {
+        GeocodeCache cache = new GeocodeCache(CELL_METERS, 16, 60000);
+        double latitude = 100.5 * CELL_DEGREES;
+        double longitude = -200.5 * CELL_DEGREES;
+        assertEquals(cache.cellKey(latitude, longitude),
+                cache.cellKey(latitude + 0.4 * CELL_DEGREES, longitude - 0.4 * CELL_DEGREES));
+        assertNotEquals(cache.cellKey(latitude, longitude), cache.cellKey(latitude + CELL_DEGREES, longitude));
+        assertNotEquals(cache.cellKey(latitude, longitude), cache.cellKey(latitude, longitude + CELL_DEGREES));
+
+        cache.put(latitude, longitude, "Address");
+        assertEquals("Address", cache.get(latitude + 0.4 * CELL_DEGREES, longitude));
+        assertNull(cache.get(latitude + CELL_DEGREES, longitude));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    // The least recently used cell is evicted, not the least recently stored one.
+    @Test
+    public void leastRecentlyUsedIsEvicted() {
+        GeocodeCache cache = new GeocodeCache(CELL_METERS, 2, 60000);
+        cache.put(0, 0, "First");
+        cache.put(0, 2 * CELL_DEGREES, "Second");
+        assertEquals("First", cache.get(0, 0));
+        cache.put(0, 4 * CELL_DEGREES, "Third");
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertEquals("First", cache.get(0, 0));
+        assertNull(cache.get(0, 2 * CELL_DEGREES));
+        assertEquals("Third", cache.get(0, 4 * CELL_DEGREES));
+    }
+
+    @Test
+    public void expiredEntriesAreRemoved() throws InterruptedException {
+        GeocodeCache cache = new GeocodeCache(CELL_METERS, 16, 50);
+        cache.put(0, 0, "Address");
+        assertEquals("Address", cache.get(0, 0));
+        Thread.sleep(100);
+        assertNull(cache.get(0, 0));
+        assertEquals(0, cache.size());
+        assertEquals(1, cache.getExpirations());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+}
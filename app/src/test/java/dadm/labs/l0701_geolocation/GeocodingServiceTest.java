@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class GeocodingServiceTest {
+
+    // Latency of the online geocoder (in milliseconds)
+    private static final long LATENCY_MILLIS = 200;
+
+    private final TrackingMetrics metrics = new TrackingMetrics();
+    // Latitudes of the addresses delivered, in order
+    private final List<Double> delivered = new CopyOnWriteArrayList<>();
+    private volatile boolean networkAvailable = true;
+    // Thread receiving the addresses, as the main thread of the app
+    private ExecutorService mainThread;
+    private GeocodingService service;
+
+    @Before
+    public void setUp() {
+        mainThread = Executors.newSingleThreadExecutor();
+        // No offline geocoder, so addresses can only be resolved online
+        service = new GeocodingService(new StubReverseGeocoder(LATENCY_MILLIS, 0, 0, 1), () -> null,
+                new MemoryAddressStore(), () -> networkAvailable, metrics, mainThread);
+        service.setOnAddressResolvedListener((latitude, longitude, address) -> delivered.add(latitude));
+    }
+
+    @After
+    public void tearDown() {
+        service.shutdown();
+        mainThread.shutdownNow();
+    }
+
+    // A new request supersedes the one in flight, whose address is never delivered.
+    @Test
+    public void latestWins() throws Exception {
+        request(39.47, -0.37);
+        request(40.42, -3.70);
+        awaitDeliveries(1);
+        Thread.sleep(2 * LATENCY_MILLIS);
+        assertEquals(1, delivered.size());
+        assertEquals(40.42, delivered.get(0), 0);
+    }
+
+    // A burst of requests only keeps a few workers, and delivers the address of the last one.
+    // Cancelled lookups may have reached the backend, so the burst stays below the rate limit.
+    @Test
+    public void burstUsesBoundedWorkers() throws Exception {
+        final int requests = 25;
+        for (int i = 0; i < requests; i++) {
+            request(39.47 + i * 0.01, -0.37);
+            assertTrue(service.getWorkerCount() <= 4);
+        }
+        awaitDeliveries(1);
+        Thread.sleep(2 * LATENCY_MILLIS);
+        assertEquals(39.47 + (requests - 1) * 0.01, delivered.get(delivered.size() - 1), 0);
+        assertEquals(1, metrics.geocodeSuccesses.get());
+    }
+
+    // Requests for the cell being resolved share its lookup, and resolved cells are answered from the cache.
+    @Test
+    public void sameCellIsNotLookedUpAgain() throws Exception {
+        request(39.47, -0.37);
+        request(39.47, -0.37);
+        awaitDeliveries(1);
+        assertEquals(1, metrics.geocodeShared.get());
+
+        request(39.47, -0.37);
+        awaitDeliveries(2);
+        assertEquals(1, metrics.geocodeCacheHits.get());
+        assertEquals(1, metrics.geocodeSuccesses.get());
+    }
+
+    // Without network, the latest request waits until connectivity returns.
+    @Test
+    public void deferredUntilNetworkReturns() throws Exception {
+        networkAvailable = false;
+        request(39.47, -0.37);
+        request(40.42, -3.70);
+        Thread.sleep(2 * LATENCY_MILLIS);
+        assertEquals(0, delivered.size());
+        assertTrue(metrics.geocodeDeferred.get() > 0);
+
+        networkAvailable = true;
+        service.onConnectivityChanged(false);
+        awaitDeliveries(1);
+        assertEquals(40.42, delivered.get(0), 0);
+    }
+
+    // Requests an address on the thread receiving them, as the app does on the main thread.
+    private void request(final double latitude, final double longitude)
+            throws ExecutionException, InterruptedException {
+        mainThread.submit(() -> service.requestAddress(latitude, longitude)).get();
+    }
+
+    private void awaitDeliveries(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while ((delivered.size() < count) && (System.nanoTime() < deadline)) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, delivered.size());
+    }
+
+    private static final class MemoryAddressStore implements AddressStore {
+
+        private final Map<Long, String> addresses = new HashMap<>();
+
+        @Override
+        public synchronized String get(long cell) {
+            return addresses.get(cell);
+        }
+
+        @Override
+        public synchronized void put(long cell, String address) {
+            addresses.put(cell, address);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class GeofenceEngineTest {
+
+    private static final double LATITUDE = 39.4699;
+    private static final double LONGITUDE = -0.3763;
+    private static final long DWELL_MILLIS = 5 * 60 * 1000;
+
+    // Transitions notified, as "identifier:transition"
+    private final List<String> transitions = new ArrayList<>();
+    private GeofenceEngine engine;
+    private long timeMillis = 0;
+
+    @Before
+    public void setUp() {
+        engine = new GeofenceEngine(
+                (geofence, transition, fix) -> transitions.add(geofence.id + ":" + transition),
+                DWELL_MILLIS, GeofenceEngine.DEFAULT_CELL_SIZE_METERS);
+        // A radius of 100m exits 20m beyond it
+        engine.setGeofences(Collections.singletonList(new Geofence("home", LATITUDE, LONGITUDE, 100)));
+    }
+
+    // Fixes near the border do not flap between entering and exiting.
+    @Test
+    public void hysteresis() {
+        fixAt(200);
+        fixAt(50);
+        fixAt(110);
+        fixAt(95);
+        fixAt(115);
+        assertEquals(Collections.singletonList("home:ENTER"), transitions);
+        fixAt(130);
+        assertEquals(Arrays.asList("home:ENTER", "home:EXIT"), transitions);
+        fixAt(110);
+        fixAt(90);
+        assertEquals(Arrays.asList("home:ENTER", "home:EXIT", "home:ENTER"), transitions);
+    }
+
+    @Test
+    public void dwellOnce() {
+        fixAt(0);
+        timeMillis += DWELL_MILLIS - 2000;
+        fixAt(10);
+        assertEquals(Collections.singletonList("home:ENTER"), transitions);
+        fixAt(10);
+        timeMillis += DWELL_MILLIS;
+        fixAt(10);
+        assertEquals(Arrays.asList("home:ENTER", "home:DWELL"), transitions);
+    }
+
+    // Geofences removed are left silently, while those kept (same identifier) are not entered again.
+    @Test
+    public void replaceGeofences() {
+        fixAt(0);
+        engine.setGeofences(Arrays.asList(
+                new Geofence("home", LATITUDE, LONGITUDE, 150),
+                new Geofence("work", LATITUDE, LONGITUDE, 50)));
+        fixAt(0);
+        assertEquals(Arrays.asList("home:ENTER", "work:ENTER"), transitions);
+        engine.setGeofences(Collections.singletonList(new Geofence("work", LATITUDE, LONGITUDE, 50)));
+        fixAt(500);
+        assertEquals(Arrays.asList("home:ENTER", "work:ENTER", "work:EXIT"), transitions);
+    }
+
+    @Test
+    public void resetForgetsPresences() {
+        fixAt(0);
+        engine.reset();
+        fixAt(0);
+        assertEquals(Arrays.asList("home:ENTER", "home:ENTER"), transitions);
+    }
+
+    // Every geofence containing a location is among the candidates of its cell, also across cell borders.
+    @Test
+    public void indexCandidates() {
+        Random random = new Random(1);
+        List<Geofence> geofences = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            geofences.add(new Geofence("g" + i, 39.3 + random.nextDouble() * 0.4, -0.6 + random.nextDouble() * 0.4,
+                    50 + random.nextInt(2000)));
+        }
+        GeofenceIndex index = new GeofenceIndex(geofences, 500);
+        assertEquals(geofences.size(), index.size());
+        for (int q = 0; q < 1000; q++) {
+            double latitude = 39.3 + random.nextDouble() * 0.4;
+            double longitude = -0.6 + random.nextDouble() * 0.4;
+            List<String> candidates = new ArrayList<>();
+            for (int position : index.candidates(latitude, longitude)) {
+                candidates.add(index.get(position).id);
+            }
+            for (Geofence geofence : geofences) {
+                if (geofence.distanceTo(latitude, longitude) <= geofence.radiusMeters) {
+                    assertTrue(geofence.id, candidates.contains(geofence.id));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void loadGeofences() throws IOException {
+        String csv = "# latitude,longitude,radius,identifier\n\n39.47,-0.37,100,home\n40.41,-3.70,250.5,work\n";
+        List<Geofence> geofences = GeofenceIndex.loadGeofences(
+                new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)));
+        assertEquals(2, geofences.size());
+        assertEquals("work", geofences.get(1).id);
+        assertEquals(250.5f, geofences.get(1).radiusMeters, 0);
+    }
+
+    // Processes a fix the given distance north of the center of the geofence, one second after the previous one.
+    private void fixAt(double meters) {
+        timeMillis += 1000;
+        engine.onFix(new Fix().set(LATITUDE + meters / GeocodeCache.METERS_PER_DEGREE, LONGITUDE, 5, -1, timeMillis, 0));
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LongCountMapTest {
+
+    // Key 0 marks the empty slots, so it is kept apart.
+    @Test
+    public void zeroKey() {
+        LongCountMap map = new LongCountMap();
+        assertFalse(map.containsKey(0));
+        assertEquals(0, map.get(0));
+        assertEquals(3, map.add(0, 3));
+        assertEquals(5, map.add(0, 2));
+        assertTrue(map.containsKey(0));
+        assertEquals(1, map.size());
+
+        // A counter added up to zero is still in the map
+        map.add(0, -5);
+        assertTrue(map.containsKey(0));
+        assertEquals(0, map.get(0));
+
+        final int[] visited = {0};
+        map.forEach((key, value) -> {
+            assertEquals(0, key);
+            visited[0]++;
+        });
+        assertEquals(1, visited[0]);
+    }
+
+    // Keys that collide in the low or high bits are spread over the slots while the map grows.
+    @Test
+    public void resizeKeepsCounters() {
+        LongCountMap map = new LongCountMap();
+        Map<Long, Long> expected = new HashMap<>();
+        Random random = new Random(1);
+        for (int i = 0; i < 100000; i++) {
+            long key;
+            switch (i % 3) {
+                case 0:
+                    key = random.nextInt(50000);
+                    break;
+                case 1:
+                    key = (long) random.nextInt(50000) << 32;
+                    break;
+                default:
+                    key = random.nextLong();
+            }
+            long delta = 1 + random.nextInt(3);
+            Long previous = expected.get(key);
+            long value = ((previous == null) ? 0 : previous) + delta;
+            expected.put(key, value);
+            assertEquals(value, map.add(key, delta));
+        }
+        assertEquals(expected.size(), map.size());
+        for (Map.Entry<Long, Long> entry : expected.entrySet()) {
+            assertEquals((long) entry.getValue(), map.get(entry.getKey()));
+        }
+        assertFalse(map.containsKey(-1234567));
+
+        final Map<Long, Long> visited = new HashMap<>();
+        map.forEach(visited::put);
+        assertEquals(expected, visited);
+    }
+
+    @Test
+    public void addAll() {
+        LongCountMap first = new LongCountMap();
+        LongCountMap second = new LongCountMap(1000);
+        for (long key = 0; key < 1000; key++) {
+            first.add(key, 1);
+            second.add(key + 500, 2);
+        }
+        first.addAll(second);
+        assertEquals(1500, first.size());
+        assertEquals(1, first.get(0));
+        assertEquals(3, first.get(500));
+        assertEquals(3, first.get(999));
+        assertEquals(2, first.get(1499));
+        // The other map is not modified
+        assertEquals(1000, second.size());
+    }
+
+    @Test
+    public void clear() {
+        LongCountMap map = new LongCountMap();
+        for (long key = -100; key <= 100; key++) {
+            map.add(key, 1);
+        }
+        map.clear();
+        assertEquals(0, map.size());
+        assertFalse(map.containsKey(0));
+        assertFalse(map.containsKey(42));
+        map.add(42, 1);
+        assertEquals(1, map.size());
+        assertEquals(1, map.get(42));
+    }
+}
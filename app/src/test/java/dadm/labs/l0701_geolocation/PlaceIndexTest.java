@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PlaceIndexTest {
+
+    private static final int PLACES = 5000;
+    private static final int QUERIES = 500;
+
+    private static PlaceIndex index;
+
+    // Random places around Valencia, with a few repeated coordinates
+    @BeforeClass
+    public static void setUp() {
+        Random random = new Random(1);
+        double[] latitudes = new double[PLACES];
+        double[] longitudes = new double[PLACES];
+        String[] names = new String[PLACES];
+        for (int i = 0; i < PLACES; i++) {
+            latitudes[i] = 39.3 + random.nextDouble() * 0.4;
+            longitudes[i] = -0.6 + random.nextDouble() * 0.4;
+            names[i] = "Place " + i;
+        }
+        latitudes[1] = latitudes[0];
+        longitudes[1] = longitudes[0];
+        index = new PlaceIndex(latitudes, longitudes, names);
+    }
+
+    @Test
+    public void nearestMatchesBruteForce() {
+        Random random = new Random(2);
+        for (int q = 0; q < QUERIES; q++) {
+            double latitude = 39.2 + random.nextDouble() * 0.6;
+            double longitude = -0.7 + random.nextDouble() * 0.6;
+            int nearest = index.nearest(latitude, longitude);
+            assertEquals(bruteForce(latitude, longitude)[0], index.distanceMeters(nearest, latitude, longitude), 1e-6);
+        }
+    }
+
+    // The k nearest places are found from the nearest to the farthest.
+    @Test
+    public void kNearestMatchesBruteForce() {
+        Random random = new Random(3);
+        int[] places = new int[8];
+        for (int q = 0; q < QUERIES; q++) {
+            double latitude = 39.3 + random.nextDouble() * 0.4;
+            double longitude = -0.6 + random.nextDouble() * 0.4;
+            assertEquals(places.length, index.nearest(latitude, longitude, places));
+            double[] distances = new double[places.length];
+            for (int i = 0; i < places.length; i++) {
+                distances[i] = index.distanceMeters(places[i], latitude, longitude);
+            }
+            assertArrayEquals(Arrays.copyOf(bruteForce(latitude, longitude), places.length), distances, 1e-6);
+        }
+    }
+
+    @Test
+    public void smallIndexes() {
+        PlaceIndex empty = new PlaceIndex(new double[0], new double[0], new String[0]);
+        assertEquals(-1, empty.nearest(39.47, -0.37));
+        assertEquals(0, empty.nearest(39.47, -0.37, new int[3]));
+
+        PlaceIndex single = new PlaceIndex(new double[]{39.47}, new double[]{-0.37}, new String[]{"Valencia"});
+        int[] places = new int[3];
+        assertEquals(1, single.nearest(40.0, -3.7, places));
+        assertEquals("Valencia", single.getName(places[0]));
+    }
+
+    // An exact match comes first, then the names starting with the text, and then those containing it.
+    @Test
+    public void find() {
+        int[] found = index.find("place 12", 5);
+        assertEquals(5, found.length);
+        assertEquals("Place 12", index.getName(found[0]));
+        for (int position : found) {
+            assertTrue(index.getName(position).startsWith("Place 12"));
+        }
+        assertEquals(0, index.find("Madrid", 5).length);
+    }
+
+    // Returns the distances to all the places, sorted.
+    private static double[] bruteForce(double latitude, double longitude) {
+        double[] distances = new double[index.size()];
+        for (int i = 0; i < distances.length; i++) {
+            distances[i] = index.distanceMeters(i, latitude, longitude);
+        }
+        Arrays.sort(distances);
+        return distances;
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SingleFlightGeocoderTest {
+
+    private final TrackingMetrics metrics = new TrackingMetrics();
+    private final GeocodeCache cache = new GeocodeCache(25, 16, 60000);
+    private final ScriptedGeocoder backend = new ScriptedGeocoder();
+
+    // Concurrent lookups of the same cell wait for a single request to the backend.
+    @Test
+    public void sameCellSharesLookup() throws Exception {
+        final SingleFlightGeocoder geocoder = new SingleFlightGeocoder(backend, cache, metrics, 30, 1000, 10000);
+        backend.release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Future<?>[] lookups = new Future<?>[4];
+            for (int i = 0; i < lookups.length; i++) {
+                final double offset = i * 1e-5;
+                lookups[i] = executor.submit((Callable<String>) () -> geocoder.getAddress(39.47 + offset, -0.37));
+            }
+            await(metrics.geocodeShared, 3);
+            backend.release.countDown();
+            for (Future<?> lookup : lookups) {
+                assertEquals("Address", lookup.get(5, TimeUnit.SECONDS));
+            }
+            assertEquals(1, backend.lookups.get());
+
+            // Other cells, or the same one once the lookup has finished, need a new request
+            geocoder.getAddress(39.47, -0.37);
+            geocoder.getAddress(39.48, -0.37);
+            assertEquals(3, backend.lookups.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // When the lookup being shared is cancelled, the others go on with a new one.
+    @Test
+    public void cancelledLeaderIsReplaced() throws Exception {
+        final SingleFlightGeocoder geocoder = new SingleFlightGeocoder(backend, cache, metrics, 30, 1000, 10000);
+        backend.release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> leader = executor.submit(() -> geocoder.getAddress(39.47, -0.37));
+            await(backend.lookups, 1);
+            Future<String> follower = executor.submit(() -> geocoder.getAddress(39.47, -0.37));
+            await(metrics.geocodeShared, 1);
+            leader.cancel(true);
+            await(backend.lookups, 2);
+            backend.release.countDown();
+            assertEquals("Address", follower.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // Lookups over the limit are refused until the oldest one leaves the window, whatever their kind.
+    @Test
+    public void rateLimit() throws Exception {
+        final long window = 300;
+        SingleFlightGeocoder geocoder = new SingleFlightGeocoder(backend, cache, metrics, 3, window, 1000, 10000);
+        geocoder.getAddress(39.47, -0.37);
+        geocoder.getAddresses(39.48, -0.37, 3);
+        geocoder.getAddress(39.49, -0.37);
+        long delay = assertThrottled(geocoder);
+        assertTrue(delay <= window + 1);
+        assertEquals(3, backend.lookups.get());
+
+        Thread.sleep(delay);
+        assertNotNull(geocoder.getAddress(39.50, -0.37));
+        assertEquals(4, backend.lookups.get());
+    }
+
+    // The backoff doubles after every error up to its maximum, and a successful lookup resets it.
+    @Test
+    public void backoff() throws Exception {
+        SingleFlightGeocoder geocoder = new SingleFlightGeocoder(backend, cache, metrics, 30, 60000, 100, 400);
+        backend.fail = true;
+        long[] expected = {100, 200, 400, 400};
+        for (long backoff : expected) {
+            try {
+                geocoder.getAddress(39.47, -0.37);
+                fail();
+            } catch (SingleFlightGeocoder.ThrottledException e) {
+                throw e;
+            } catch (IOException e) {
+                // The backend failed
+            }
+            long delay = assertThrottled(geocoder);
+            assertTrue(delay <= backoff + 1);
+            assertTrue(delay > backoff / 2);
+            Thread.sleep(delay);
+        }
+
+        backend.fail = false;
+        assertNotNull(geocoder.getAddress(39.47, -0.37));
+        backend.fail = true;
+        try {
+            geocoder.getAddress(39.47, -0.37);
+            fail();
+        } catch (IOException e) {
+            assertFalse(e instanceof SingleFlightGeocoder.ThrottledException);
+        }
+        assertTrue(assertThrottled(geocoder) <= 101);
+    }
+
+    // Checks that the next lookup is refused, and returns the time until lookups are accepted again.
+    private long assertThrottled(SingleFlightGeocoder geocoder) throws IOException {
+        int lookups = backend.lookups.get();
+        try {
+            geocoder.getAddress(0, 0);
+            fail();
+        } catch (SingleFlightGeocoder.ThrottledException e) {
+            assertEquals(lookups, backend.lookups.get());
+            assertTrue(e.getRetryDelayMillis() > 0);
+            return e.getRetryDelayMillis();
+        }
+        return 0;
+    }
+
+    // Waits until the counter reaches the given value.
+    private static void await(AtomicInteger counter, int value) throws InterruptedException {
+        for (int i = 0; (i < 500) && (counter.get() < value); i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(value, counter.get());
+    }
+
+    private static void await(AtomicLong counter, long value) throws InterruptedException {
+        for (int i = 0; (i < 500) && (counter.get() < value); i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(value, counter.get());
+    }
+
+    // Geocoder counting its lookups, which can be held until released and made to fail.
+    private static final class ScriptedGeocoder implements ReverseGeocoder {
+
+        final AtomicInteger lookups = new AtomicInteger();
+        volatile CountDownLatch release = new CountDownLatch(0);
+        volatile boolean fail = false;
+
+        @Override
+        public String getAddress(double latitude, double longitude) throws IOException {
+            lookups.incrementAndGet();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Lookup cancelled");
+            }
+            if (fail) {
+                throw new IOException("Backend failure");
+            }
+            return "Address";
+        }
+
+        @Override
+        public List<GeocodeResult> getAddresses(double latitude, double longitude, int maxResults) throws IOException {
+            return Collections.singletonList(new GeocodeResult(getAddress(latitude, longitude), latitude, longitude));
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TileIndexTest {
+
+    private static final int MIN_LEVEL = 4;
+    private static final int MAX_LEVEL = 18;
+    private static final long VISIT_GAP_MILLIS = 30 * 60 * 1000;
+    // Enough points to be built in several chunks
+    private static final int POINTS = 100000;
+
+    private static ExecutorService executor;
+    private static final double[] latitudes = new double[POINTS];
+    private static final double[] longitudes = new double[POINTS];
+    private static final long[] times = new long[POINTS];
+
+    @BeforeClass
+    public static void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+        TrackGenerator generator = TrackGenerator.drive(1);
+        Fix fix = new Fix();
+        for (int i = 0; i < POINTS; i++) {
+            generator.next(fix);
+            latitudes[i] = fix.latitude;
+            longitudes[i] = fix.longitude;
+            // Stop for a while now and then, so tiles are visited again
+            times[i] = fix.timeMillis + (i / 10000) * VISIT_GAP_MILLIS;
+        }
+        // Invalid points are ignored, also at the boundaries of the chunks
+        latitudes[POINTS / 4] = Double.NaN;
+        longitudes[POINTS / 2] = Double.NaN;
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void parallelBuildMatchesSequential() throws InterruptedException {
+        TileIndex sequential = new TileIndex(MIN_LEVEL, MAX_LEVEL, VISIT_GAP_MILLIS);
+        for (int i = 0; i < POINTS; i++) {
+            sequential.add(latitudes[i], longitudes[i], times[i]);
+        }
+        // Points added afterwards continue from the end of the track
+        final double latitude = latitudes[POINTS - 1] + 0.01;
+        final long time = times[POINTS - 1] + 60 * 1000;
+        TileIndex continued = new TileIndex(MIN_LEVEL, MAX_LEVEL, VISIT_GAP_MILLIS);
+        for (int i = 0; i < POINTS; i++) {
+            continued.add(latitudes[i], longitudes[i], times[i]);
+        }
+        continued.add(latitude, longitudes[POINTS - 1], time);
+        for (int chunks : new int[]{1, 2, 4, 6}) {
+            TileIndex parallel = TileIndex.build(latitudes, longitudes, times, POINTS,
+                    MIN_LEVEL, MAX_LEVEL, VISIT_GAP_MILLIS, executor, chunks);
+            assertEquals(sequential.getPointCount(), parallel.getPointCount());
+            for (int level = MIN_LEVEL; level <= MAX_LEVEL; level++) {
+                assertEquals(sequential.getTileCount(level), parallel.getTileCount(level));
+                assertEquals(allTiles(sequential, level), allTiles(parallel, level));
+            }
+
+            parallel.add(latitude, longitudes[POINTS - 1], time);
+            assertEquals(allTiles(continued, MAX_LEVEL), allTiles(parallel, MAX_LEVEL));
+        }
+    }
+
+    @Test
+    public void mergeAllAddsUp() throws InterruptedException {
+        TileIndex whole = new TileIndex(MIN_LEVEL, MAX_LEVEL, VISIT_GAP_MILLIS);
+        List<TileIndex> parts = new ArrayList<>();
+        for (int part = 0; part < 5; part++) {
+            TileIndex index = new TileIndex(MIN_LEVEL, MAX_LEVEL, VISIT_GAP_MILLIS);
+            long offset = part * 10 * VISIT_GAP_MILLIS;
+            for (int i = part * 1000; i < (part + 1) * 1000; i++) {
+                index.add(latitudes[i], longitudes[i], times[i] + offset);
+                whole.add(latitudes[i], longitudes[i], times[i] + offset);
+            }
+            parts.add(index);
+        }
+        // The gaps between the parts start new visits in the whole track too
+        TileIndex merged = TileIndex.mergeAll(parts, executor);
+        assertEquals(whole.getPointCount(), merged.getPointCount());
+        assertEquals(allTiles(whole, MAX_LEVEL), allTiles(merged, MAX_LEVEL));
+    }
+
+    // A tile is visited once while the path stays in it, and again when coming back after the gap.
+    @Test
+    public void visits() {
+        TileIndex index = new TileIndex(MIN_LEVEL, MAX_LEVEL, VISIT_GAP_MILLIS);
+        index.add(39.4699, -0.3763, 0);
+        index.add(39.4699, -0.3763, 1000);
+        index.add(39.469901, -0.376301, 2000);
+        assertEquals(1, visitsAt(index, 39.4699, -0.3763));
+        index.add(39.4699, -0.3763, 2000 + VISIT_GAP_MILLIS + 1);
+        assertEquals(2, visitsAt(index, 39.4699, -0.3763));
+        assertEquals(4, index.getPointCount());
+    }
+
+    // The tiles crossed between two points are visited, even if no point falls in them.
+    @Test
+    public void pathBetweenPoints() {
+        TileIndex index = new TileIndex(MAX_LEVEL, MAX_LEVEL, VISIT_GAP_MILLIS);
+        index.add(39.47, -0.40, 0);
+        index.add(39.47, -0.35, 60 * 1000);
+        int x0 = TileIndex.tileX(-0.40, MAX_LEVEL);
+        int x1 = TileIndex.tileX(-0.35, MAX_LEVEL);
+        assertEquals(x1 - x0 + 1, index.getTileCount(MAX_LEVEL));
+        assertEquals(1, visitsAt(index, 39.47, -0.375));
+    }
+
+    // Paths cross the antimeridian the short way, and viewports with west > east cross it too.
+    @Test
+    public void queryAcrossAntimeridian() {
+        TileIndex index = new TileIndex(MAX_LEVEL, MAX_LEVEL, VISIT_GAP_MILLIS);
+        index.add(-17.0, 179.99, 0);
+        index.add(-17.0, -179.99, 60 * 1000);
+        int tiles = index.getTileCount(MAX_LEVEL);
+        assertTrue(tiles < 20);
+        TileIndex.Tiles result = new TileIndex.Tiles();
+        assertEquals(tiles, index.query(-17.1, 179.9, -16.9, -179.9, MAX_LEVEL, result));
+        // Both sides of the antimeridian
+        result.clear();
+        int west = index.query(-17.1, 179.9, -16.9, 180, MAX_LEVEL, result);
+        result.clear();
+        int east = index.query(-17.1, -180, -16.9, -179.9, MAX_LEVEL, result);
+        assertTrue((west > 0) && (east > 0));
+        assertEquals(tiles, west + east);
+    }
+
+    @Test
+    public void levelFor() {
+        TileIndex index = new TileIndex(MIN_LEVEL, MAX_LEVEL, VISIT_GAP_MILLIS);
+        // A whole city does not fit in a few tiles at the finest level
+        int level = index.levelFor(39.4, -0.45, 39.55, -0.3, 64);
+        assertTrue(level < MAX_LEVEL);
+        TileIndex.Tiles tiles = new TileIndex.Tiles();
+        index.add(39.47, -0.37, 0);
+        index.query(39.4, -0.45, 39.55, -0.3, level, tiles);
+        assertEquals(1, tiles.size);
+        assertEquals(level, tiles.level);
+        // The whole world is only a few tiles at the coarsest level
+        assertEquals(MIN_LEVEL, index.levelFor(-85, -180, 85, 180, 1));
+    }
+
+    @Test
+    public void quadkey() {
+        assertEquals("", TileIndex.toQuadkey(0, 0, 0));
+        assertEquals("213", TileIndex.toQuadkey(3, 5, 3));
+    }
+
+    // Returns the visits to every tile of the level, by tile.
+    private static Map<Long, Long> allTiles(TileIndex index, int level) {
+        TileIndex.Tiles tiles = new TileIndex.Tiles();
+        index.query(-85, -180, 85, 180, level, tiles);
+        Map<Long, Long> visits = new HashMap<>();
+        for (int i = 0; i < tiles.size; i++) {
+            visits.put(((long) tiles.x[i] << 32) | tiles.y[i], tiles.visits[i]);
+        }
+        return visits;
+    }
+
+    private static long visitsAt(TileIndex index, double latitude, double longitude) {
+        TileIndex.Tiles tiles = new TileIndex.Tiles();
+        index.query(latitude, longitude, latitude, longitude, index.getMaxLevel(), tiles);
+        return (tiles.size == 0) ? 0 : tiles.visits[0];
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import org.junit.Test;
+
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+
+public class TrackFormatTest {
+
+    private static final long[] VALUES = {0, 1, 127, 128, 300, 16383, 16384, Integer.MAX_VALUE,
+            1500000000000L, Long.MAX_VALUE, -1, Long.MIN_VALUE};
+
+    @Test
+    public void varLongRoundTrip() throws StreamCorruptedException {
+        ByteBuffer buffer = ByteBuffer.allocate(VALUES.length * 10);
+        for (long value : VALUES) {
+            TrackFormat.putVarLong(buffer, value);
+        }
+        buffer.flip();
+        for (long value : VALUES) {
+            assertEquals(value, TrackFormat.getVarLong(buffer));
+        }
+        assertEquals(0, buffer.remaining());
+    }
+
+    @Test
+    public void zigzagRoundTrip() {
+        for (long value : VALUES) {
+            assertEquals(value, TrackFormat.unzigzag(TrackFormat.zigzag(value)));
+        }
+        // Small deltas of either sign take small values
+        assertEquals(1, TrackFormat.zigzag(-1));
+        assertEquals(2, TrackFormat.zigzag(1));
+    }
+
+    // An integer cut by the end of the buffer is not consumed, so it can be read once the rest arrives.
+    @Test
+    public void truncatedVarLongLeavesPosition() throws StreamCorruptedException {
+        ByteBuffer buffer = ByteBuffer.allocate(10);
+        TrackFormat.putVarLong(buffer, 1L << 40);
+        buffer.flip();
+        buffer.limit(buffer.limit() - 1);
+        assertEquals(-1, TrackFormat.getVarLong(buffer));
+        assertEquals(0, buffer.position());
+    }
+
+    @Test(expected = StreamCorruptedException.class)
+    public void overlongVarLongIsCorrupted() throws StreamCorruptedException {
+        ByteBuffer buffer = ByteBuffer.allocate(11);
+        for (int i = 0; i < 10; i++) {
+            buffer.put((byte) 0xFF);
+        }
+        buffer.put((byte) 0x01);
+        buffer.flip();
+        TrackFormat.getVarLong(buffer);
+    }
+
+    @Test
+    public void accuracyRoundTrip() {
+        assertEquals(0, TrackFormat.encodeAccuracy(-1));
+        assertEquals(-1, TrackFormat.decodeAccuracy(0), 0);
+        assertEquals(0, TrackFormat.decodeAccuracy(TrackFormat.encodeAccuracy(0)), 0);
+        assertEquals(12.3f, TrackFormat.decodeAccuracy(TrackFormat.encodeAccuracy(12.34f)), 1e-4f);
+    }
+}
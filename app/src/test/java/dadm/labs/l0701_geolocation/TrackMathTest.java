@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TrackMathTest {
+
+    // Long enough to be split into several chunks
+    private static final int POINTS = 100000;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    // Close points use the equirectangular approximation, within 1 mm per km of the haversine formula.
+    @Test
+    public void distance() {
+        Random random = new Random(1);
+        for (int i = 0; i < 1000; i++) {
+            double latitude = random.nextDouble() * 160 - 80;
+            double longitude = random.nextDouble() * 360 - 180;
+            double latitude2 = latitude + (random.nextDouble() - 0.5) * 0.19;
+            double longitude2 = longitude + (random.nextDouble() - 0.5) * 0.19;
+            double haversine = TrackMath.haversine(latitude, longitude, latitude2, longitude2);
+            assertEquals(haversine, TrackMath.distance(latitude, longitude, latitude2, longitude2), haversine * 1e-6);
+        }
+        // Valencia to Madrid, about 302 km
+        assertEquals(302000, TrackMath.distance(39.4699, -0.3763, 40.4168, -3.7038), 2000);
+        // Across the antimeridian
+        assertEquals(TrackMath.distance(0, 179.99, 0, 180.01), TrackMath.distance(0, 179.99, 0, -179.99), 1e-6);
+        assertEquals(2 * Math.PI * TrackMath.EARTH_RADIUS_METERS * 0.02 / 360,
+                TrackMath.distance(0, 179.99, 0, -179.99), 1e-3);
+    }
+
+    @Test
+    public void bearing() {
+        assertEquals(0, TrackMath.bearing(39.47, -0.37, 39.48, -0.37), 1e-9);
+        assertEquals(90, TrackMath.bearing(0, -0.37, 0, -0.36), 1e-9);
+        assertEquals(180, TrackMath.bearing(39.48, -0.37, 39.47, -0.37), 1e-9);
+        assertEquals(270, TrackMath.bearing(0, 0, 0, -10), 1e-9);
+        assertEquals(90, TrackMath.bearing(0, 179.99, 0, -179.99), 1e-9);
+        assertTrue(Double.isNaN(TrackMath.bearing(39.47, -0.37, 39.47, -0.37)));
+    }
+
+    // Points 0.0001 degrees apart along a meridian, one every second.
+    @Test
+    public void perPointMetrics() {
+        final int count = 11;
+        double[] latitudes = new double[count];
+        double[] longitudes = new double[count];
+        long[] times = new long[count];
+        for (int i = 0; i < count; i++) {
+            latitudes[i] = 39.47 + i * 0.0001;
+            longitudes[i] = -0.37;
+            times[i] = i * 1000L;
+        }
+        // The last point does not move in time, so its speed is not known
+        times[count - 1] = times[count - 2];
+        double step = TrackMath.distance(latitudes[0], longitudes[0], latitudes[1], longitudes[1]);
+
+        double[] distances = new double[count];
+        assertEquals(step * (count - 1), TrackMath.cumulativeDistances(latitudes, longitudes, count, distances), 1e-6);
+        float[] bearings = new float[count];
+        TrackMath.bearings(latitudes, longitudes, count, bearings);
+        float[] speeds = new float[count];
+        TrackMath.speeds(distances, times, count, speeds);
+
+        assertTrue(Float.isNaN(bearings[0]));
+        assertTrue(Float.isNaN(speeds[0]));
+        for (int i = 1; i < count; i++) {
+            assertEquals(step * i, distances[i], 1e-6);
+            assertEquals(0, bearings[i], 1e-3);
+        }
+        for (int i = 1; i < count - 1; i++) {
+            assertEquals(step, speeds[i], 1e-3);
+        }
+        assertTrue(Float.isNaN(speeds[count - 1]));
+    }
+
+    // Changes of altitude below the noise threshold are not accumulated, but they add up until they reach it.
+    @Test
+    public void elevation() {
+        double[] altitudes = {100, 102, 101, 102.5, 104, 110, 108, Double.NaN, 105, 106};
+        int count = altitudes.length;
+        double[] latitudes = new double[count];
+        double[] longitudes = new double[count];
+        long[] times = new long[count];
+        for (int i = 0; i < count; i++) {
+            latitudes[i] = 39.47 + i * 0.0001;
+            longitudes[i] = -0.37;
+            times[i] = i * 1000L;
+        }
+        TrackMath.Summary summary = TrackMath.summarize(latitudes, longitudes, altitudes, times, count);
+        assertEquals(10, summary.elevationGainMeters, 1e-9);
+        assertEquals(5, summary.elevationLossMeters, 1e-9);
+        assertEquals(9000, summary.durationMillis);
+        assertEquals(summary.distanceMeters / 9, summary.getAverageSpeed(), 1e-9);
+
+        TrackMath.Summary empty = TrackMath.summarize(latitudes, longitudes, null, times, 0);
+        assertEquals(0, empty.distanceMeters, 0);
+        assertEquals(0, empty.getAverageSpeed(), 0);
+    }
+
+    // The parallel summary only differs from the sequential one in the rounding of the distances.
+    @Test
+    public void parallelMatchesSequential() throws InterruptedException {
+        double[] latitudes = new double[POINTS];
+        double[] longitudes = new double[POINTS];
+        long[] times = new long[POINTS];
+        generate(latitudes, longitudes, times);
+
+        TrackMath.Summary sequential = TrackMath.summarize(latitudes, longitudes, null, times, POINTS);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            TrackMath.Summary parallel = TrackMath.summarizeParallel(latitudes, longitudes, null, times, POINTS,
+                    executor, 4);
+            assertEquals(sequential.distanceMeters, parallel.distanceMeters, sequential.distanceMeters * 1e-9);
+            assertEquals(sequential.durationMillis, parallel.durationMillis);
+            assertEquals(sequential.maxSpeed, parallel.maxSpeed, 1e-9);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    // A recorded track is summarized as the points it was recorded from, within the precision of the format.
+    @Test
+    public void summarizeTrack() throws IOException, InterruptedException {
+        double[] latitudes = new double[POINTS];
+        double[] longitudes = new double[POINTS];
+        long[] times = new long[POINTS];
+        generate(latitudes, longitudes, times);
+        File file = folder.newFile("drive.trk");
+        TrackRecorder recorder = new TrackRecorder(file);
+        for (int i = 0; i < POINTS; i++) {
+            recorder.append(latitudes[i], longitudes[i], times[i], 5);
+        }
+        recorder.close();
+        assertTrue(recorder.awaitClosed(10, TimeUnit.SECONDS));
+
+        TrackMath.Summary expected = TrackMath.summarize(latitudes, longitudes, null, times, POINTS);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            TrackMath.Summary summary = TrackMath.summarizeTrack(file, executor, 4);
+            assertEquals(expected.distanceMeters, summary.distanceMeters, expected.distanceMeters * 1e-3);
+            assertEquals(expected.durationMillis, summary.durationMillis);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void generate(double[] latitudes, double[] longitudes, long[] times) {
+        TrackGenerator generator = TrackGenerator.drive(1);
+        Fix fix = new Fix();
+        for (int i = 0; i < latitudes.length; i++) {
+            generator.next(fix);
+            latitudes[i] = fix.latitude;
+            longitudes[i] = fix.longitude;
+            times[i] = fix.timeMillis;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StreamCorruptedException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+// Tracks written by TrackRecorder and read back by TrackReader.
+public class TrackRecorderTest {
+
+    // More points than fit in a buffer of the recorder, and several keyframes
+    private static final int POINTS = 5000;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void roundTrip() throws IOException, InterruptedException {
+        File file = folder.newFile("track.trk");
+        Fix[] fixes = record(file, POINTS);
+
+        try (TrackReader reader = new TrackReader(file)) {
+            Fix fix = new Fix();
+            for (Fix expected : fixes) {
+                assertTrue(reader.next(fix));
+                assertEquals(expected.latitude, fix.latitude, 1e-7);
+                assertEquals(expected.longitude, fix.longitude, 1e-7);
+                assertEquals(expected.timeMillis, fix.timeMillis);
+                if (expected.accuracy < 0) {
+                    assertTrue(fix.accuracy < 0);
+                } else {
+                    assertEquals(expected.accuracy, fix.accuracy, 0.05f);
+                }
+            }
+            assertFalse(reader.next(fix));
+        }
+    }
+
+    // Points appended to an existing track continue it.
+    @Test
+    public void appendToExistingTrack() throws IOException, InterruptedException {
+        File file = folder.newFile("track.trk");
+        record(file, 10);
+        record(file, 10);
+        assertEquals(20, count(file));
+    }
+
+    // A track cut in the middle of its last point (e.g. by a crash) loses only that point.
+    @Test
+    public void truncatedTrackLosesLastPoint() throws IOException, InterruptedException {
+        File file = folder.newFile("track.trk");
+        record(file, POINTS);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 1);
+        }
+        assertEquals(POINTS - 1, count(file));
+    }
+
+    @Test(expected = StreamCorruptedException.class)
+    public void trackWithoutKeyframeIsCorrupted() throws IOException {
+        File file = folder.newFile("track.trk");
+        // A delta (even time) as the first point
+        write(file, TrackFormat.MAGIC, new byte[]{2, 0, 0, 0});
+        count(file);
+    }
+
+    @Test
+    public void malformedPointIsCorrupted() throws IOException, InterruptedException {
+        File file = folder.newFile("track.trk");
+        record(file, 10);
+        byte[] malformed = new byte[11];
+        Arrays.fill(malformed, (byte) 0xFF);
+        try (FileOutputStream stream = new FileOutputStream(file, true)) {
+            stream.write(malformed);
+        }
+        // Points before the damage are read
+        try (TrackReader reader = new TrackReader(file)) {
+            Fix fix = new Fix();
+            for (int i = 0; i < 10; i++) {
+                assertTrue(reader.next(fix));
+            }
+            reader.next(fix);
+            fail("Malformed point read");
+        } catch (StreamCorruptedException e) {
+            // Expected
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void notATrack() throws IOException {
+        File file = folder.newFile("track.trk");
+        write(file, new byte[]{'G', 'P', 'X', '1'});
+        new TrackReader(file).close();
+    }
+
+    @Test
+    public void flushAfterClose() throws IOException {
+        TrackRecorder recorder = new TrackRecorder(folder.newFile("track.trk"));
+        recorder.append(39.47, -0.37, 1000, 5);
+        assertTrue(recorder.flush());
+        recorder.close();
+        assertFalse(recorder.flush());
+    }
+
+    // Records a synthetic track with some unknown accuracies and a time going backwards, waiting for the file
+    // to be completed. Returns the fixes recorded.
+    private static Fix[] record(File file, int points) throws IOException, InterruptedException {
+        Fix[] fixes = new Fix[points];
+        TrackGenerator generator = TrackGenerator.walk(1);
+        TrackRecorder recorder = new TrackRecorder(file);
+        for (int i = 0; i < points; i++) {
+            Fix fix = new Fix();
+            generator.next(fix);
+            if (i % 7 == 0) {
+                fix.accuracy = -1;
+            }
+            if (i == points / 2) {
+                fix.timeMillis -= 60 * 1000;
+            }
+            recorder.append(fix.latitude, fix.longitude, fix.timeMillis, fix.accuracy);
+            fixes[i] = fix;
+        }
+        assertEquals(points, recorder.getPoints());
+        recorder.close();
+        assertTrue(recorder.awaitClosed(10, TimeUnit.SECONDS));
+        return fixes;
+    }
+
+    private static int count(File file) throws IOException {
+        int count = 0;
+        try (TrackReader reader = new TrackReader(file)) {
+            while (reader.next()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static void write(File file, byte[]... chunks) throws IOException {
+        try (FileOutputStream stream = new FileOutputStream(file)) {
+            for (byte[] chunk : chunks) {
+                stream.write(chunk);
+            }
+        }
+    }
+}
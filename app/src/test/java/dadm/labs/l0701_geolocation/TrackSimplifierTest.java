@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TrackSimplifierTest {
+
+    private static final double TOLERANCE_METERS = 5;
+    private static final int POINTS = 10000;
+
+    @Test
+    public void walkWithinTolerance() {
+        assertSimplified(TrackGenerator.walk(1));
+    }
+
+    @Test
+    public void driveWithinTolerance() {
+        assertSimplified(TrackGenerator.drive(1));
+    }
+
+    // Points along a straight line are discarded, except those that fill the window.
+    @Test
+    public void straightLine() {
+        final List<Long> kept = new ArrayList<>();
+        TrackSimplifier simplifier = new TrackSimplifier(TOLERANCE_METERS, fix -> kept.add(fix.timeMillis));
+        Fix fix = new Fix();
+        for (int i = 0; i < 50; i++) {
+            simplifier.add(fix.set(39.47 + i * 1e-5, -0.37 + i * 2e-5, 5, -1, i, 0));
+        }
+        simplifier.flush();
+        assertEquals(2, kept.size());
+        assertEquals(0L, (long) kept.get(0));
+        assertEquals(49L, (long) kept.get(1));
+        assertEquals(50, simplifier.getReceived());
+        assertEquals(2, simplifier.getKept());
+    }
+
+    // After a reset, the next point starts a new track.
+    @Test
+    public void reset() {
+        final List<Long> kept = new ArrayList<>();
+        TrackSimplifier simplifier = new TrackSimplifier(TOLERANCE_METERS, fix -> kept.add(fix.timeMillis));
+        Fix fix = new Fix();
+        simplifier.add(fix.set(39.47, -0.37, 5, -1, 0, 0));
+        simplifier.add(fix.set(39.48, -0.37, 5, -1, 1, 0));
+        simplifier.reset();
+        simplifier.add(fix.set(40.0, -3.7, 5, -1, 2, 0));
+        simplifier.flush();
+        assertEquals(2, kept.size());
+        assertEquals(0L, (long) kept.get(0));
+        assertEquals(2L, (long) kept.get(1));
+    }
+
+    // Simplifies a synthetic track and checks that every discarded point is within tolerance of the path.
+    private static void assertSimplified(TrackGenerator generator) {
+        final double[] latitudes = new double[POINTS];
+        final double[] longitudes = new double[POINTS];
+        final List<Integer> kept = new ArrayList<>();
+        // Fixes are identified by their position in the track, stored as their time
+        TrackSimplifier simplifier = new TrackSimplifier(TOLERANCE_METERS, fix -> kept.add((int) fix.timeMillis));
+        Fix fix = new Fix();
+        for (int i = 0; i < POINTS; i++) {
+            generator.next(fix);
+            latitudes[i] = fix.latitude;
+            longitudes[i] = fix.longitude;
+            fix.timeMillis = i;
+            simplifier.add(fix);
+        }
+        simplifier.flush();
+
+        int[] indices = new int[kept.size()];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = kept.get(i);
+        }
+        assertTrue(indices.length < POINTS);
+        assertEquals(indices.length, simplifier.getKept());
+        DouglasPeuckerTest.assertWithinTolerance(latitudes, longitudes, POINTS, indices, TOLERANCE_METERS);
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+// Assembly of the address lines returned by the Geocoder into a single String.
+// android.location.Address is not available on the JVM, so the lines are held in an array
+// and joined with the same loop used by AndroidReverseGeocoder.
+@State(Scope.Thread)
+public class AddressAssemblyBenchmark {
+
+    // Number of lines of the address
+    @Param({"1", "3"})
+    public int lines;
+
+    private String[] addressLines;
+
+    @Setup
+    public void setUp() {
+        String[] all = {"Camí de Vera, s/n", "46022 València, Valencia", "Spain"};
+        addressLines = new String[lines];
+        System.arraycopy(all, all.length - lines, addressLines, 0, lines);
+    }
+
+    // Joins the lines as done by AndroidReverseGeocoder.
+    @Benchmark
+    public String assemble() {
+        StringBuilder builder = new StringBuilder(addressLines[0]);
+        for (int i = 1; i < addressLines.length; i++) {
+            builder.append(", ").append(addressLines[i]);
+        }
+        return builder.toString();
+    }
+
+    // Joins the lines with string concatenation, as a baseline.
+    @Benchmark
+    public String concatenate() {
+        String address = addressLines[0];
+        for (int i = 1; i < addressLines.length; i++) {
+            address = address + ", " + addressLines[i];
+        }
+        return address;
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+
+// Formatting of the coordinates displayed on screen: String.format, as originally done
+// when updating the user interface, against the reusable CoordinateFormatter.
+@State(Scope.Thread)
+public class CoordinateFormatBenchmark {
+
+    // Pattern of the coordinates displayed (from the string resources)
+    private static final String PATTERN = "Longitude: %1$f";
+
+    @Param({TrackDataset.WALK, TrackDataset.DRIVE})
+    public String track;
+
+    private TrackDataset dataset;
+    private int next = 0;
+    private final CoordinateFormatter formatter = new CoordinateFormatter(PATTERN);
+    private final StringBuilder builder = new StringBuilder();
+
+    @Setup
+    public void setUp() throws IOException {
+        dataset = TrackDataset.get(track);
+    }
+
+    @Benchmark
+    public String stringFormat() {
+        return String.format(PATTERN, nextLongitude());
+    }
+
+    @Benchmark
+    public StringBuilder coordinateFormatter() {
+        builder.setLength(0);
+        return formatter.format(nextLongitude(), builder);
+    }
+
+    private double nextLongitude() {
+        if (++next == dataset.size) {
+            next = 0;
+        }
+        return dataset.longitudes[next];
+    }
+}
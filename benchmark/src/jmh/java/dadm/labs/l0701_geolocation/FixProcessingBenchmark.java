@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// Processing of a whole track by the stages that work on every fix received by the TrackingService:
+// the fix pipeline, the adaptive scheduler and the streaming track simplifier, and the fusion of
+// the fixes of several providers.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class FixProcessingBenchmark {
+
+    @Param({TrackDataset.WALK, TrackDataset.DRIVE})
+    public String track;
+
+    private TrackDataset dataset;
+    private final Fix fix = new Fix();
+    private final FixPipeline pipeline = FixPipeline.createDefault();
+    private final AdaptiveLocationScheduler scheduler = new AdaptiveLocationScheduler(null);
+    private long kept;
+    private final TrackSimplifier simplifier = new TrackSimplifier(5, point -> kept++);
+    private final FixFusion fusion = new FixFusion(1.5, 60 * 1000);
+    private final Fix estimate = new Fix();
+
+    @Setup
+    public void setUp() throws IOException {
+        dataset = TrackDataset.get(track);
+    }
+
+    @Benchmark
+    public long pipeline() {
+        pipeline.reset();
+        for (int i = 0; i < dataset.size; i++) {
+            dataset.fix(i, fix);
+            pipeline.process(fix, fix.elapsedRealtimeNanos);
+        }
+        return pipeline.getAccepted();
+    }
+
+    @Benchmark
+    public AdaptiveLocationScheduler.Policy scheduler() {
+        scheduler.reset();
+        for (int i = 0; i < dataset.size; i++) {
+            scheduler.onLocation(dataset.latitudes[i], dataset.longitudes[i], dataset.times[i], dataset.speeds[i]);
+        }
+        return scheduler.getPolicy();
+    }
+
+    @Benchmark
+    public long simplifier() {
+        simplifier.reset();
+        kept = 0;
+        for (int i = 0; i < dataset.size; i++) {
+            simplifier.add(dataset.fix(i, fix));
+        }
+        simplifier.flush();
+        return kept;
+    }
+
+    // Every fix of the track is delivered by the providers in turn, as when all of them are active.
+    @Benchmark
+    public double fusion() {
+        fusion.reset();
+        double sum = 0;
+        for (int i = 0; i < dataset.size; i++) {
+            if (fusion.add(i % 3, dataset.fix(i, fix), fix.elapsedRealtimeNanos, estimate)) {
+                sum += estimate.accuracy;
+            }
+        }
+        return sum;
+    }
+}
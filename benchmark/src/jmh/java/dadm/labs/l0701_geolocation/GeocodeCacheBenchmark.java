@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+
+// Lookups in the cache of reverse geocoding results, following the fixes of a track.
+// The cache is configured as in GeocodingService, and every miss is resolved with a constant address.
+@State(Scope.Thread)
+public class GeocodeCacheBenchmark {
+
+    @Param({TrackDataset.WALK, TrackDataset.DRIVE})
+    public String track;
+
+    private TrackDataset dataset;
+    private GeocodeCache cache;
+    private int next = 0;
+
+    @Setup
+    public void setUp() throws IOException {
+        dataset = TrackDataset.get(track);
+        cache = new GeocodeCache(25, 256, 10 * 60 * 1000);
+    }
+
+    @Benchmark
+    public String lookup() {
+        if (++next == dataset.size) {
+            next = 0;
+        }
+        double latitude = dataset.latitudes[next];
+        double longitude = dataset.longitudes[next];
+        String address = cache.get(latitude, longitude);
+        if (address == null) {
+            address = "Address";
+            cache.put(latitude, longitude, address);
+        }
+        return address;
+    }
+
+    @Benchmark
+    public long cellKey() {
+        if (++next == dataset.size) {
+            next = 0;
+        }
+        return cache.cellKey(dataset.latitudes[next], dataset.longitudes[next]);
+    }
+}
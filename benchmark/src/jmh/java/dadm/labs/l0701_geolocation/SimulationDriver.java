@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Runs the tracking pipeline of the app on the JVM, fed by a synthetic or recorded track:
+// scheduler, fix pipeline, geofences, track simplifier and the GeocodingService backed by a stub geocoder.
+// Fixes are published on a single thread standing for the main thread of the app, at their original
+// pace scaled by the playback rate, so the metrics collected are comparable to those of a device.
+// ./gradlew :benchmark:simulate --args="track=drive rate=10 count=2000 latency=300 failure=0.1"
+// Arguments (all optional, as key=value):
+// track     "walk" or "drive" for synthetic tracks, or the path of a recorded track (default walk).
+// rate      Factor to speed up the playback, or 0 to publish the fixes as fast as possible (default 10).
+// count     Maximum number of fixes to publish (default 1000).
+// latency   Average latency of the stub geocoder (in milliseconds, default 200).
+// failure   Probability of a lookup failing (from 0 to 1, default 0.05).
+// seed      Seed of the synthetic track and of the stub geocoder (default 1).
+// geofences Path of a file with the geofences to monitor (as geofences.csv in the assets of the app).
+// batch     Number of candidate addresses to request for every point of the simplified track at the end
+//           of the simulation, as a single batch whose results are streamed (default 0, no batch).
+public final class SimulationDriver {
+
+    // Tolerance of the track simplifier (in meters), as used by the TrackingService
+    private static final double TRACK_TOLERANCE_METERS = 5;
+    // Time before a geofence is dwelled (in milliseconds), as used by the TrackingService
+    private static final long GEOFENCE_DWELL_MILLIS = 5 * 60 * 1000;
+
+    private SimulationDriver() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Expected key=value: " + arg);
+            }
+            options.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        String track = get(options, "track", TrackGenerator.WALK);
+        float rate = Float.parseFloat(get(options, "rate", "10"));
+        long count = Long.parseLong(get(options, "count", "1000"));
+        long latency = Long.parseLong(get(options, "latency", "200"));
+        double failure = Double.parseDouble(get(options, "failure", "0.05"));
+        long seed = Long.parseLong(get(options, "seed", "1"));
+        String geofences = options.get("geofences");
+        int batch = Integer.parseInt(get(options, "batch", "0"));
+
+        // Thread standing for the main thread of the app
+        final ExecutorService mainThread = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "main"));
+
+        final TrackingMetrics metrics = new TrackingMetrics();
+        final AdaptiveLocationScheduler scheduler = new AdaptiveLocationScheduler(policy -> {
+        });
+        final FixPipeline pipeline = FixPipeline.createDefault();
+        // Points of the simplified track, as they would be recorded
+        final double[][] kept = {new double[1024], new double[1024]};
+        final int[] keptCount = {0};
+        final TrackSimplifier simplifier = new TrackSimplifier(TRACK_TOLERANCE_METERS, fix -> {
+            if (keptCount[0] == kept[0].length) {
+                kept[0] = Arrays.copyOf(kept[0], keptCount[0] * 2);
+                kept[1] = Arrays.copyOf(kept[1], keptCount[0] * 2);
+            }
+            kept[0][keptCount[0]] = fix.latitude;
+            kept[1][keptCount[0]] = fix.longitude;
+            keptCount[0]++;
+        });
+        // Synthetic and recorded tracks have no altitude
+        final TrackStatistics statistics = new TrackStatistics();
+        final AtomicLong transitions = new AtomicLong();
+        final GeofenceEngine geofenceEngine = new GeofenceEngine((geofence, transition, fix) ->
+                transitions.incrementAndGet(), GEOFENCE_DWELL_MILLIS, GeofenceEngine.DEFAULT_CELL_SIZE_METERS);
+        if (geofences != null) {
+            try (InputStream stream = new FileInputStream(geofences)) {
+                geofenceEngine.setGeofences(GeofenceIndex.loadGeofences(stream));
+            }
+        }
+        final AtomicLong addresses = new AtomicLong();
+        final GeocodingService geocodingService = new GeocodingService(
+                new StubReverseGeocoder(latency, latency / 2, failure, seed), () -> null,
+                new MemoryAddressStore(), () -> true, metrics, mainThread);
+        // Profile of the session, as in the profiling mode of the TrackingService (network and battery not available)
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        final SessionProfiler profiler = new SessionProfiler("replay/" + new File(track).getName() + "/x" + rate,
+                metrics, System.nanoTime(), -1, -1, -1);
+        geocodingService.setOnAddressResolvedListener((latitude, longitude, address) -> addresses.incrementAndGet());
+
+        FixSequence sequence = TrackGenerator.get(track, seed);
+        if (sequence == null) {
+            sequence = new TrackReader(new File(track));
+        }
+
+        // Time since the previous fix was published, as measured by the TrackingService
+        final long[] previousFixNanos = {0};
+
+        // Publish the fixes at their original pace, scaled by the playback rate
+        long startNanos = System.nanoTime();
+        long firstFixMillis = -1;
+        try (FixSequence fixes = sequence) {
+            Fix next = new Fix();
+            for (long i = 0; (i < count) && fixes.next(next); i++) {
+                if (firstFixMillis < 0) {
+                    firstFixMillis = next.timeMillis;
+                }
+                // As in ReplayLocationSource, fixes keep their recorded time and are stamped with the time
+                // they are due to be published (as fast as possible without a rate)
+                long dueNanos = System.nanoTime();
+                if (rate > 0) {
+                    dueNanos = startNanos + (long) ((next.timeMillis - firstFixMillis) * 1000000.0 / rate);
+                    long waitNanos;
+                    while ((waitNanos = dueNanos - System.nanoTime()) > 0) {
+                        LockSupport.parkNanos(waitNanos);
+                    }
+                }
+                final Fix fix = new Fix().set(next.latitude, next.longitude, next.accuracy, next.speed,
+                        next.timeMillis, dueNanos);
+                mainThread.execute(() -> {
+                    // Same processing as TrackingService.processLocation() and updateFix()
+                    long now = System.nanoTime();
+                    long cpuStart = threads.getCurrentThreadCpuTime();
+                    metrics.fixesReceived.incrementAndGet();
+                    metrics.fixAge.record(now - fix.elapsedRealtimeNanos);
+                    if (previousFixNanos[0] != 0) {
+                        metrics.fixInterval.record(fix.elapsedRealtimeNanos - previousFixNanos[0]);
+                    }
+                    previousFixNanos[0] = fix.elapsedRealtimeNanos;
+                    scheduler.onLocation(fix.latitude, fix.longitude, fix.timeMillis, fix.speed);
+                    boolean accepted = false;
+                    if (pipeline.process(fix, now)) {
+                        metrics.fixesAccepted.incrementAndGet();
+                        geofenceEngine.onFix(fix);
+                        statistics.add(fix.latitude, fix.longitude, Double.NaN, fix.timeMillis);
+                        simplifier.add(fix);
+                        geocodingService.requestAddress(fix.latitude, fix.longitude);
+                        accepted = true;
+                    }
+                    profiler.onLocation(fix.elapsedRealtimeNanos, fix.accuracy, accepted,
+                            threads.getCurrentThreadCpuTime() - cpuStart, true);
+                });
+            }
+        }
+
+        // Let the lookups in flight complete before collecting the results
+        mainThread.execute(simplifier::flush);
+        Thread.sleep(Math.max(100, 3 * latency));
+
+        // Geocode the whole simplified track, measuring when the results are streamed
+        final long[] batchNanos = {0, 0, 0};
+        if (batch > 0) {
+            final CountDownLatch finished = new CountDownLatch(1);
+            final long batchStartNanos = System.nanoTime();
+            mainThread.execute(() -> geocodingService.requestAddresses(kept[0], kept[1], keptCount[0], batch,
+                    new GeocodingService.OnResultsListener() {
+                        @Override
+                        public void onResults(int index, List<GeocodeResult> results) {
+                            if (batchNanos[0] == 0) {
+                                batchNanos[0] = System.nanoTime() - batchStartNanos;
+                            }
+                            batchNanos[2] += results.size();
+                        }
+
+                        @Override
+                        public void onFinished() {
+                            batchNanos[1] = System.nanoTime() - batchStartNanos;
+                            finished.countDown();
+                        }
+                    }));
+            finished.await();
+        }
+        mainThread.shutdown();
+        mainThread.awaitTermination(10, TimeUnit.SECONDS);
+        geocodingService.shutdown();
+        profiler.finish(System.nanoTime(), -1, -1, -1);
+
+        PrintWriter writer = new PrintWriter(System.out);
+        writer.println("Simulated " + track + " at x" + rate + " in " +
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos) + " ms");
+        metrics.dump(writer);
+        writer.println("Address cache: " + geocodingService.getCache());
+        writer.println("Addresses delivered: " + addresses.get());
+        writer.println("Track: " + statistics);
+        writer.println("Track simplifier: received=" + simplifier.getReceived() + " kept=" + keptCount[0]);
+        if (batch > 0) {
+            writer.println("Batch of " + keptCount[0] + " points: results=" + batchNanos[2] +
+                    " first=" + TimeUnit.NANOSECONDS.toMillis(batchNanos[0]) +
+                    " ms all=" + TimeUnit.NANOSECONDS.toMillis(batchNanos[1]) + " ms");
+        }
+        writer.println("Geofence transitions: " + transitions.get());
+        writer.println("Scheduler: " + scheduler.getPolicy());
+        writer.println("Profile:");
+        writer.println(SessionProfiler.CSV_HEADER);
+        writer.println(profiler.toCsv());
+        writer.flush();
+    }
+
+    private static String get(Map<String, String> options, String key, String defaultValue) {
+        String value = options.get(key);
+        return (value != null) ? value : defaultValue;
+    }
+
+    // AddressStore keeping the addresses in memory, instead of in a database.
+    private static final class MemoryAddressStore implements AddressStore {
+
+        private final Map<Long, String> addresses = new HashMap<>();
+
+        @Override
+        public synchronized String get(long cell) {
+            return addresses.get(cell);
+        }
+
+        @Override
+        public synchronized void put(long cell, String address) {
+            addresses.put(cell, address);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Spatial queries performed for every fix: the nearest known place for the offline geocoder
+// and the candidate geofences, with places and geofences scattered around the track.
+@State(Scope.Thread)
+public class SpatialIndexBenchmark {
+
+    @Param({TrackDataset.WALK, TrackDataset.DRIVE})
+    public String track;
+
+    // Number of places and geofences indexed
+    @Param({"1000", "50000"})
+    public int regions;
+
+    private TrackDataset dataset;
+    private PlaceIndex places;
+    private GeofenceEngine geofences;
+    private long transitions;
+    private final Fix fix = new Fix();
+    private int next = 0;
+
+    @Setup
+    public void setUp() throws IOException {
+        dataset = TrackDataset.get(track);
+
+        // Scatter the places and geofences over the bounding box of the track
+        double minLatitude = Double.MAX_VALUE, maxLatitude = -Double.MAX_VALUE;
+        double minLongitude = Double.MAX_VALUE, maxLongitude = -Double.MAX_VALUE;
+        for (int i = 0; i < dataset.size; i++) {
+            minLatitude = Math.min(minLatitude, dataset.latitudes[i]);
+            maxLatitude = Math.max(maxLatitude, dataset.latitudes[i]);
+            minLongitude = Math.min(minLongitude, dataset.longitudes[i]);
+            maxLongitude = Math.max(maxLongitude, dataset.longitudes[i]);
+        }
+        Random random = new Random(regions);
+        double[] latitudes = new double[regions];
+        double[] longitudes = new double[regions];
+        String[] names = new String[regions];
+        List<Geofence> fences = new ArrayList<>(regions);
+        for (int i = 0; i < regions; i++) {
+            latitudes[i] = minLatitude + random.nextDouble() * (maxLatitude - minLatitude);
+            longitudes[i] = minLongitude + random.nextDouble() * (maxLongitude - minLongitude);
+            names[i] = "Place " + i;
+            fences.add(new Geofence(names[i], latitudes[i], longitudes[i], 50 + random.nextFloat() * 450));
+        }
+        places = new PlaceIndex(latitudes, longitudes, names);
+        geofences = new GeofenceEngine((geofence, transition, fix) -> transitions++,
+                5 * 60 * 1000, GeofenceEngine.DEFAULT_CELL_SIZE_METERS);
+        geofences.setGeofences(fences);
+    }
+
+    @Benchmark
+    public int nearestPlace() {
+        if (++next == dataset.size) {
+            next = 0;
+        }
+        return places.nearest(dataset.latitudes[next], dataset.longitudes[next]);
+    }
+
+    @Benchmark
+    public long geofences() {
+        if (++next == dataset.size) {
+            next = 0;
+        }
+        geofences.onFix(dataset.fix(next, fix));
+        return transitions;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// Heatmap of a whole track: building it point by point, building it in parallel and merging the parts,
+// and querying the tiles of a viewport as a map overlay would while panning.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TileIndexBenchmark {
+
+    private static final int MIN_LEVEL = 4;
+    private static final int MAX_LEVEL = 18;
+    private static final long VISIT_GAP_MILLIS = 30 * 60 * 1000;
+    // Tiles of the viewport at the level selected for the query
+    private static final int MAX_TILES = 1024;
+
+    @Param({TrackDataset.WALK, TrackDataset.DRIVE})
+    public String track;
+
+    private TrackDataset dataset;
+    private TileIndex index;
+    private final TileIndex.Tiles tiles = new TileIndex.Tiles();
+    // Bounds of the track, where the viewports are placed
+    private double south;
+    private double west;
+    private double north;
+    private double east;
+    // Viewport queried next, moved across the track by every query
+    private int viewport = 0;
+    private ExecutorService executor;
+    private int threads;
+
+    @Setup
+    public void setUp() throws IOException {
+        dataset = TrackDataset.get(track);
+        index = new TileIndex(MIN_LEVEL, MAX_LEVEL, VISIT_GAP_MILLIS);
+        south = west = Double.POSITIVE_INFINITY;
+        north = east = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < dataset.size; i++) {
+            index.add(dataset.latitudes[i], dataset.longitudes[i], dataset.times[i]);
+            south = Math.min(south, dataset.latitudes[i]);
+            north = Math.max(north, dataset.latitudes[i]);
+            west = Math.min(west, dataset.longitudes[i]);
+            east = Math.max(east, dataset.longitudes[i]);
+        }
+        threads = Runtime.getRuntime().availableProcessors();
+        executor = Executors.newFixedThreadPool(threads);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Benchmark
+    public long build() {
+        TileIndex built = new TileIndex(MIN_LEVEL, MAX_LEVEL, VISIT_GAP_MILLIS);
+        for (int i = 0; i < dataset.size; i++) {
+            built.add(dataset.latitudes[i], dataset.longitudes[i], dataset.times[i]);
+        }
+        return built.getPointCount();
+    }
+
+    @Benchmark
+    public long buildParallel() throws InterruptedException {
+        return TileIndex.build(dataset.latitudes, dataset.longitudes, dataset.times, dataset.size,
+                MIN_LEVEL, MAX_LEVEL, VISIT_GAP_MILLIS, executor, threads).getPointCount();
+    }
+
+    // Queries a viewport a quarter as wide and high as the track, moving it across the track on every call.
+    @Benchmark
+    public int query() {
+        final double height = (north - south) / 4;
+        final double width = (east - west) / 4;
+        final double viewportSouth = south + (viewport % 4) * height * 3 / 4;
+        final double viewportWest = west + (viewport / 4 % 4) * width * 3 / 4;
+        viewport++;
+        tiles.clear();
+        final double viewportNorth = viewportSouth + height;
+        final double viewportEast = viewportWest + width;
+        return index.query(viewportSouth, viewportWest, viewportNorth, viewportEast,
+                index.levelFor(viewportSouth, viewportWest, viewportNorth, viewportEast, MAX_TILES), tiles);
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// Recording a whole track to disk and reading it back with the compact binary track format.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TrackCodecBenchmark {
+
+    @Param({TrackDataset.WALK, TrackDataset.DRIVE})
+    public String track;
+
+    private TrackDataset dataset;
+    // Files being written and read
+    private File writeFile;
+    private File readFile;
+
+    @Setup
+    public void setUp() throws IOException, InterruptedException {
+        dataset = TrackDataset.get(track);
+        writeFile = File.createTempFile("benchmark", ".trk");
+        readFile = File.createTempFile("benchmark", ".trk");
+        readFile.delete();
+        record(readFile);
+        // The recorder completes the file in background
+        Thread.sleep(1000);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        writeFile.delete();
+        readFile.delete();
+    }
+
+    @Benchmark
+    public long write() throws IOException {
+        writeFile.delete();
+        return record(writeFile);
+    }
+
+    @Benchmark
+    public double read() throws IOException {
+        double sum = 0;
+        try (TrackReader reader = new TrackReader(readFile)) {
+            while (reader.next()) {
+                sum += reader.getLatitude() + reader.getLongitude();
+            }
+        }
+        return sum;
+    }
+
+    // Records the whole track into a file.
+    private long record(File file) throws IOException {
+        TrackRecorder recorder = new TrackRecorder(file);
+        for (int i = 0; i < dataset.size; i++) {
+            recorder.append(dataset.latitudes[i], dataset.longitudes[i], dataset.times[i], dataset.accuracies[i]);
+        }
+        long points = recorder.getPoints();
+        recorder.close();
+        return points;
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+// Track used as input by the benchmarks, held in primitive arrays.
+// It is either generated synthetically by TrackGenerator from a fixed seed, so results are comparable
+// between runs, or loaded from a track recorded by the app.
+final class TrackDataset {
+
+    // Names of the synthetic tracks
+    static final String WALK = TrackGenerator.WALK;
+    static final String DRIVE = TrackGenerator.DRIVE;
+
+    // Number of points of the synthetic tracks
+    private static final int SYNTHETIC_POINTS = 100000;
+
+    final double[] latitudes;
+    final double[] longitudes;
+    final long[] times;
+    final float[] accuracies;
+    final float[] speeds;
+    final int size;
+
+    private TrackDataset(double[] latitudes, double[] longitudes, long[] times,
+                         float[] accuracies, float[] speeds, int size) {
+        this.latitudes = latitudes;
+        this.longitudes = longitudes;
+        this.times = times;
+        this.accuracies = accuracies;
+        this.speeds = speeds;
+        this.size = size;
+    }
+
+    // Returns the synthetic track with the given name, or loads the given recorded track file.
+    static TrackDataset get(String track) throws IOException {
+        switch (track) {
+            case WALK:
+                return read(TrackGenerator.walk(1), SYNTHETIC_POINTS);
+            case DRIVE:
+                return read(TrackGenerator.drive(2), SYNTHETIC_POINTS);
+            default:
+                return read(new TrackReader(new File(track)), Integer.MAX_VALUE);
+        }
+    }
+
+    // Copies a point of the track into a fix.
+    Fix fix(int index, Fix fix) {
+        return fix.set(latitudes[index], longitudes[index], accuracies[index], speeds[index],
+                times[index], times[index] * 1000000L);
+    }
+
+    // Reads up to the given number of fixes of a track, closing it afterwards.
+    private static TrackDataset read(FixSequence track, int maxSize) throws IOException {
+        int capacity = Math.min(maxSize, 1024);
+        double[] latitudes = new double[capacity];
+        double[] longitudes = new double[capacity];
+        long[] times = new long[capacity];
+        float[] accuracies = new float[capacity];
+        float[] speeds = new float[capacity];
+        int size = 0;
+        Fix fix = new Fix();
+        try (FixSequence sequence = track) {
+            while ((size < maxSize) && sequence.next(fix)) {
+                if (size == latitudes.length) {
+                    capacity = (int) Math.min(maxSize, size * 2L);
+                    latitudes = Arrays.copyOf(latitudes, capacity);
+                    longitudes = Arrays.copyOf(longitudes, capacity);
+                    times = Arrays.copyOf(times, capacity);
+                    accuracies = Arrays.copyOf(accuracies, capacity);
+                    speeds = Arrays.copyOf(speeds, capacity);
+                }
+                latitudes[size] = fix.latitude;
+                longitudes[size] = fix.longitude;
+                times[size] = fix.timeMillis;
+                accuracies[size] = fix.accuracy;
+                // Recorded tracks do not keep the speed, so it is -1 for them
+                speeds[size] = fix.speed;
+                size++;
+            }
+        }
+        return new TrackDataset(latitudes, longitudes, times, accuracies, speeds, size);
+    }
+}
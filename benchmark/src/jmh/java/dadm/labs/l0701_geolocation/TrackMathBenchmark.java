@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2016. David de Andrés and Juan Carlos Ruiz, DISCA - UPV, Development of apps for mobile devices.
+ */
+
+package dadm.labs.l0701_geolocation;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// Distance, speed and elevation of a whole track: per point arrays, sequential and parallel summaries,
+// and the streaming statistics updated for every accepted fix.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TrackMathBenchmark {
+
+    @Param({TrackDataset.WALK, TrackDataset.DRIVE})
+    public String track;
+
+    private TrackDataset dataset;
+    // Synthetic altitudes of the points, with noise below the elevation threshold
+    private double[] altitudes;
+    // Outputs of the per point computations
+    private double[] distances;
+    private float[] bearings;
+    private float[] speeds;
+    private final TrackStatistics statistics = new TrackStatistics();
+    private ExecutorService executor;
+    private int threads;
+
+    @Setup
+    public void setUp() throws IOException {
+        dataset = TrackDataset.get(track);
+        altitudes = new double[dataset.size];
+        for (int i = 0; i < dataset.size; i++) {
+            altitudes[i] = 100 + 50 * Math.sin(i / 500.0) + Math.sin(i * 7.3);
+        }
+        distances = new double[dataset.size];
+        bearings = new float[dataset.size];
+        speeds = new float[dataset.size];
+        threads = Runtime.getRuntime().availableProcessors();
+        executor = Executors.newFixedThreadPool(threads);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Benchmark
+    public float perPoint() {
+        TrackMath.cumulativeDistances(dataset.latitudes, dataset.longitudes, dataset.size, distances);
+        TrackMath.bearings(dataset.latitudes, dataset.longitudes, dataset.size, bearings);
+        TrackMath.speeds(distances, dataset.times, dataset.size, speeds);
+        return speeds[dataset.size - 1] + bearings[dataset.size - 1];
+    }
+
+    @Benchmark
+    public TrackMath.Summary summarize() {
+        return TrackMath.summarize(dataset.latitudes, dataset.longitudes, altitudes, dataset.times, dataset.size);
+    }
+
+    @Benchmark
+    public TrackMath.Summary summarizeParallel() throws InterruptedException {
+        return TrackMath.summarizeParallel(dataset.latitudes, dataset.longitudes, altitudes, dataset.times,
+                dataset.size, executor, threads);
+    }
+
+    @Benchmark
+    public double stream() {
+        statistics.reset();
+        for (int i = 0; i < dataset.size; i++) {
+            statistics.add(dataset.latitudes[i], dataset.longitudes[i], altitudes[i], dataset.times[i]);
+        }
+        return statistics.getDistance();
+    }
+}